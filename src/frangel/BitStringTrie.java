@@ -2,6 +2,8 @@
 
 package frangel;
 
+import frangel.interpreter.CodePath;
+
 public class BitStringTrie {
     private static class Node {
         Node child0, child1;
@@ -27,11 +29,11 @@ public class BitStringTrie {
         size = 0;
     }
 
-    public void add(String bitstring) {
+    public void add(CodePath bitstring) {
         Node cur = root;
         int len = bitstring.length();
         for (int i = 0; i < len; i++) {
-            boolean bit = bitstring.charAt(i) != '0';
+            boolean bit = bitstring.get(i);
             Node next = cur.getChild(bit);
             cur = (next == null ? cur.createChild(bit) : next);
         }
@@ -42,13 +44,13 @@ public class BitStringTrie {
     }
 
     // Returns true if any prefix of the provided bitstring is already in the trie.
-    public boolean containsPrefix(StringBuilder bitstring) {
+    public boolean containsPrefix(CodePath bitstring) {
         Node cur = root;
         if (cur.isLeaf)
             return true;
         int len = bitstring.length();
         for (int i = 0; i < len; i++) {
-            cur = cur.getChild(bitstring.charAt(i) != '0');
+            cur = cur.getChild(bitstring.get(i));
             if (cur == null)
                 return false;
             if (cur.isLeaf)
@@ -3,6 +3,7 @@ package frangel;
 import java.util.*;
 
 import frangel.interpreter.Interpreter;
+import frangel.interpreter.PreparedProgram;
 import frangel.model.FunctionData.Kind;
 import frangel.model.Program;
 import frangel.model.expression.*;
@@ -36,8 +37,9 @@ public class Cleaner {
     }
 
     private boolean checkClean() {
+        PreparedProgram prepared = Interpreter.prepare(program);
         for (int i = indices.nextSetBit(0); i >= 0; i = indices.nextSetBit(i+1)) {
-            boolean result = Interpreter.runProgram(program, task.getExample(i), null, false).isSuccess();
+            boolean result = Interpreter.runProgram(prepared, task.getExample(i), null, false).isSuccess();
             if (!result)
                 return false;
         }
@@ -84,7 +86,7 @@ public class Cleaner {
         }
 
         for (Class<?> type : types) {
-            if (!Settings.SYPET_MODE) {
+            if (!task.isSyPetMode()) {
                 List<Object> literalChoices = task.getLiteralsForType(type);
                 if (literalChoices != null)
                     for (Object lit : literalChoices)
@@ -136,7 +138,7 @@ public class Cleaner {
             if (!f.data.isStatic) {
                 original = f.callee();
                 if (f.data.kind == Kind.METHOD)
-                    replacements = getReplacements(original, JavaFunctionLoader.getPossibleCallingTypes(f.data.getMethod()));
+                    replacements = getReplacements(original, program.components.getPossibleCallingTypes(f.data.getMethod()));
                 else
                     replacements = getReplacements(original);
                 replaced = false;
@@ -403,7 +405,7 @@ public class Cleaner {
     }
 
     private Expression deepCleanExpressionReplacement(Expression original, int size) {
-        return Utils.randBoolean(0.75) ?
+        return program.rand.nextBoolean(0.75) ?
                 program.expressionGenerator.newOrSimilar(original, size + Settings.SIMILAR_NEW_EXTRA_SIZE) :
                     program.expressionGenerator.genAnyExp(size + Settings.SIMILAR_NEW_EXTRA_SIZE, original.getType(), false);
     }
@@ -412,7 +414,7 @@ public class Cleaner {
         for (int i = 0; i < block.size() && !Utils.timeout(timeout); i++) {
             Statement original = block.get(i);
             int originalSize = ProgramUtils.size(original);
-            Statement replacement = (Utils.randBoolean(0.75) ?
+            Statement replacement = (program.rand.nextBoolean(0.75) ?
                     program.statementGenerator.newOrSimilar(original, originalSize + Settings.SIMILAR_NEW_EXTRA_SIZE) :
                         program.statementGenerator.genStatement(originalSize + Settings.SIMILAR_NEW_EXTRA_SIZE,
                                 new StatementCategory[] {StatementCategory.ASSIGN, StatementCategory.FUNC}, original.getIndent(), false));
@@ -0,0 +1,112 @@
+// The functions (components) available to a task, built by JavaFunctionLoader.
+// Immutable, so it can be shared by search workers and by tasks with the same classes (see JavaFunctionLoader.load()).
+// Its FunctionData objects are then shared too, so per-task state must not be kept on them.
+
+package frangel;
+
+import java.lang.reflect.Method;
+import java.util.*;
+
+import frangel.model.FunctionData;
+import frangel.utils.Utils;
+
+public class ComponentIndex {
+
+    // Every version of an overloaded function corresponds to a separate FunctionData object
+    private final List<FunctionData> allData; // includes methods, fields, constructors, and array operations
+    private final List<FunctionData> allMethods; // only methods
+    private final Map<Class<?>, List<FunctionData>> functionsByReturnType;
+    private final Map<String, FunctionData> bySignature;
+
+    private final Map<Class<?>, Set<Class<?>>> supers;
+    private final Map<Method, Set<Class<?>>> possibleCallingTypes; // if A is assignable from B, then only include A
+
+    private final FunctionData keySetData;
+
+    ComponentIndex(List<FunctionData> allData, List<FunctionData> allMethods, Map<Class<?>, List<FunctionData>> functionsByReturnType,
+            Map<Class<?>, Set<Class<?>>> supers, Map<Method, Set<Class<?>>> possibleCallingTypes, FunctionData keySetData) {
+        this.allData = Collections.unmodifiableList(new ArrayList<>(allData));
+        this.allMethods = Collections.unmodifiableList(new ArrayList<>(allMethods));
+        Map<Class<?>, List<FunctionData>> byReturnType = new HashMap<>();
+        for (Map.Entry<Class<?>, List<FunctionData>> entry : functionsByReturnType.entrySet())
+            byReturnType.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        this.functionsByReturnType = byReturnType;
+        Map<String, FunctionData> signatures = new HashMap<>();
+        for (FunctionData data : allData)
+            signatures.putIfAbsent(data.getSignature(), data);
+        if (keySetData != null)
+            signatures.putIfAbsent(keySetData.getSignature(), keySetData); // only used for for-each loops
+        this.bySignature = signatures;
+        Map<Class<?>, Set<Class<?>>> supersCopy = new HashMap<>();
+        for (Map.Entry<Class<?>, Set<Class<?>>> entry : supers.entrySet())
+            supersCopy.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+        this.supers = supersCopy;
+        Map<Method, Set<Class<?>>> callingTypesCopy = new HashMap<>();
+        for (Map.Entry<Method, Set<Class<?>>> entry : possibleCallingTypes.entrySet())
+            callingTypesCopy.put(entry.getKey(), Collections.unmodifiableSet(entry.getValue()));
+        this.possibleCallingTypes = callingTypesCopy;
+        this.keySetData = keySetData;
+
+        // Encodings are numbered per index, so none outlive it once JavaFunctionLoader.release() drops it
+        Map<String, Integer> encodings = new HashMap<>();
+        for (FunctionData data : allData) {
+            String key = data.getEncodingKey();
+            if (!encodings.containsKey(key))
+                encodings.put(key, encodings.size());
+            data.setEncoding(encodings.get(key));
+        }
+
+        // Built here (see FunctionData.prepareInvoker()) rather than on a search worker's first call
+        for (FunctionData data : allData)
+            data.prepareInvoker();
+        if (keySetData != null)
+            keySetData.prepareInvoker();
+    }
+
+    public List<FunctionData> getFunctionsByReturnType(Class<?> type) {
+        return functionsByReturnType.get(type);
+    }
+
+    // Excludes constructors, fields, and array operations
+    public List<FunctionData> getAllMethods() {
+        return allMethods;
+    }
+
+    // Null if no function has this signature (see FunctionData.getSignature())
+    public FunctionData getBySignature(String signature) {
+        return bySignature.get(signature);
+    }
+
+    public int numData() {
+        return allData.size();
+    }
+
+    public List<FunctionData> getCallableVoidMethods(Set<Class<?>> callableClasses) {
+        List<FunctionData> voidCallable = new ArrayList<>();
+        List<FunctionData> voidMethods = getFunctionsByReturnType(void.class);
+        if (voidMethods == null)
+            return null;
+        for (FunctionData data : voidMethods) {
+            if (data.isStatic)
+                continue;
+            if (callableClasses.contains(data.calleeClass))
+                voidCallable.add(data);
+        }
+        return voidCallable;
+    }
+
+    public Set<Class<?>> getSuperTypes(Class<?> cls) {
+        Set<Class<?>> ans = supers.get(cls);
+        if (ans != null)
+            return ans;
+        return Utils.getSuperTypes(cls);
+    }
+
+    public Set<Class<?>> getPossibleCallingTypes(Method m) {
+        return possibleCallingTypes.get(m);
+    }
+
+    public FunctionData getKeySetData() {
+        return keySetData;
+    }
+}
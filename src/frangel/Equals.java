@@ -3,6 +3,10 @@ package frangel;
 import java.lang.reflect.Array;
 import java.util.*;
 import java.util.function.BiPredicate;
+import java.util.function.IntFunction;
+import java.util.function.Predicate;
+
+import com.google.common.primitives.Primitives;
 
 public class Equals {
     public static boolean equalDouble(double d1, double d2) {
@@ -23,15 +27,9 @@ public class Equals {
         if (!cls.isAssignableFrom(actual.getClass())) {
             return false;
         }
-        BiPredicate<Object, Object> tester = equalityTesters.get(cls);
+        BiPredicate<Object, Object> tester = findTester(cls, equalityTesters);
         if (tester != null)
             return tester.test(expected, actual);
-        for (Map.Entry<Class<?>, BiPredicate<Object, Object>> entry: equalityTesters.entrySet()) {
-            Class<?> type = entry.getKey();
-            if (type.isAssignableFrom(cls)) {
-                return entry.getValue().test(expected, actual);
-            }
-        }
         if (cls.equals(Double.class)) {
             return equalDouble((Double) expected, (Double) actual);
         }
@@ -93,4 +91,157 @@ public class Equals {
         }
         return actual.equals(expected);
     }
+
+    static BiPredicate<Object, Object> findTester(Class<?> cls, Map<Class<?>, BiPredicate<Object, Object>> equalityTesters) {
+        BiPredicate<Object, Object> tester = equalityTesters.get(cls);
+        if (tester != null)
+            return tester;
+        for (Map.Entry<Class<?>, BiPredicate<Object, Object>> entry: equalityTesters.entrySet()) {
+            Class<?> type = entry.getKey();
+            if (type.isAssignableFrom(cls)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    // Compiles customEquals(expected, actual, equalityTesters) for a fixed expected value: the comparison strategy for
+    // the expected value, and for each value it contains, is chosen once, so checks don't dispatch on types. The expected
+    // value must not change afterwards.
+    public static Predicate<Object> compile(Object expected, Map<Class<?>, BiPredicate<Object, Object>> equalityTesters) {
+        if (expected == null)
+            return actual -> actual == null;
+        Class<?> cls = expected.getClass();
+        Predicate<Object> check;
+        BiPredicate<Object, Object> tester = findTester(cls, equalityTesters);
+        if (tester != null) {
+            check = actual -> tester.test(expected, actual);
+        } else if (cls == Double.class) {
+            double d = (Double) expected;
+            check = actual -> equalDouble(d, (Double) actual);
+        } else if (cls == Float.class) {
+            float f = (Float) expected;
+            check = actual -> equalDouble(f, (Float) actual);
+        } else if (cls.isArray()) {
+            check = compileArray(expected, cls, equalityTesters);
+        } else if (Queue.class.isAssignableFrom(cls) || List.class.isAssignableFrom(cls)) {
+            check = compileSequence((Collection<?>) expected, equalityTesters);
+        } else if (Iterable.class.isAssignableFrom(cls)) {
+            check = actual -> !containsItself((Iterable<?>) actual) && actual.equals(expected);
+        } else {
+            check = actual -> actual.equals(expected);
+        }
+        return actual -> {
+            if (actual == null)
+                return false;
+            Class<?> actualCls = actual.getClass();
+            return (actualCls == cls || cls.isAssignableFrom(actualCls)) && check.test(actual);
+        };
+    }
+
+    private static Predicate<Object> compileArray(Object expected, Class<?> cls, Map<Class<?>, BiPredicate<Object, Object>> equalityTesters) {
+        Class<?> component = cls.getComponentType();
+        if (component.isPrimitive() && findTester(Primitives.wrap(component), equalityTesters) == null) {
+            if (cls == int[].class) {
+                int[] e = (int[]) expected;
+                return actual -> Arrays.equals(e, (int[]) actual);
+            } else if (cls == double[].class) {
+                double[] e = (double[]) expected;
+                return actual -> {
+                    double[] a = (double[]) actual;
+                    if (a.length != e.length)
+                        return false;
+                    for (int i = 0; i < e.length; i++)
+                        if (!equalDouble(e[i], a[i]))
+                            return false;
+                    return true;
+                };
+            } else if (cls == float[].class) {
+                float[] e = (float[]) expected;
+                return actual -> {
+                    float[] a = (float[]) actual;
+                    if (a.length != e.length)
+                        return false;
+                    for (int i = 0; i < e.length; i++)
+                        if (!equalDouble(e[i], a[i]))
+                            return false;
+                    return true;
+                };
+            } else if (cls == char[].class) {
+                char[] e = (char[]) expected;
+                return actual -> Arrays.equals(e, (char[]) actual);
+            } else if (cls == long[].class) {
+                long[] e = (long[]) expected;
+                return actual -> Arrays.equals(e, (long[]) actual);
+            } else if (cls == boolean[].class) {
+                boolean[] e = (boolean[]) expected;
+                return actual -> Arrays.equals(e, (boolean[]) actual);
+            } else if (cls == byte[].class) {
+                byte[] e = (byte[]) expected;
+                return actual -> Arrays.equals(e, (byte[]) actual);
+            } else if (cls == short[].class) {
+                short[] e = (short[]) expected;
+                return actual -> Arrays.equals(e, (short[]) actual);
+            }
+        }
+        int len = Array.getLength(expected);
+        Predicate<Object>[] elements = compileAll(len, i -> Array.get(expected, i), equalityTesters);
+        if (component.isPrimitive()) { // with a tester for the boxed type
+            return actual -> {
+                if (Array.getLength(actual) != len)
+                    return false;
+                for (int i = 0; i < len; i++)
+                    if (!elements[i].test(Array.get(actual, i)))
+                        return false;
+                return true;
+            };
+        }
+        return actual -> {
+            Object[] a = (Object[]) actual;
+            if (a.length != len)
+                return false;
+            for (int i = 0; i < len; i++)
+                if (!elements[i].test(a[i]))
+                    return false;
+            return true;
+        };
+    }
+
+    // Lists and queues are compared element by element, in order
+    private static Predicate<Object> compileSequence(Collection<?> expected, Map<Class<?>, BiPredicate<Object, Object>> equalityTesters) {
+        Object[] e = expected.toArray();
+        int size = e.length;
+        for (Object o : e)
+            if (o == expected)
+                return actual -> false;
+        Predicate<Object>[] elements = compileAll(size, i -> e[i], equalityTesters);
+        return actual -> {
+            Collection<?> a = (Collection<?>) actual;
+            if (a.size() != size)
+                return false;
+            Iterator<?> it = a.iterator(); // checking o == a here covers customEquals()'s containsItself() check
+            for (int i = 0; i < size; i++) {
+                Object o = it.next();
+                if (o == a || !elements[i].test(o))
+                    return false;
+            }
+            return true;
+        };
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Predicate<Object>[] compileAll(int size, IntFunction<Object> expected, Map<Class<?>, BiPredicate<Object, Object>> equalityTesters) {
+        Predicate<Object>[] checks = new Predicate[size];
+        for (int i = 0; i < size; i++)
+            checks[i] = compile(expected.apply(i), equalityTesters);
+        return checks;
+    }
+
+    // If the actual object contains itself, using .equals() can produce a StackOverflowError
+    private static boolean containsItself(Iterable<?> actual) {
+        for (Object o : actual)
+            if (o == actual)
+                return true;
+        return false;
+    }
 }
@@ -1,7 +1,14 @@
 package frangel;
 
+import java.lang.reflect.Array;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -82,8 +89,65 @@ public class Example {
         return nameWithIndex;
     }
 
+    // The inputs for a run. If no input may change (see sharesInputs()), each thread gets the same inputs every time, and
+    // a run that changed them anyway must call discardSharedInputs(). Otherwise each call returns fresh inputs, as
+    // copyInputs() does.
     public Object[] getInputs() {
-        return inputSupplier.get();
+        if (sharesInputs())
+            return sharedInputs.get();
+        return copyInputs();
+    }
+
+    // Inputs that the caller may change. The supplier's inputs are built once and copied from then on (see
+    // InputCopier), unless some input can't be copied.
+    public Object[] copyInputs() {
+        Object[] template = getInputTemplate();
+        if (template == null)
+            return inputSupplier.get();
+        Object[] inputs = template.clone();
+        for (int i = 0; i < inputs.length; i++)
+            inputs[i] = InputCopier.copy(inputs[i]);
+        return inputs;
+    }
+
+    // Per thread, since a wrong candidate on one thread may change them while another thread runs
+    private final ThreadLocal<Object[]> sharedInputs = ThreadLocal.withInitial(this::copyInputs);
+
+    public boolean sharesInputs() {
+        return task != null && !task.inputsMutable() && modifiedInputs.isEmpty() && modifiedInputCheckers.isEmpty() && getInputTemplate() != null;
+    }
+
+    public void discardSharedInputs() {
+        sharedInputs.remove();
+    }
+
+    private static final Object[] NO_TEMPLATE = new Object[0];
+    private volatile Object[] inputTemplate; // never handed out, so it keeps the original inputs; NO_TEMPLATE if not copyable
+
+    private Object[] getInputTemplate() {
+        Object[] template = inputTemplate;
+        if (template == null) {
+            synchronized (this) {
+                template = inputTemplate;
+                if (template == null)
+                    inputTemplate = template = createInputTemplate();
+            }
+        }
+        return template == NO_TEMPLATE ? null : template;
+    }
+
+    private Object[] createInputTemplate() {
+        Object[] template = inputSupplier.get();
+        if (template == null)
+            return NO_TEMPLATE;
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Object input : template)
+            if (!InputCopier.canCopy(input, seen))
+                return NO_TEMPLATE;
+        for (Object input : template)
+            if (!InputCopier.copiesExactly(input))
+                return NO_TEMPLATE;
+        return template;
     }
 
     public Object getOutput() {
@@ -100,7 +164,7 @@ public class Example {
 
     void sanityCheck(int index) {
         String exampleName = getNameWithIndex();
-        Object[] inputs = getInputs();
+        Object[] inputs = copyInputs();
         if (inputs == null)
             throw new SynthesisTaskException("The input array is null");
 
@@ -116,7 +180,7 @@ public class Example {
         }
 
         if (!task.inputsMutable()) {
-            Object[] inputs2 = getInputs();
+            Object[] inputs2 = copyInputs();
             for (int i = 0; i < inputs.length; i++) {
                 if (!modifiedInputs.containsKey(i) && !modifiedInputCheckers.containsKey(i)
                         && !checkObjectEquality(inputs[i], inputs2[i]))
@@ -176,34 +240,119 @@ public class Example {
         return Equals.customEquals(expected, actual, task.getEqualityTesters());
     }
 
+    // The checks of a run's output and inputs, chosen once by compileCheckers() (see Equals.compile())
+    private volatile Predicate<Object> outputCheck;
+    private volatile Predicate<Object>[] inputChecks;
+
+    // Only called by SynthesisTask, and by the checks if the task wasn't finalized
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    synchronized void compileCheckers() {
+        if (outputCheck != null)
+            return;
+        Map<Class<?>, BiPredicate<Object, Object>> equalityTesters = task.getEqualityTesters();
+        Predicate<Object>[] checks = new Predicate[task.getNumInputs()];
+        for (int i = 0; i < checks.length; i++) {
+            if (modifiedInputCheckers.containsKey(i))
+                checks[i] = modifiedInputCheckers.get(i);
+            else if (modifiedInputs.containsKey(i))
+                checks[i] = Equals.compile(modifiedInputs.get(i), equalityTesters);
+            else if (!task.inputsMutable())
+                checks[i] = Equals.compile(getCachedOriginalInput(i), equalityTesters);
+            else
+                checks[i] = x -> true;
+        }
+        inputChecks = checks;
+        if (outputChecker == null && output != null)
+            outputFingerprint = new Fingerprint(output, Equals.findTester(output.getClass(), equalityTesters) != null);
+        outputCheck = outputChecker != null ? outputChecker : Equals.compile(output, equalityTesters);
+    }
+
+    // A cheap summary of an expected value: its class, and unless an equality tester compares it, its size or length and
+    // its hash code for values whose equal values have equal hash codes
+    private static final class Fingerprint {
+        private static final int NO_SIZE = -1;
+
+        private final Class<?> cls;
+        private final int size;
+        private final boolean hashed;
+        private final int hash;
+
+        Fingerprint(Object expected, boolean hasTester) {
+            cls = expected.getClass();
+            size = hasTester ? NO_SIZE : size(expected);
+            hashed = !hasTester && (expected instanceof String || expected instanceof Integer || expected instanceof Long
+                    || expected instanceof Character || expected instanceof Boolean || expected instanceof Short
+                    || expected instanceof Byte || expected instanceof BigInteger); // not Double or Float, compared with a tolerance
+            hash = hashed ? expected.hashCode() : 0;
+        }
+
+        // Equal collections and maps have the same size, by their contracts
+        private static int size(Object o) {
+            if (o.getClass().isArray())
+                return Array.getLength(o);
+            if (o instanceof Collection)
+                return ((Collection<?>) o).size();
+            if (o instanceof Map)
+                return ((Map<?, ?>) o).size();
+            return NO_SIZE;
+        }
+
+        // True only if customEquals() would find the values different
+        boolean rejects(Object actual) {
+            if (actual == null)
+                return true;
+            Class<?> actualCls = actual.getClass();
+            if (actualCls != cls && !cls.isAssignableFrom(actualCls))
+                return true;
+            if (size != NO_SIZE && size(actual) != size)
+                return true;
+            return hashed && actual.hashCode() != hash;
+        }
+    }
+
+    private volatile Fingerprint outputFingerprint; // null if outputs aren't checked against one
+
+    // A quick check to run before checkOutput(): true if the output is certainly wrong
+    public boolean rejectsOutput(Object obj) {
+        if (outputCheck == null)
+            compileCheckers();
+        Fingerprint fingerprint = outputFingerprint;
+        return fingerprint != null && fingerprint.rejects(obj);
+    }
+
     public boolean checkOutput(Object obj) {
-        if (outputChecker != null)
-            return outputChecker.test(obj);
-        return checkObjectEquality(output, obj);
+        Predicate<Object> check = outputCheck;
+        if (check == null) {
+            compileCheckers();
+            check = outputCheck;
+        }
+        return check.test(obj);
     }
 
     public boolean checkModifiedInputs(Object[] inputs) {
+        Predicate<Object>[] checks = getInputChecks();
         for (int i = 0; i < inputs.length; i++)
-            if (!checkModifiedInput(i, inputs[i]))
+            if (!checks[i].test(inputs[i]))
                 return false;
         return true;
     }
 
     boolean checkModifiedInput(int index, Object input) { // 0-based index
-        if (modifiedInputCheckers.containsKey(index))
-            return modifiedInputCheckers.get(index).test(input);
-        else if (modifiedInputs.containsKey(index))
-            return checkObjectEquality(modifiedInputs.get(index), input);
-        else if (!task.inputsMutable())
-            return checkObjectEquality(getCachedOriginalInput(index), input);
-        else
-            return true;
+        return getInputChecks()[index].test(input);
+    }
+
+    private Predicate<Object>[] getInputChecks() {
+        if (outputCheck == null)
+            compileCheckers();
+        return inputChecks;
     }
 
-    private Object[] cachedOriginalInputs = null;
+    private volatile Object[] cachedOriginalInputs = null; // may be read by several search workers
     private Object getCachedOriginalInput(int index) { // 0-based index
-        if (cachedOriginalInputs == null)
-            cachedOriginalInputs = inputSupplier.get();
+        if (cachedOriginalInputs == null) {
+            Object[] template = getInputTemplate();
+            cachedOriginalInputs = template != null ? template : inputSupplier.get();
+        }
         return cachedOriginalInputs[index];
     }
 }
@@ -0,0 +1,76 @@
+package frangel;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// The order in which to run a task's examples, when evaluation stops at the first failures: examples that reject the
+// most candidates per second of running go first, and examples that rarely fail go last. Learned from the runs of all
+// workers on the task. Which examples pass doesn't depend on the order, only how many are run before stopping.
+class ExampleOrder {
+    private static final int REORDER_RUNS = 1024; // runs between reorderings
+
+    private final LongAdder[] runs, failures, nanos;
+    private final AtomicLong numRuns = new AtomicLong();
+    private final LongAdder numCandidates = new LongAdder();
+    private final int[] indexOrder;
+    private volatile int[] order;
+
+    ExampleOrder(int numExamples) {
+        runs = new LongAdder[numExamples];
+        failures = new LongAdder[numExamples];
+        nanos = new LongAdder[numExamples];
+        for (int i = 0; i < numExamples; i++) {
+            runs[i] = new LongAdder();
+            failures[i] = new LongAdder();
+            nanos[i] = new LongAdder();
+        }
+        indexOrder = new int[numExamples];
+        for (int i = 0; i < numExamples; i++)
+            indexOrder[i] = i;
+        order = indexOrder;
+    }
+
+    // Example indices, best first. Don't modify.
+    int[] get() {
+        return Settings.ADAPTIVE_EXAMPLE_ORDER ? order : indexOrder;
+    }
+
+    void startCandidate() {
+        numCandidates.increment();
+    }
+
+    void record(int example, boolean failed, long time) {
+        runs[example].increment();
+        if (failed)
+            failures[example].increment();
+        nanos[example].add(time);
+        if (numRuns.incrementAndGet() % REORDER_RUNS == 0)
+            reorder();
+    }
+
+    // Examples run per candidate, on average
+    double getAverageRuns() {
+        long candidates = numCandidates.sum();
+        return candidates == 0 ? 0 : numRuns.get() / (double) candidates;
+    }
+
+    private void reorder() {
+        int n = runs.length;
+        double[] score = new double[n];
+        for (int i = 0; i < n; i++) {
+            long r = runs[i].sum();
+            double failureRate = (failures[i].sum() + 1.0) / (r + 2.0); // unseen examples start in the middle
+            double cost = (nanos[i].sum() + 1000.0) / (r + 1.0);
+            score[i] = failureRate / cost;
+        }
+        Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++)
+            sorted[i] = order[i];
+        Arrays.sort(sorted, (a, b) -> Double.compare(score[b], score[a])); // stable, so ties keep their order
+        int[] newOrder = new int[n];
+        for (int i = 0; i < n; i++)
+            newOrder[i] = sorted[i];
+        order = newOrder;
+    }
+}
@@ -1,12 +1,27 @@
 package frangel;
 
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import frangel.interpreter.Checkpoints;
+import frangel.interpreter.CodePath;
+import frangel.interpreter.Engine;
 import frangel.interpreter.EvaluationInfo;
+import frangel.interpreter.Failure;
 import frangel.interpreter.Interpreter;
+import frangel.interpreter.PreparedProgram;
+import frangel.interpreter.Watchdog;
+import frangel.model.FunctionData;
 import frangel.model.Program;
 import frangel.model.expression.Expression;
 import frangel.model.expression.FuncExpression;
@@ -17,17 +32,60 @@ import frangel.utils.*;
 
 public class FrAngel {
     public final SynthesisTask task;
+    public final SearchConfig config;
+    private ComponentIndex components;
+
+    // Every worker splits its own stream from this one, so a single-threaded run can be replayed from the seed
+    private final RandomStream rand;
 
+    // Shared by all workers. fragmentPrograms is guarded by its own lock. The fragment collections are never
+    // modified after being published; reloadFragments() replaces them instead.
     private Map<BitSet, Program> fragmentPrograms;
-    private Map<Class<?>, List<Expression>> expressionFragments;
-    private List<Statement> statementFragments;
+    private volatile Map<Class<?>, List<Expression>> expressionFragments;
+    private volatile List<Statement> statementFragments;
+
+    // Fragment programs shared with other processes (see FragmentExchange). The cursor is guarded by the exchange.
+    private FragmentExchange exchange;
+    private final long exchangeId = RandomStream.newSeed();
+    private int exchangeCursor;
+    private volatile long lastExchange;
 
     private final Set<String> nonAngelicPrograms;
     private final Set<String> angelicPrograms;
 
-    private int genCount, runCount, genAngelicCount, runAngelicCount, genNoAngelicCount, runNoAngelicCount;
+    private final AtomicInteger genCount, runCount, genAngelicCount, runAngelicCount, genNoAngelicCount, runNoAngelicCount;
+
+    private volatile long lastDebug;
+
+    // Orders of the examples for evaluations that stop early, one for each kind of program
+    private final ExampleOrder noAngelicOrder, angelicOrder;
+
+    // Early termination: set once any worker finds a verified solution
+    private final AtomicReference<Program> solution;
+    private volatile boolean stopped;
+    private volatile Runnable onSolution; // called by the worker that finds the solution (see runPortfolio)
+
+    // Pipelined mode (see runPipeline). Stall times are how long generators waited for room in the queue, and
+    // evaluators waited for candidates; the queue depth is sampled whenever a candidate is taken.
+    private static final long PIPELINE_BACKOFF_NANOS = 20000;
+    private volatile RingQueue<Candidate> pipeline;
+    private final LongAdder generatorStallNanos = new LongAdder();
+    private final LongAdder evaluatorStallNanos = new LongAdder();
+    private final LongAdder queueDepthSum = new LongAdder();
+    private final LongAdder queueDepthSamples = new LongAdder();
 
-    private long lastDebug, lastResolveConditions;
+    // Background resolution of angelic conditions (see Worker.evaluate). Each queued or running job holds a permit,
+    // which bounds the number of angelic programs kept alive; when none are left, the worker resolves inline.
+    private ExecutorService resolver;
+    private Semaphore resolveJobs;
+
+    // Runs the batches of candidate conditions of resolveSingleCondition() when Settings.RESOLVE_BATCH_SIZE > 1. A
+    // thread stuck in a component call is left behind, and new threads take its place.
+    private ExecutorService conditionPool;
+
+    // Candidate conditions tried by resolveSingleCondition(), and the time spent trying them
+    private final LongAdder resolveCandidates = new LongAdder();
+    private final LongAdder resolveNanos = new LongAdder();
 
     public static void synthesize(SynthesisTask task) {
         synthesize(task, 1000000, 1);
@@ -38,9 +96,10 @@ public class FrAngel {
     public static void synthesize(SynthesisTask task, double seconds, int verbose) {
         int oldVerbose = Settings.VERBOSE;
         Settings.VERBOSE = verbose;
-        FrAngel frangel = new FrAngel(task);
         System.out.println("Synthesizing " + task.getName() + "...");
-        FrAngelResult result = frangel.run(Utils.getTimeout(seconds));
+        FrAngelResult result = Settings.PORTFOLIO
+                ? runPortfolio(task, SearchConfig.portfolio(), Utils.getTimeout(seconds))
+                : new FrAngel(task).run(Utils.getTimeout(seconds));
         System.out.println();
         if (result.isSuccess()) {
             System.out.printf(Colors.color(Colors.GREEN, "Found solution in %.3f seconds:") + "\n%s\n", result.getTime(), result.getProgram());
@@ -61,57 +120,369 @@ public class FrAngel {
     }
 
     public FrAngel(SynthesisTask task) {
+        this(task, SearchConfig.fromSettings());
+    }
+
+    public FrAngel(SynthesisTask task, SearchConfig config) {
         task.finalizeSetup();
         this.task = task;
+        this.config = config;
+        rand = new RandomStream(Settings.SEED != null ? Settings.SEED : RandomStream.newSeed());
 
-        if (Settings.MINE_FRAGMENTS) {
+        if (config.mineFragments) {
             fragmentPrograms = new HashMap<>();
             expressionFragments = new HashMap<>();
             statementFragments = new ArrayList<>();
+            if (Settings.FRAGMENT_EXCHANGE_DIR != null) {
+                try {
+                    exchange = FragmentExchange.open(task);
+                } catch (IOException e) {
+                    System.err.println("Could not open fragment exchange: " + e);
+                }
+            }
         }
-        nonAngelicPrograms = new HashSet<>();
-        angelicPrograms = new HashSet<>();
-        genCount = runCount = genAngelicCount = runAngelicCount = genNoAngelicCount = runNoAngelicCount = 0;
+        nonAngelicPrograms = ConcurrentHashMap.newKeySet();
+        angelicPrograms = ConcurrentHashMap.newKeySet();
+        genCount = new AtomicInteger();
+        runCount = new AtomicInteger();
+        genAngelicCount = new AtomicInteger();
+        runAngelicCount = new AtomicInteger();
+        genNoAngelicCount = new AtomicInteger();
+        runNoAngelicCount = new AtomicInteger();
+        noAngelicOrder = new ExampleOrder(task.numExamples());
+        angelicOrder = new ExampleOrder(task.numExamples());
+        solution = new AtomicReference<>();
     }
 
     public FrAngelResult run(long timeout) {
         // Don't time this. SyPet doesn't include JAR parsing (about 7 sec) in their time. This is FrAngel's equivalent.
         // This typically takes ~0.2 sec
-        JavaFunctionLoader.resetData(task);
+        components = JavaFunctionLoader.load(task);
+        task.startMemoCache();
 
         long start = System.nanoTime();
 
-        lastDebug = lastResolveConditions = start;
-
-        ProgramGenerator generator = new ProgramGenerator(task);
-        if (Settings.MINE_FRAGMENTS)
-            generator.useFragments(expressionFragments, statementFragments);
-
-        Program ans = null;
-        int numExamples = task.numExamples();
+        lastDebug = start;
+        Watchdog.bind(task.getQuarantined()); // for the workers running on this thread, and for cleaning up
+
+        if (Settings.RESOLVE_THREADS > 0)
+            startResolver();
+        if (Settings.RESOLVE_BATCH_SIZE > 1) {
+            AtomicInteger threadCount = new AtomicInteger();
+            conditionPool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "frangel-conditions-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        try {
+            if (Settings.GENERATOR_THREADS > 0)
+                runPipeline(start, timeout);
+            else if (Settings.NUM_THREADS <= 1) // the watchdog still quarantines stuck calls, but can't replace this thread
+                new Worker(start, rand.split()).search(timeout);
+            else
+                runWorkers(start, timeout);
+        } finally {
+            if (resolver != null)
+                stopResolver();
+            if (conditionPool != null)
+                conditionPool.shutdownNow();
+            if (exchange != null)
+                closeExchange();
+        }
 
+        Program ans = solution.get();
         String unCleanedProgram = "";
         int unCleanedProgramSize = 0;
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yy h:mm:ss a").withZone(ZoneId.systemDefault());
+        if (ans != null) {
+            Program p = ans;
+            unCleanedProgram = p.toJava();
+            unCleanedProgramSize = ProgramUtils.size(p);
+
+            ans = p.clone();
+            BitSet allExamples = new BitSet();
+            allExamples.flip(0, task.numExamples());
+            Cleaner cleaner = new Cleaner(ans, task, allExamples);
+            cleaner.deepClean(Utils.timeSince(start), timeout);
+
+            if (!ProgramUtils.getUsedVars(ans).containsAll(ans.argVars)) {
+                System.err.println("Deep-cleaning produced bad program (reverting to uncleaned version):\n" + ans.toJava());
+                ans = p;
+            }
+        }
+
+        FrAngelResult result = new FrAngelResult(this, ans, Utils.timeSince(start), unCleanedProgram, unCleanedProgramSize);
+        Watchdog.bind(null);
+        task.stopMemoCache();
+        JavaFunctionLoader.release(components);
+        return result;
+    }
+
+    // Stops all workers soon; run() then returns whatever it has
+    public void cancel() {
+        stopped = true;
+    }
+
+    // Portfolio mode: runs one FrAngel per config on the same task at once. The first verified solution cancels the
+    // other runs. Returns the winning result, or the first config's result if none succeeded.
+    public static FrAngelResult runPortfolio(SynthesisTask task, List<SearchConfig> configs, long timeout) {
+        List<FrAngel> runs = new ArrayList<>();
+        for (SearchConfig config : configs)
+            runs.add(new FrAngel(task, config));
+        AtomicReference<FrAngel> winner = new AtomicReference<>();
+        for (FrAngel frangel : runs) {
+            frangel.onSolution = () -> {
+                if (winner.compareAndSet(null, frangel)) {
+                    for (FrAngel other : runs)
+                        if (other != frangel)
+                            other.cancel();
+                }
+            };
+        }
+
+        FrAngelResult[] results = new FrAngelResult[runs.size()];
+        List<Runnable> jobs = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i++) {
+            int index = i;
+            jobs.add(() -> results[index] = runs.get(index).run(timeout));
+        }
+        runJobs(jobs, null, null, "frangel-portfolio-", () -> runs.forEach(FrAngel::cancel));
+
+        for (int i = 0; i < runs.size(); i++) {
+            if (runs.get(i) == winner.get() && results[i] != null) {
+                if (Settings.VERBOSE > 0)
+                    System.out.println("Portfolio winner: " + runs.get(i).config);
+                return results[i];
+            }
+        }
+        return results[0];
+    }
+
+    // Runs Settings.NUM_THREADS workers until one finds a solution or the timeout is reached.
+    private void runWorkers(long start, long timeout) {
+        List<Runnable> jobs = new ArrayList<>();
+        List<Supplier<Runnable>> replacements = new ArrayList<>();
+        for (int i = 0; i < Settings.NUM_THREADS; i++) {
+            Worker worker = new Worker(start, rand.split()); // split here, in a fixed order
+            jobs.add(() -> worker.search(timeout));
+            replacements.add(() -> {
+                Worker replacement = newWorker(start);
+                return () -> replacement.search(timeout);
+            });
+        }
+        runJobs(jobs, replacements, task.getQuarantined(), "frangel-worker-", this::cancel);
+    }
+
+    // A worker taking over from one the Watchdog abandoned
+    private Worker newWorker(long start) {
+        synchronized (rand) {
+            return new Worker(start, rand.split());
+        }
+    }
+
+    // Pipelined mode: Settings.GENERATOR_THREADS workers generate candidates, which Settings.NUM_THREADS workers evaluate.
+    private void runPipeline(long start, long timeout) {
+        pipeline = new RingQueue<>(Settings.PIPELINE_QUEUE_SIZE);
+        List<Runnable> jobs = new ArrayList<>();
+        List<Supplier<Runnable>> replacements = new ArrayList<>();
+        for (int i = 0; i < Settings.GENERATOR_THREADS; i++) {
+            Worker worker = new Worker(start, rand.split());
+            jobs.add(() -> worker.produce(pipeline, timeout));
+            replacements.add(() -> {
+                Worker replacement = newWorker(start);
+                return () -> replacement.produce(pipeline, timeout);
+            });
+        }
+        for (int i = 0; i < Math.max(1, Settings.NUM_THREADS); i++) {
+            Worker worker = new Worker(start, rand.split());
+            jobs.add(() -> worker.consume(pipeline, timeout));
+            replacements.add(() -> {
+                Worker replacement = newWorker(start);
+                return () -> replacement.consume(pipeline, timeout);
+            });
+        }
+        runJobs(jobs, replacements, task.getQuarantined(), "frangel-pipeline-", this::cancel);
+    }
+
+    private void startResolver() {
+        AtomicInteger threadCount = new AtomicInteger();
+        resolver = Executors.newFixedThreadPool(Settings.RESOLVE_THREADS, r -> {
+            Thread t = new Thread(r, "frangel-resolver-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        resolveJobs = new Semaphore(Settings.MAX_RESOLVE_JOBS);
+    }
 
-        while (!Utils.timeout(timeout)) {
+    // Called once the search is over; a job that resolves after this point can no longer change the result. Waits for
+    // the running jobs, unless one is stuck in a component call.
+    private void stopResolver() {
+        cancel(); // resolveSingleCondition() checks this, so running jobs finish quickly
+        resolver.shutdownNow();
+        try {
+            if (!resolver.awaitTermination(Settings.RESOLVE_STOP_WAIT, TimeUnit.SECONDS) && Settings.VERBOSE > 0)
+                System.err.println("Resolver jobs are still running after the search");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Runs the jobs on their own threads and waits for all of them. cancel is called when they finish or one fails.
+    // If the Watchdog abandons a job's thread, stuck in a component call, the job's replacement (if replacements
+    // isn't null) takes over on a new thread.
+    private static void runJobs(List<Runnable> jobs, List<Supplier<Runnable>> replacements, Set<FunctionData> quarantined, String threadName, Runnable cancel) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, threadName + threadCount.incrementAndGet());
+            t.setDaemon(true); // a worker stuck in a library call shouldn't keep the JVM alive
+            return t;
+        });
+        AtomicReferenceArray<Future<?>> futures = new AtomicReferenceArray<>(jobs.size());
+        for (int i = 0; i < jobs.size(); i++)
+            futures.set(i, pool.submit(replacements == null ? jobs.get(i) : watched(jobs.get(i), replacements.get(i), quarantined, pool, futures, i)));
+        try {
+            for (int i = 0; i < futures.length(); i++) {
+                while (true) {
+                    Future<?> future = futures.get(i);
+                    try {
+                        future.get(1, TimeUnit.SECONDS);
+                    } catch (TimeoutException e) {
+                        continue; // still running, or stuck and about to be replaced
+                    }
+                    if (future == futures.get(i))
+                        break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            cancel.run();
+            pool.shutdownNow();
+        }
+    }
+
+    // Runs the job at index, replacing it if the Watchdog abandons its thread
+    private static Runnable watched(Runnable job, Supplier<Runnable> replacement, Set<FunctionData> quarantined, ExecutorService pool,
+            AtomicReferenceArray<Future<?>> futures, int index) {
+        return () -> {
+            Watchdog.bind(quarantined);
+            Watchdog.watch(() -> futures.set(index, pool.submit(watched(replacement.get(), replacement, quarantined, pool, futures, index))));
+            try {
+                job.run();
+            } catch (Watchdog.AbandonedError e) {
+                // the replacement has taken over
+            } finally {
+                Watchdog.unwatch();
+                Watchdog.bind(null);
+            }
+        };
+    }
+
+    // A generated program that passed the cheap filters, waiting to be evaluated
+    private static class Candidate {
+        final Program program;
+        final boolean isAngelic;
+        Candidate(Program program, boolean isAngelic) {
+            this.program = program;
+            this.isAngelic = isAngelic;
+        }
+    }
+
+    // One search loop. Each worker has its own generator; everything else is shared through the enclosing FrAngel.
+    // In pipelined mode, a worker runs only the generating half (produce) or only the evaluating half (consume).
+    private class Worker {
+        private final RandomStream rand;
+        private final ProgramGenerator generator;
+        private volatile long lastResolveConditions; // also updated by resolution jobs this worker submitted
+        private final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd/MM/yy h:mm:ss a").withZone(ZoneId.systemDefault());
+
+        Worker(long start, RandomStream rand) {
+            this.rand = rand;
+            generator = new ProgramGenerator(task, components, config, rand);
+            lastResolveConditions = start;
+        }
+
+        void search(long timeout) {
+            while (!stopped && !Utils.timeout(timeout)) {
+                Candidate c = generate();
+                if (c != null && evaluate(c, timeout))
+                    return;
+            }
+        }
+
+        void produce(RingQueue<Candidate> queue, long timeout) {
+            while (!stopped && !Utils.timeout(timeout)) {
+                Candidate c = generate();
+                if (c == null || queue.offer(c))
+                    continue;
+                long stallStart = System.nanoTime();
+                while (!queue.offer(c)) {
+                    if (stopped || Utils.timeout(timeout))
+                        return;
+                    LockSupport.parkNanos(PIPELINE_BACKOFF_NANOS);
+                }
+                generatorStallNanos.add(System.nanoTime() - stallStart);
+            }
+        }
+
+        void consume(RingQueue<Candidate> queue, long timeout) {
+            while (!stopped && !Utils.timeout(timeout)) {
+                Candidate c = queue.poll();
+                if (c == null) {
+                    long stallStart = System.nanoTime();
+                    while ((c = queue.poll()) == null) {
+                        if (stopped || Utils.timeout(timeout))
+                            return;
+                        LockSupport.parkNanos(PIPELINE_BACKOFF_NANOS);
+                    }
+                    evaluatorStallNanos.add(System.nanoTime() - stallStart);
+                }
+                queueDepthSum.add(queue.size());
+                queueDepthSamples.increment();
+                if (evaluate(c, timeout))
+                    return;
+            }
+        }
+
+        // Null if the program was filtered out or has been seen before
+        private Candidate generate() {
             printDebugInfo();
 
-            boolean useAngelic = !Utils.randBoolean() && Settings.USE_ANGELIC_CONDITIONS; // sometimes generate concrete conditions
+            if (config.mineFragments) {
+                importFragmentPrograms(rand);
+                generator.useFragments(expressionFragments, statementFragments);
+            }
+
+            boolean useAngelic = !rand.nextBoolean() && config.useAngelicConditions; // sometimes generate concrete conditions
             Program p = generator.generateProgram(useAngelic);
             int numAngelic = ProgramUtils.numAngelic(p);
             boolean isAngelic = numAngelic > 0;
-            genCount++;
+            genCount.incrementAndGet();
             if (isAngelic)
-                genAngelicCount++;
+                genAngelicCount.incrementAndGet();
             else
-                genNoAngelicCount++;
+                genNoAngelicCount.incrementAndGet();
 
             if (!preprocessProgram(p))
-                continue;
+                return null;
 
             if (skipProgram(p, numAngelic))
-                continue;
+                return null;
+
+            return new Candidate(p, isAngelic);
+        }
+
+        // True if the candidate is a verified solution, which then stops all workers
+        private boolean evaluate(Candidate c, long timeout) {
+            Program p = c.program;
+            boolean isAngelic = c.isAngelic;
 
             if (Settings.VERBOSE > 2) {
                 System.out.println("Current time: " + formatter.format(Instant.now()));
@@ -119,12 +490,12 @@ public class FrAngel {
             }
 
             BitSet passed;
-            runCount++;
+            runCount.incrementAndGet();
             if (isAngelic) {
-                runAngelicCount++;
+                runAngelicCount.incrementAndGet();
                 passed = evaluateAngelic(p);
             } else {
-                runNoAngelicCount++;
+                runNoAngelicCount.incrementAndGet();
                 passed = evaluateNoAngelic(p);
             }
 
@@ -132,69 +503,128 @@ public class FrAngel {
                 System.out.println("Passed examples (0-based): " + passed);
 
             if (passed == null || passed.isEmpty())
-                continue;
+                return false;
 
             if (isAngelic) {
+                if (resolver != null && resolveJobs.tryAcquire()) {
+                    BitSet angelicPassed = passed;
+                    try {
+                        resolver.execute(() -> {
+                            Watchdog.bind(task.getQuarantined());
+                            try {
+                                BitSet resolved = resolveConditions(p, angelicPassed, timeout);
+                                if (resolved != null && !stopped)
+                                    finish(p, resolved);
+                            } finally {
+                                Watchdog.bind(null);
+                                resolveJobs.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        resolveJobs.release(); // the resolver was stopped, so the search is over
+                    }
+                    return false; // keep generating while the job runs
+                }
                 passed = resolveConditions(p, passed, timeout);
                 if (passed == null)
-                    continue;
+                    return false;
             }
 
-            if (Settings.MINE_FRAGMENTS)
+            return finish(p, passed);
+        }
+
+        // Mines fragments from a program without angelic conditions, then checks whether it's a solution
+        private boolean finish(Program p, BitSet passed) {
+            int numExamples = task.numExamples();
+            if (config.mineFragments)
                 passed = mineFragments(p, passed);
 
-            if (passed.cardinality() == numExamples) {
-                if (!ProgramUtils.getUsedVars(p).containsAll(p.argVars))
-                    continue;
+            if (passed.cardinality() != numExamples || !ProgramUtils.getUsedVars(p).containsAll(p.argVars))
+                return false;
 
-                // last check
-                boolean good;
-                if (ProgramUtils.numAngelic(p) != 0) {
-                    good = false;
-                } else {
-                    p.setAngelic(false);
-                    passed = evaluateNoAngelic(p);
-                    good = (passed != null && passed.cardinality() == numExamples);
-                }
-                if (good) {
-                    unCleanedProgram = p.toJava();
-                    unCleanedProgramSize = ProgramUtils.size(p);
-
-                    ans = p.clone();
-                    BitSet allExamples = new BitSet();
-                    allExamples.flip(0, numExamples);
-                    Cleaner cleaner = new Cleaner(ans, task, allExamples);
-                    cleaner.deepClean(Utils.timeSince(start), timeout);
-
-                    if (!ProgramUtils.getUsedVars(ans).containsAll(ans.argVars)) {
-                        System.err.println("Deep-cleaning produced bad program (reverting to uncleaned version):\n" + ans.toJava());
-                        ans = p;
-                    }
+            // last check
+            boolean good;
+            if (ProgramUtils.numAngelic(p) != 0) {
+                good = false;
+            } else {
+                p.setAngelic(false);
+                passed = evaluateNoAngelic(p);
+                good = (passed != null && passed.cardinality() == numExamples);
+            }
+            if (!good) {
+                System.err.println("Bad program for " + task.getName() + ", probably nondeterministic:\n" + p.toJava());
+                return false;
+            }
+            if (solution.compareAndSet(null, p)) { // first solution wins
+                Runnable listener = onSolution;
+                if (listener != null)
+                    listener.run();
+            }
+            stopped = true;
+            return true;
+        }
+
+        private BitSet resolveConditions(Program p, BitSet passed, long timeout) {
+            TimeLogger.start("FrAngel.resolveConditions()");
+            if (Settings.VERBOSE > 1)
+                System.out.println("Resolving angelic conditions for angelic program:\n" + p.toJava() + "\nPasses: " + passed);
 
+            BitSet copy = (BitSet) passed.clone();
+            double secSinceLast = (System.nanoTime() - lastResolveConditions) / 1.0e9;
+            double singleTimeout = Math.max(Settings.MIN_RESOLVE_CONDITIONS_SEC, Math.min(2 * secSinceLast, Settings.MAX_RESOLVE_CONDITIONS_SEC));
+            if (Settings.VERBOSE > 1)
+                System.out.println("resolveSingleCondition timeout: " + singleTimeout + " sec");
+
+            List<AngelicStatementInfo> list = findAngelic(p);
+
+            for (AngelicStatementInfo info : list) {
+                passed = resolveSingleCondition(p, info, passed, Math.min(timeout, Utils.getTimeout(singleTimeout)));
+                if (passed == null)
                     break;
-                } else {
-                    System.err.println("Bad program for " + task.getName() + ", probably nondeterministic:\n" + p.toJava());
-                    continue;
+            }
+
+            if (passed == null && list.size() > 1) {
+                if (Settings.VERBOSE > 1)
+                    System.out.println("Could not resolve conditions inside-first, trying outside-first");
+                for (AngelicStatementInfo info : list)
+                    setCondition(info.getStatement(), null);
+                passed = copy;
+                list = findAngelic(p);
+                Collections.reverse(list);
+                for (AngelicStatementInfo info : list) {
+                    passed = resolveSingleCondition(p, info, passed, Math.min(timeout, Utils.getTimeout(singleTimeout / 2)));
+                    if (passed == null)
+                        break;
                 }
             }
-        }
 
-        return new FrAngelResult(this, ans, Utils.timeSince(start), unCleanedProgram, unCleanedProgramSize);
+            lastResolveConditions = System.nanoTime();
+            TimeLogger.stop("FrAngel.resolveConditions()");
+            return passed;
+        }
     }
 
     private void printDebugInfo() {
         long now = System.nanoTime();
-        if (now > lastDebug + Settings.PROGRESS_DELAY * 1e9) {
+        if (now <= lastDebug + Settings.PROGRESS_DELAY * 1e9)
+            return;
+        synchronized (this) {
+            if (now <= lastDebug + Settings.PROGRESS_DELAY * 1e9)
+                return; // another worker just printed
             lastDebug = now;
 
             if (Settings.VERBOSE > 1) {
-                if (Settings.MINE_FRAGMENTS) {
-                    System.out.println("Keeping " + fragmentPrograms.size() + " fragment programs:\n");
-                    for (Map.Entry<BitSet, Program> entry : fragmentPrograms.entrySet()) {
-                        Program p = entry.getValue();
-                        System.out.println("Program for " + entry.getKey() + ":\n" + p.toJava() + "\n");
+                if (config.mineFragments) {
+                    synchronized (fragmentPrograms) {
+                        System.out.println("Keeping " + fragmentPrograms.size() + " fragment programs:\n");
+                        for (Map.Entry<BitSet, Program> entry : fragmentPrograms.entrySet()) {
+                            Program p = entry.getValue();
+                            System.out.println("Program for " + entry.getKey() + ":\n" + p.toJava() + "\n");
+                        }
                     }
 
+                    Map<Class<?>, List<Expression>> expressionFragments = this.expressionFragments;
+                    List<Statement> statementFragments = this.statementFragments;
                     for (Map.Entry<Class<?>, List<Expression>> entry : expressionFragments.entrySet()) {
                         System.out.println("Fragments of type " + entry.getKey().getName() + ":");
                         for (Expression e : entry.getValue())
@@ -211,9 +641,31 @@ public class FrAngel {
     }
 
     public void printCounts() {
-        System.out.println("All programs:     generated " + genCount + ", ran " + runCount);
-        System.out.println("Only non-angelic: generated " + genNoAngelicCount + ", ran " + runNoAngelicCount);
-        System.out.println("Only angelic:     generated " + genAngelicCount + ", ran " + runAngelicCount);
+        System.out.println("All programs:     generated " + genCount.get() + ", ran " + runCount.get());
+        System.out.println("Only non-angelic: generated " + genNoAngelicCount.get() + ", ran " + runNoAngelicCount.get());
+        System.out.println("Only angelic:     generated " + genAngelicCount.get() + ", ran " + runAngelicCount.get());
+        RingQueue<Candidate> pipeline = this.pipeline;
+        if (pipeline != null)
+            System.out.printf("Pipeline: queue depth %d / %d (average %.1f), generators stalled %.3f sec, evaluators stalled %.3f sec\n",
+                    pipeline.size(), pipeline.capacity(), getAverageQueueDepth(), getGeneratorStallTime(), getEvaluatorStallTime());
+        if (Settings.ENGINE != Engine.TREE)
+            System.out.println("Engine " + Settings.ENGINE + ": prepared " + Interpreter.numCompiled() + ", left to " + Engine.TREE + " " + Interpreter.numNotCompiled()
+                    + (Settings.CHECK_ENGINE ? ", mismatches " + Interpreter.numEngineMismatches() : ""));
+        System.out.printf("Examples run per candidate: %.3f non-angelic, %.3f angelic\n", noAngelicOrder.getAverageRuns(), angelicOrder.getAverageRuns());
+        if (Interpreter.numMemoHits() > 0)
+            System.out.println("Pure calls answered from the memo cache: " + Interpreter.numMemoHits());
+        if (Interpreter.numResumedRuns() > 0)
+            System.out.println("Angelic runs resumed from checkpoints: " + Interpreter.numResumedRuns());
+        StringBuilder failures = new StringBuilder();
+        for (Failure failure : Failure.values()) {
+            long count = Interpreter.numFailures(failure);
+            if (count > 0)
+                failures.append(failures.length() == 0 ? "Failed runs: " : ", ").append(failure).append(' ').append(count);
+        }
+        if (failures.length() > 0) {
+            System.out.println(failures);
+            System.out.printf("Wrong outputs rejected by fingerprint: %d of %d\n", Interpreter.numFingerprintRejections(), Interpreter.numFailures(Failure.WRONG_OUTPUT));
+        }
     }
 
     private boolean preprocessBlock(List<Statement> statements) {
@@ -270,52 +722,53 @@ public class FrAngel {
         if (numAngelic > 0) {
             if (numAngelic > Settings.MAX_ANGELIC_CONDITIONS) {
                 skip = true;
-            } else if (angelicPrograms.contains(encoding)) {
-                if (Utils.randBoolean(Settings.SKIP_DUPLICATE_ANGELIC_PROB))
+            } else if (isDuplicate(angelicPrograms, encoding, Settings.MAX_ANGELIC_SET_SIZE)) {
+                if (p.rand.nextBoolean(Settings.SKIP_DUPLICATE_ANGELIC_PROB))
                     skip = true;
-            } else {
-                if (angelicPrograms.size() < Settings.MAX_ANGELIC_SET_SIZE)
-                    angelicPrograms.add(encoding);
             }
         } else {
-            if (nonAngelicPrograms.contains(encoding)) {
-                skip = true;
-            } else {
-                if (nonAngelicPrograms.size() < Settings.MAX_NON_ANGELIC_SET_SIZE)
-                    nonAngelicPrograms.add(encoding);
-            }
+            skip = isDuplicate(nonAngelicPrograms, encoding, Settings.MAX_NON_ANGELIC_SET_SIZE);
         }
         TimeLogger.stop("FrAngel.skipProgram()");
         return skip;
     }
 
-    private static void findCodePaths(int numTrue, StringBuilder path, List<String> paths, BitStringTrie used, int limit) {
+    // Remembers the encoding if there's room. Checking and inserting is a single atomic step,
+    // so two workers can't both decide that the same program is new.
+    private static boolean isDuplicate(Set<String> seen, String encoding, int maxSize) {
+        if (seen.size() < maxSize)
+            return !seen.add(encoding);
+        return seen.contains(encoding);
+    }
+
+    private static void findCodePaths(int numTrue, CodePath path, List<CodePath> paths, BitStringTrie used, int limit) {
         if (paths.size() >= limit || used.containsPrefix(path))
             return;
         if (numTrue == 0) {
-            paths.add(path.toString());
+            paths.add(path.copy());
             return;
         }
-        path.append('1');
+        path.add(true);
         findCodePaths(numTrue - 1, path, paths, used, limit);
-        path.setCharAt(path.length() - 1, '0');
+        path.set(path.length() - 1, false);
         findCodePaths(numTrue, path, paths, used, limit);
         path.setLength(path.length() - 1);
     }
 
-    private boolean angelicCheck(Program p, int exampleNum) {
+    private boolean angelicCheck(PreparedProgram p, int exampleNum) {
         BitStringTrie used = new BitStringTrie();
+        Checkpoints checkpoints = new Checkpoints(); // paths share prefixes, so runs can skip the shared part
         for (int numTrue = 0; used.size() < Settings.NUM_ANGELIC_CODE_PATHS; numTrue++) {
             TimeLogger.start("FrAngel.findCodePaths()");
-            List<String> paths = new ArrayList<>();
-            findCodePaths(numTrue, new StringBuilder(), paths, used, Settings.NUM_ANGELIC_CODE_PATHS - used.size());
+            List<CodePath> paths = new ArrayList<>();
+            findCodePaths(numTrue, new CodePath(), paths, used, Settings.NUM_ANGELIC_CODE_PATHS - used.size());
             if (paths.isEmpty()) {
                 TimeLogger.stop("FrAngel.findCodePaths()");
                 return false; // Exhausted all paths
             }
             TimeLogger.stop("FrAngel.findCodePaths()");
-            for (String path : paths) {
-                EvaluationInfo info = Interpreter.runProgram(p, task.getExample(exampleNum), path);
+            for (CodePath path : paths) {
+                EvaluationInfo info = Interpreter.runProgram(p, task.getExample(exampleNum), path, checkpoints);
                 used.add(info.getActualCodePath());
                 if (Settings.VERBOSE > 3)
                     System.out.println("  path: " + path + ", actual: " + info.getActualCodePath() + ", success: " + info.isSuccess());
@@ -328,12 +781,22 @@ public class FrAngel {
         return false;
     }
 
-    private BitSet evaluateAngelic(Program p) {
+    // Runs angelicCheck() on an example, for angelicOrder to learn from
+    private boolean angelicCheckTimed(PreparedProgram p, int exampleNum) {
+        long start = System.nanoTime();
+        boolean success = angelicCheck(p, exampleNum);
+        angelicOrder.record(exampleNum, !success, System.nanoTime() - start);
+        return success;
+    }
+
+    private BitSet evaluateAngelic(Program program) {
+        PreparedProgram p = Interpreter.prepare(program);
         BitSet passed = new BitSet();
         int numExamples = task.numExamples();
         int failedCount = 0;
-        for (int i = 0; i < numExamples; i++) {
-            if (angelicCheck(p, i)) {
+        angelicOrder.startCandidate();
+        for (int i : angelicOrder.get()) {
+            if (angelicCheckTimed(p, i)) {
                 passed.set(i);
             } else {
                 failedCount++;
@@ -344,14 +807,18 @@ public class FrAngel {
         return passed;
     }
 
-    private BitSet evaluateAngelic(Program p, BitSet passed) {
+    private BitSet evaluateAngelic(Program program, BitSet passed) {
+        PreparedProgram p = Interpreter.prepare(program);
         BitSet newPassed = new BitSet();
         int numExamples = task.numExamples();
 
         // Must pass all that were previously passed (minus a few)
         int failedCount = 0;
-        for (int i = passed.nextSetBit(0); i >= 0; i = passed.nextSetBit(i + 1)) {
-            if (angelicCheck(p, i)) {
+        angelicOrder.startCandidate();
+        for (int i : angelicOrder.get()) {
+            if (!passed.get(i))
+                continue;
+            if (angelicCheckTimed(p, i)) {
                 newPassed.set(i);
             } else {
                 failedCount++;
@@ -361,7 +828,7 @@ public class FrAngel {
         }
 
         for (int i = passed.nextClearBit(0); i >= 0 && i < numExamples; i = passed.nextClearBit(i + 1))
-            if (angelicCheck(p, i))
+            if (angelicCheckTimed(p, i))
                 newPassed.set(i);
 
         if (newPassed.cardinality() / (double) numExamples < Settings.FRACTION_SMALL)
@@ -370,14 +837,22 @@ public class FrAngel {
         return newPassed;
     }
 
-    private BitSet evaluateNoAngelic(Program p) {
+    // Stops at the first failure unless mining fragments, in which case examples are run in index order, since a slow
+    // example also stops the evaluation and the examples passed before it are mined
+    private BitSet evaluateNoAngelic(Program program) {
+        PreparedProgram p = Interpreter.prepare(program);
         BitSet passed = new BitSet();
+        noAngelicOrder.startCandidate();
+        int[] order = config.mineFragments ? null : noAngelicOrder.get();
         int numExamples = task.numExamples();
-        for (int i = 0; i < numExamples; i++) {
+        for (int k = 0; k < numExamples; k++) {
+            int i = order == null ? k : order[k];
+            long start = System.nanoTime();
             EvaluationInfo result = Interpreter.runProgram(p, task.getExample(i), null);
+            noAngelicOrder.record(i, !result.isSuccess(), System.nanoTime() - start);
             if (result.isSuccess())
                 passed.set(i);
-            else if (!Settings.MINE_FRAGMENTS || result.isSlow())
+            else if (!config.mineFragments || result.isSlow())
                 return passed; // Break early if we don't need to check all examples
         }
         return passed;
@@ -419,11 +894,21 @@ public class FrAngel {
         for (String var : info.getInScopeVars())
             p.addToScope(var);
 
+        int batchSize = Math.max(1, Settings.RESOLVE_BATCH_SIZE);
+        List<Expression> batch = new ArrayList<>(batchSize);
+        int angelicIndex = -1;
+        if (batchSize > 1) {
+            setCondition(angelicStatement, null); // clones must see the statement as angelic
+            angelicIndex = indexOfAngelic(p, angelicStatement);
+        }
+
         boolean triedTrue = false;
         boolean triedFalse = false;
+        long batchNanos = 0; // how long the last batch took
         int i;
-        for (i = 0; !Utils.timeout(timeout); i++) {
-            Expression condition = p.expressionGenerator.genAnyExp(Utils.randInt(1, Settings.MAX_RESOLVE_COND_SIZE), boolean.class, false);
+        long loopStart = System.nanoTime();
+        for (i = 0; !stopped && !Utils.timeout(timeout); i++) {
+            Expression condition = p.expressionGenerator.genAnyExp(p.rand.nextInt(1, Settings.MAX_RESOLVE_COND_SIZE), boolean.class, false);
 
             if (condition instanceof LiteralExpression) {
                 boolean literal = (Boolean) ((LiteralExpression) condition).literal;
@@ -447,13 +932,34 @@ public class FrAngel {
                 continue;
             used.add(encoding);
 
-            setCondition(angelicStatement, condition);
+            BitSet newPassed;
+            if (batchSize == 1) {
+                setCondition(angelicStatement, condition);
 
-            TimeLogger.stop("FrAngel.resolveConditions()"); // Don't overlap timing with program execution
-            BitSet newPassed = evaluateAngelic(p, passed);
-            TimeLogger.start("FrAngel.resolveConditions()");
+                TimeLogger.stop("FrAngel.resolveConditions()"); // Don't overlap timing with program execution
+                newPassed = evaluateAngelic(p, passed);
+                TimeLogger.start("FrAngel.resolveConditions()");
+                resolveCandidates.increment();
+            } else {
+                batch.add(condition);
+                if (batch.size() < batchSize && !Utils.timeout(timeout - batchNanos))
+                    continue; // run a partial batch if there's only time left for one more
+                TimeLogger.stop("FrAngel.resolveConditions()");
+                long batchStart = System.nanoTime();
+                int k = evaluateConditions(p, angelicIndex, batch, passed, timeout);
+                batchNanos = System.nanoTime() - batchStart;
+                TimeLogger.start("FrAngel.resolveConditions()");
+                newPassed = null;
+                if (k >= 0) {
+                    condition = batch.get(k);
+                    setCondition(angelicStatement, condition);
+                    newPassed = evaluateAngelic(p, passed); // the clone passed, so this should too
+                }
+                batch.clear();
+            }
 
             if (newPassed != null) {
+                resolveNanos.add(System.nanoTime() - loopStart);
                 if (Settings.VERBOSE > 1) {
                     System.out.printf("Resolved a angelic condition (%d tries, %.3f sec): %s\n", i+1, Utils.timeSince(start), condition.toJava());
                     System.out.println("Now passes: " + newPassed);
@@ -463,6 +969,7 @@ public class FrAngel {
                 return newPassed;
             }
         }
+        resolveNanos.add(System.nanoTime() - loopStart);
         if (Settings.VERBOSE > 1)
             System.out.printf("Could not resolve angelic condition (%d tries, %.3f sec)\n", i+1, Utils.timeSince(start));
         setCondition(angelicStatement, null);
@@ -471,6 +978,62 @@ public class FrAngel {
         return null;
     }
 
+    // Tries a batch of distinct conditions for the angelic statement at angelicIndex (in findAngelic() order), each
+    // on its own clone of the program, in parallel on conditionPool. Returns the index of the first condition in the
+    // batch whose clone passes, or -1, also if the timeout passes first. Conditions after a known success are skipped.
+    private int evaluateConditions(Program p, int angelicIndex, List<Expression> conditions, BitSet passed, long timeout) {
+        AtomicInteger firstSuccess = new AtomicInteger(conditions.size());
+        List<Future<Boolean>> tasks = new ArrayList<>(conditions.size());
+        for (int k = 0; k < conditions.size(); k++) {
+            int index = k;
+            Program clone = p.clone(); // cloned here, since p may change once we return
+            setCondition(findAngelic(clone).get(angelicIndex).getStatement(), conditions.get(k));
+            tasks.add(conditionPool.submit(() -> {
+                if (stopped || Utils.timeout(timeout) || firstSuccess.get() < index)
+                    return false;
+                Watchdog.bind(task.getQuarantined());
+                Watchdog.watch(() -> {}); // if stuck, the pool starts new threads for later tasks
+                try {
+                    resolveCandidates.increment();
+                    if (evaluateAngelic(clone, passed) == null)
+                        return false;
+                } catch (Watchdog.AbandonedError e) {
+                    return false;
+                } finally {
+                    Watchdog.unwatch();
+                    Watchdog.bind(null);
+                }
+                firstSuccess.accumulateAndGet(index, Math::min);
+                return true;
+            }));
+        }
+        try {
+            for (int k = 0; k < tasks.size(); k++) {
+                // Any later tasks still running only touch their own clones
+                if (tasks.get(k).get(Math.max(0, timeout - System.nanoTime()), TimeUnit.NANOSECONDS))
+                    return k;
+            }
+        } catch (TimeoutException e) {
+            // give up on the rest of the batch
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Future<Boolean> task : tasks)
+                task.cancel(false);
+        }
+        return -1;
+    }
+
+    private int indexOfAngelic(Program p, Statement angelicStatement) {
+        List<AngelicStatementInfo> list = findAngelic(p);
+        for (int k = 0; k < list.size(); k++)
+            if (list.get(k).getStatement() == angelicStatement)
+                return k;
+        throw new IllegalStateException("Statement is not angelic: " + angelicStatement.toJava());
+    }
+
     private static class AngelicStatementInfo implements Comparable<AngelicStatementInfo> {
         private final Statement statement;
         private final int depth;
@@ -531,45 +1094,6 @@ public class FrAngel {
         return list;
     }
 
-    private BitSet resolveConditions(Program p, BitSet passed, long timeout) {
-        TimeLogger.start("FrAngel.resolveConditions()");
-        if (Settings.VERBOSE > 1)
-            System.out.println("Resolving angelic conditions for angelic program:\n" + p.toJava() + "\nPasses: " + passed);
-
-        BitSet copy = (BitSet) passed.clone();
-        double secSinceLast = (System.nanoTime() - lastResolveConditions) / 1.0e9;
-        double singleTimeout = Math.max(Settings.MIN_RESOLVE_CONDITIONS_SEC, Math.min(2 * secSinceLast, Settings.MAX_RESOLVE_CONDITIONS_SEC));
-        if (Settings.VERBOSE > 1)
-            System.out.println("resolveSingleCondition timeout: " + singleTimeout + " sec");
-
-        List<AngelicStatementInfo> list = findAngelic(p);
-
-        for (AngelicStatementInfo info : list) {
-            passed = resolveSingleCondition(p, info, passed, Math.min(timeout, Utils.getTimeout(singleTimeout)));
-            if (passed == null)
-                break;
-        }
-
-        if (passed == null && list.size() > 1) {
-            if (Settings.VERBOSE > 1)
-                System.out.println("Could not resolve conditions inside-first, trying outside-first");
-            for (AngelicStatementInfo info : list)
-                setCondition(info.getStatement(), null);
-            passed = copy;
-            list = findAngelic(p);
-            Collections.reverse(list);
-            for (AngelicStatementInfo info : list) {
-                passed = resolveSingleCondition(p, info, passed, Math.min(timeout, Utils.getTimeout(singleTimeout / 2)));
-                if (passed == null)
-                    break;
-            }
-        }
-
-        lastResolveConditions = System.nanoTime();
-        TimeLogger.stop("FrAngel.resolveConditions()");
-        return passed;
-    }
-
     private BitSet mineFragments(Program p, BitSet passed) {
         TimeLogger.start("Cleaner.quickCleanOnce()");
         Cleaner cleaner = new Cleaner(p, task, passed);
@@ -580,7 +1104,21 @@ public class FrAngel {
         passed = evaluateNoAngelic(p);
 
         TimeLogger.start("FrAngel.mineFragments()");
-        // Keep if no simpler program passes (at least) the same examples
+        synchronized (fragmentPrograms) {
+            if (keepFragmentProgram(p, passed)) {
+                TimeLogger.stop("FrAngel.mineFragments()");
+                reloadFragments();
+                publishFragmentProgram(p, passed);
+            } else {
+                TimeLogger.stop("FrAngel.mineFragments()");
+            }
+        }
+        return passed;
+    }
+
+    // Keeps the program if no simpler program passes (at least) the same examples, and then forgets programs that it
+    // makes redundant. Caller must hold the fragmentPrograms lock.
+    private boolean keepFragmentProgram(Program p, BitSet passed) {
         boolean keep = true;
         for (Map.Entry<BitSet, Program> entry : fragmentPrograms.entrySet()) {
             BitSet otherPassed = entry.getKey();
@@ -600,40 +1138,98 @@ public class FrAngel {
                 }
             }
         }
-        if (keep) {
-            fragmentPrograms.put(passed, p);
-            if (Settings.VERBOSE > 0) {
-                String passedStr = "";
-                String sep = "";
-                for (int i = passed.nextSetBit(0); i >= 0; i = passed.nextSetBit(i+1)) {
-                    Example example = task.getExample(i);
-                    passedStr += sep + example.getNameWithIndex();
-                    sep = ", ";
-                }
-                System.out.println("\nSimplest program so far for " + passedStr + "\n" + p.toJava());
+        if (!keep)
+            return false;
+
+        fragmentPrograms.put(passed, p);
+        if (Settings.VERBOSE > 0) {
+            String passedStr = "";
+            String sep = "";
+            for (int i = passed.nextSetBit(0); i >= 0; i = passed.nextSetBit(i+1)) {
+                Example example = task.getExample(i);
+                passedStr += sep + example.getNameWithIndex();
+                sep = ", ";
             }
+            System.out.println("\nSimplest program so far for " + passedStr + "\n" + p.toJava());
+        }
 
-            // Find strict subsets of passed
-            for (BitSet otherPassed : new HashSet<>(fragmentPrograms.keySet())) {
-                if (otherPassed.cardinality() >= passed.cardinality())
-                    continue;
-                BitSet copy = (BitSet) passed.clone();
-                copy.or(otherPassed);
-                if (copy.equals(passed) && ProgramUtils.size(fragmentPrograms.get(otherPassed)) >= ProgramUtils.size(p))
-                    fragmentPrograms.remove(otherPassed);
+        // Find strict subsets of passed
+        for (BitSet otherPassed : new HashSet<>(fragmentPrograms.keySet())) {
+            if (otherPassed.cardinality() >= passed.cardinality())
+                continue;
+            BitSet copy = (BitSet) passed.clone();
+            copy.or(otherPassed);
+            if (copy.equals(passed) && ProgramUtils.size(fragmentPrograms.get(otherPassed)) >= ProgramUtils.size(p))
+                fragmentPrograms.remove(otherPassed);
+        }
+        return true;
+    }
+
+    private void closeExchange() {
+        try {
+            exchange.close();
+        } catch (IOException e) {
+            System.err.println("Could not close fragment exchange: " + e);
+        }
+    }
+
+    private void publishFragmentProgram(Program p, BitSet passed) {
+        if (exchange == null)
+            return;
+        byte[] encoded = ProgramCodec.encode(p, task);
+        if (encoded == null)
+            return;
+        try {
+            if (!exchange.publish(exchangeId, passed, encoded) && Settings.VERBOSE > 0)
+                System.err.println("Fragment exchange is full or no longer usable");
+        } catch (IOException e) {
+            System.err.println("Could not publish fragment program: " + e);
+        }
+    }
+
+    // Imports fragment programs that other processes published since the last import. Imported programs are
+    // evaluated here, so they are kept under the examples they actually pass.
+    private void importFragmentPrograms(RandomStream rand) {
+        long now = System.nanoTime();
+        if (exchange == null || now <= lastExchange + Settings.FRAGMENT_EXCHANGE_DELAY * 1e9)
+            return;
+        List<FragmentExchange.Entry> entries = new ArrayList<>();
+        synchronized (exchange) {
+            if (now <= lastExchange + Settings.FRAGMENT_EXCHANGE_DELAY * 1e9)
+                return; // another worker just imported
+            lastExchange = now;
+            try {
+                exchangeCursor = exchange.read(exchangeCursor, exchangeId, entries);
+            } catch (IOException e) {
+                System.err.println("Could not read fragment exchange: " + e);
+                return;
             }
-            TimeLogger.stop("FrAngel.mineFragments()");
-            reloadFragments();
-        } else {
-            TimeLogger.stop("FrAngel.mineFragments()");
         }
-        return passed;
+
+        int imported = 0;
+        for (FragmentExchange.Entry entry : entries) {
+            Program p = ProgramCodec.decode(entry.program, task, components, config, rand.split());
+            if (p == null)
+                continue;
+            BitSet passed = evaluateNoAngelic(p);
+            if (passed.isEmpty())
+                continue;
+            synchronized (fragmentPrograms) {
+                if (keepFragmentProgram(p, passed)) {
+                    reloadFragments();
+                    imported++;
+                }
+            }
+        }
+        if (imported > 0 && Settings.VERBOSE > 0)
+            System.out.println("Imported " + imported + " fragment programs from other processes");
     }
 
+    // Caller must hold the fragmentPrograms lock
     private void reloadFragments() {
         TimeLogger.start("FrAngel.reloadFragments()");
-        expressionFragments.clear();
-        statementFragments.clear();
+        Map<Class<?>, List<Expression>> expressionFragments = new HashMap<>();
+        List<Statement> statementFragments = new ArrayList<>();
         List<Expression> expressions = new ArrayList<>();
         List<Statement> statements = new ArrayList<>();
 
@@ -666,6 +1262,9 @@ public class FrAngel {
                 statementFragments.add(s);
             }
         }
+        // Publish the new fragments. Generators in other workers may still be reading the old ones.
+        this.expressionFragments = expressionFragments;
+        this.statementFragments = statementFragments;
         TimeLogger.stop("FrAngel.reloadFragments()");
     }
 
@@ -678,22 +1277,45 @@ public class FrAngel {
     public List<Statement> getStatementFragments() {
         return statementFragments;
     }
+    public ComponentIndex getComponents() {
+        return components;
+    }
+    public long getSeed() {
+        return rand.getSeed();
+    }
+    public boolean isPipelined() {
+        return pipeline != null;
+    }
+    public double getAverageQueueDepth() {
+        long samples = queueDepthSamples.sum();
+        return samples == 0 ? 0.0 : queueDepthSum.sum() / (double) samples;
+    }
+    public double getGeneratorStallTime() {
+        return generatorStallNanos.sum() / 1.0e9;
+    }
+    public double getEvaluatorStallTime() {
+        return evaluatorStallNanos.sum() / 1.0e9;
+    }
+    public double getResolveRate() { // candidate conditions per second
+        long nanos = resolveNanos.sum();
+        return nanos == 0 ? 0.0 : resolveCandidates.sum() / (nanos / 1.0e9);
+    }
     public int getGenCount() {
-        return genCount;
+        return genCount.get();
     }
     public int getRunCount() {
-        return runCount;
+        return runCount.get();
     }
     public int getGenAngelicCount() {
-        return genAngelicCount;
+        return genAngelicCount.get();
     }
     public int getRunAngelicCount() {
-        return runAngelicCount;
+        return runAngelicCount.get();
     }
     public int getGenNoAngelicCount() {
-        return genNoAngelicCount;
+        return genNoAngelicCount.get();
     }
     public int getRunNoAngelicCount() {
-        return runNoAngelicCount;
+        return runNoAngelicCount.get();
     }
 }
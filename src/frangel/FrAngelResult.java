@@ -1,8 +1,12 @@
 package frangel;
 
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+import frangel.model.FunctionData;
 import frangel.model.Program;
 import frangel.model.expression.Expression;
 import frangel.model.statement.Statement;
@@ -25,6 +29,8 @@ public class FrAngelResult {
     private final boolean sypetMode;
     private final List<String> tags;
     private final String alg;
+    private final String config; // the winning configuration in portfolio mode
+    private final long seed;
 
     private final String unCleanedProgram;
     private final int unCleanedProgramSize;
@@ -40,6 +46,17 @@ public class FrAngelResult {
     private final int numNonAngelicGen;
     private final int numNonAngelicRun;
 
+    // Pipelined mode only (see FrAngel.runPipeline)
+    private final double averageQueueDepth;
+    private final double generatorStallTime; // in seconds, summed over threads
+    private final double evaluatorStallTime;
+
+    private final double resolveRate; // candidate angelic-condition replacements tried per second
+
+    private final List<String> quarantined; // signatures of components that hung, see Watchdog
+
+    private final String failure; // why the run produced no normal result (e.g., its child JVM hung), or null
+
     public FrAngelResult(FrAngel frangel, Program program, double time, String unCleanedProgram, int unCleanedProgramSize) {
         SynthesisTask task = frangel.task;
         name = task.getName();
@@ -47,32 +64,30 @@ public class FrAngelResult {
         success = program != null;
         this.time = time;
 
-        boolean oldValue = Settings.USE_SIMPLE_NAME;
-        Settings.USE_SIMPLE_NAME = false;
-        this.program = success ? program.toJava() : "";
-        Settings.USE_SIMPLE_NAME = true;
-        simpleProgram = success ? program.toJava() : "";
-        Settings.USE_SIMPLE_NAME = oldValue;
+        this.program = success ? Utils.withSimpleName(false, program::toJava) : "";
+        simpleProgram = success ? Utils.withSimpleName(true, program::toJava) : "";
 
         numExamples = task.numExamples();
-        numComponents = Utils.numComponents(task);
+        numComponents = Utils.numComponents(task, frangel.getComponents());
         programSize = success ? ProgramUtils.size(program) : 0;
-        sypetMode = Settings.SYPET_MODE;
+        sypetMode = task.isSyPetMode();
         tags = new ArrayList<>();
         for (Tag t : task.getTags())
             tags.add(t.toString());
 
-        if (Settings.MINE_FRAGMENTS)
-            alg = Settings.USE_ANGELIC_CONDITIONS ? "FrAngel" : "Fragments";
-        else
-            alg = Settings.USE_ANGELIC_CONDITIONS ? "Angelic" : "Baseline";
+        alg = frangel.config.getAlg();
+        config = frangel.config.toString();
+        seed = frangel.getSeed();
 
         this.unCleanedProgram = unCleanedProgram;
         this.unCleanedProgramSize = unCleanedProgramSize;
 
         numRememberedPrograms = 0;
-        if (Settings.MINE_FRAGMENTS) {
-            numRememberedPrograms = frangel.getFragmentPrograms().size();
+        if (frangel.config.mineFragments) {
+            Map<BitSet, Program> fragmentPrograms = frangel.getFragmentPrograms();
+            synchronized (fragmentPrograms) { // a resolver job may still be mining (see FrAngel.stopResolver())
+                numRememberedPrograms = fragmentPrograms.size();
+            }
             List<Object> allFragments = new ArrayList<>();
             for (List<Expression> list : frangel.getExpressionFragments().values())
                 allFragments.addAll(list);
@@ -90,6 +105,51 @@ public class FrAngelResult {
         numAngelicRun = frangel.getRunAngelicCount();
         numNonAngelicGen = frangel.getGenNoAngelicCount();
         numNonAngelicRun = frangel.getRunNoAngelicCount();
+        averageQueueDepth = frangel.getAverageQueueDepth();
+        generatorStallTime = frangel.getGeneratorStallTime();
+        evaluatorStallTime = frangel.getEvaluatorStallTime();
+        resolveRate = frangel.getResolveRate();
+        quarantined = new ArrayList<>();
+        for (FunctionData data : task.getQuarantined())
+            quarantined.add(data.getSignature());
+        Collections.sort(quarantined);
+        failure = null;
+    }
+
+    // For a task whose run never reported a result, e.g., because it was killed
+    private FrAngelResult(SynthesisTask task, double time, String failure) {
+        name = task.getName();
+        group = task.getGroup();
+        success = false;
+        this.time = time;
+        program = simpleProgram = unCleanedProgram = "";
+
+        task.finalizeSetup();
+        numExamples = task.numExamples();
+        ComponentIndex components = JavaFunctionLoader.load(task);
+        numComponents = Utils.numComponents(task, components);
+        JavaFunctionLoader.release(components);
+        programSize = unCleanedProgramSize = 0;
+        sypetMode = task.isSyPetMode();
+        tags = new ArrayList<>();
+        for (Tag t : task.getTags())
+            tags.add(t.toString());
+
+        SearchConfig defaults = SearchConfig.fromSettings();
+        alg = defaults.getAlg();
+        config = defaults.toString();
+        seed = Settings.SEED != null ? Settings.SEED : 0;
+
+        numRememberedPrograms = numFragments = 0;
+        averageFragmentUsefulness = 0.0;
+        numProgramsGen = numProgramsRun = numAngelicGen = numAngelicRun = numNonAngelicGen = numNonAngelicRun = 0;
+        averageQueueDepth = generatorStallTime = evaluatorStallTime = resolveRate = 0.0;
+        quarantined = new ArrayList<>();
+        this.failure = failure;
+    }
+
+    public static FrAngelResult failed(SynthesisTask task, double time, String failure) {
+        return new FrAngelResult(task, time, failure);
     }
 
     private double computeUsefulness(List<Object> fragments, Program program) {
@@ -119,9 +179,16 @@ public class FrAngelResult {
         if (group != null)
             System.out.println("Group: " + group);
         System.out.println("Success: " + success);
+        if (failure != null)
+            System.out.println("Failure: " + failure);
+        if (!quarantined.isEmpty())
+            System.out.println("Quarantined: " + quarantined);
         System.out.printf("Time: %.3f sec\n", time);
         System.out.println("# Examples: " + numExamples);
         System.out.println("# Components: " + numComponents);
+        System.out.println("Seed: " + seed);
+        if (Settings.PORTFOLIO)
+            System.out.println("Config: " + config);
         if (success) {
             System.out.println("Program Size: " + programSize);
             printCounts();
@@ -137,9 +204,32 @@ public class FrAngelResult {
             System.out.println("All programs:     generated " + numProgramsGen + ", ran " + numProgramsRun);
             System.out.println("Only non-angelic: generated " + numNonAngelicGen + ", ran " + numNonAngelicRun);
             System.out.println("Only angelic:     generated " + numAngelicGen + ", ran " + numAngelicGen);
+            if (averageQueueDepth > 0 || generatorStallTime > 0 || evaluatorStallTime > 0)
+                System.out.printf("Pipeline: average queue depth %.1f, generators stalled %.3f sec, evaluators stalled %.3f sec\n",
+                        averageQueueDepth, generatorStallTime, evaluatorStallTime);
+            if (resolveRate > 0)
+                System.out.printf("Resolving conditions: %.1f candidates per second\n", resolveRate);
         }
     }
 
+    public double getAverageQueueDepth() {
+        return averageQueueDepth;
+    }
+    public double getGeneratorStallTime() {
+        return generatorStallTime;
+    }
+    public double getEvaluatorStallTime() {
+        return evaluatorStallTime;
+    }
+    public double getResolveRate() {
+        return resolveRate;
+    }
+    public List<String> getQuarantined() {
+        return quarantined;
+    }
+    public String getFailure() {
+        return failure;
+    }
     public boolean isSuccess() {
         return success;
     }
@@ -173,6 +263,12 @@ public class FrAngelResult {
     public String getAlg() {
         return alg;
     }
+    public String getConfig() {
+        return config;
+    }
+    public long getSeed() {
+        return seed;
+    }
     public String getUnCleanedProgram() {
         return unCleanedProgram;
     }
@@ -0,0 +1,177 @@
+// Shares fragment programs between processes synthesizing the same task, through a memory-mapped file in
+// Settings.FRAGMENT_EXCHANGE_DIR. Entries are only ever appended, so a reader just remembers where it stopped.
+//
+// Layout: [magic][run][end of the last entry], then entries of [length][writer][passed examples][program]. The program
+// is encoded by ProgramCodec. Writers hold an exclusive file lock and readers a shared one. A file written by another
+// run (see Settings.FRAGMENT_EXCHANGE_RUN) is emptied when opened, and then ignored by the processes of that run.
+
+package frangel;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FragmentExchange {
+    private static final int MAGIC = 0x46724168;
+    private static final int RUN = 4, END = 12, HEADER_SIZE = 16;
+    private static final int MIN_ENTRY_SIZE = 4 + 8 + 4 + 4;
+
+    // A file can only be locked once per JVM, so runs in this JVM on the same task share one exchange, which is closed
+    // once they all have closed it (guarded by the class)
+    private static final Map<String, FragmentExchange> open = new HashMap<>();
+
+    private final String path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long run;
+    private final int start; // where this process starts reading
+    private int users;
+    private boolean broken; // found a malformed entry, so it's no longer used
+
+    public static class Entry {
+        public final BitSet passed;
+        public final byte[] program;
+        Entry(BitSet passed, byte[] program) {
+            this.passed = passed;
+            this.program = program;
+        }
+    }
+
+    private FragmentExchange(String path) throws IOException {
+        this.path = path;
+        run = Settings.FRAGMENT_EXCHANGE_RUN;
+        channel = FileChannel.open(new File(path).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Settings.FRAGMENT_EXCHANGE_SIZE);
+            FileLock lock = channel.lock();
+            try {
+                if (buffer.getInt(0) != MAGIC || buffer.getLong(RUN) != run) { // a new file, or left by another run
+                    buffer.putInt(0, 0);
+                    buffer.putInt(END, HEADER_SIZE);
+                    buffer.putLong(RUN, run);
+                    buffer.putInt(0, MAGIC);
+                }
+                // Without a run, there's no telling which entries are stale, so only import what is published from now on
+                start = run == 0 ? endOfEntries() : HEADER_SIZE;
+            } finally {
+                lock.release();
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static FragmentExchange open(SynthesisTask task) throws IOException {
+        File dir = new File(Settings.FRAGMENT_EXCHANGE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create directory " + dir);
+        String path = new File(dir, task.getName() + ".fragments").getCanonicalPath();
+        synchronized (FragmentExchange.class) {
+            FragmentExchange exchange = open.get(path);
+            if (exchange == null) {
+                exchange = new FragmentExchange(path);
+                open.put(path, exchange);
+            }
+            exchange.users++;
+            return exchange;
+        }
+    }
+
+    // Once per open()
+    public void close() throws IOException {
+        synchronized (FragmentExchange.class) {
+            if (--users > 0)
+                return;
+            open.remove(path);
+        }
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    // False if the file is full or no longer usable (taken over by another run, or malformed)
+    public synchronized boolean publish(long writer, BitSet passed, byte[] program) throws IOException {
+        byte[] passedBytes = passed.toByteArray();
+        int length = 4 + 8 + 4 + passedBytes.length + 4 + program.length;
+        if (broken)
+            return false;
+        FileLock lock = channel.lock();
+        try {
+            int end = endOfEntries();
+            if (end < 0 || end + length > buffer.capacity())
+                return false;
+            ByteBuffer b = buffer.duplicate();
+            b.position(end);
+            b.putInt(length).putLong(writer);
+            b.putInt(passedBytes.length).put(passedBytes);
+            b.putInt(program.length).put(program);
+            buffer.putInt(END, end + length); // publish the entry only once it's complete
+        } finally {
+            lock.release();
+        }
+        return true;
+    }
+
+    // Adds entries from other writers, starting at the given position (0 for the first read). Returns the position to
+    // continue from next time.
+    public synchronized int read(int from, long reader, List<Entry> entries) throws IOException {
+        int pos = Math.max(from, start);
+        if (broken)
+            return pos;
+        FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+        try {
+            int end = endOfEntries();
+            if (end < 0)
+                return pos;
+            ByteBuffer b = buffer.duplicate();
+            while (pos < end) {
+                b.position(pos);
+                int length = b.getInt();
+                if (length < MIN_ENTRY_SIZE || length > end - pos)
+                    throw malformed("Bad entry length " + length + " at " + pos);
+                long writer = b.getLong();
+                if (writer != reader) {
+                    int passedLength = b.getInt();
+                    if (passedLength < 0 || passedLength > length - MIN_ENTRY_SIZE)
+                        throw malformed("Bad entry at " + pos);
+                    byte[] passedBytes = new byte[passedLength];
+                    b.get(passedBytes);
+                    int programLength = b.getInt();
+                    if (programLength != length - MIN_ENTRY_SIZE - passedLength)
+                        throw malformed("Bad entry at " + pos);
+                    byte[] program = new byte[programLength];
+                    b.get(program);
+                    entries.add(new Entry(BitSet.valueOf(passedBytes), program));
+                }
+                pos += length;
+            }
+        } finally {
+            lock.release();
+        }
+        return pos;
+    }
+
+    // -1 if the file now belongs to another run. Caller must hold a file lock.
+    private int endOfEntries() throws IOException {
+        if (buffer.getInt(0) != MAGIC || buffer.getLong(RUN) != run)
+            return -1;
+        int end = buffer.getInt(END);
+        if (end < HEADER_SIZE || end > buffer.capacity())
+            throw malformed("Bad end of entries " + end);
+        return end;
+    }
+
+    private IOException malformed(String message) {
+        broken = true;
+        return new IOException(message);
+    }
+}
@@ -0,0 +1,185 @@
+package frangel;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.lang.reflect.Array;
+import java.util.*;
+
+import frangel.utils.Utils;
+
+// Deep copies of example inputs, so that each run gets its own inputs without calling the example's supplier again (see
+// Example.getInputs()). Immutable values are shared. Only exact classes known here are copied, since a subclass may
+// hold state that a copy would lose; Example falls back to the supplier for anything else.
+final class InputCopier {
+    private InputCopier() {}
+
+    // Whether copy() can copy the value. Mutable objects reachable twice can't be copied, since their copies would be
+    // separate objects.
+    static boolean canCopy(Object o, Set<Object> seen) {
+        if (Utils.isImmutable(o))
+            return true;
+        if (!seen.add(o))
+            return false;
+        Class<?> cls = o.getClass();
+        if (cls.isArray()) {
+            if (cls.getComponentType().isPrimitive())
+                return true;
+            for (Object e : (Object[]) o)
+                if (!canCopy(e, seen))
+                    return false;
+            return true;
+        }
+        if (cls == ArrayList.class || cls == LinkedList.class || cls == ArrayDeque.class || cls == Stack.class
+                || cls == Vector.class || cls == PriorityQueue.class || cls == HashSet.class || cls == LinkedHashSet.class
+                || cls == TreeSet.class) {
+            for (Object e : (Collection<?>) o)
+                if (!canCopy(e, seen))
+                    return false;
+            return true;
+        }
+        if (cls == HashMap.class || cls == TreeMap.class) {
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet())
+                if (!canCopy(e.getKey(), seen) || !canCopy(e.getValue(), seen))
+                    return false;
+            return true;
+        }
+        return cls == StringBuilder.class || cls == Polygon.class || cls == Point.class || cls == Rectangle.class || cls == Dimension.class
+                || cls == Point2D.Double.class || cls == Rectangle2D.Double.class || cls == Line2D.Double.class
+                || cls == Ellipse2D.Double.class;
+    }
+
+    // Only for values that canCopy() accepts. Collections are rebuilt in iteration order, so hash-based ones built by
+    // insertion also iterate in the same order as the original.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Object copy(Object o) {
+        if (Utils.isImmutable(o))
+            return o;
+        Class<?> cls = o.getClass();
+        if (cls.isArray()) {
+            if (cls == int[].class)
+                return ((int[]) o).clone();
+            if (cls == char[].class)
+                return ((char[]) o).clone();
+            if (cls == double[].class)
+                return ((double[]) o).clone();
+            if (cls.getComponentType().isPrimitive()) {
+                int len = Array.getLength(o);
+                Object copy = Array.newInstance(cls.getComponentType(), len);
+                System.arraycopy(o, 0, copy, 0, len);
+                return copy;
+            }
+            Object[] copy = ((Object[]) o).clone();
+            for (int i = 0; i < copy.length; i++)
+                copy[i] = copy(copy[i]);
+            return copy;
+        }
+        Collection copy;
+        if (cls == ArrayList.class)
+            copy = new ArrayList<>(((Collection) o).size());
+        else if (cls == LinkedList.class)
+            copy = new LinkedList<>();
+        else if (cls == ArrayDeque.class)
+            copy = new ArrayDeque<>();
+        else if (cls == Stack.class)
+            copy = new Stack<>();
+        else if (cls == Vector.class)
+            copy = new Vector<>();
+        else if (cls == PriorityQueue.class) // adding in heap order keeps the same heap
+            copy = new PriorityQueue<>(Math.max(1, ((Collection) o).size()), ((PriorityQueue) o).comparator());
+        else if (cls == HashSet.class)
+            copy = new HashSet<>();
+        else if (cls == LinkedHashSet.class)
+            copy = new LinkedHashSet<>();
+        else if (cls == TreeSet.class)
+            copy = new TreeSet<>(((TreeSet) o).comparator());
+        else
+            copy = null;
+        if (copy != null) {
+            for (Object e : (Collection) o)
+                copy.add(copy(e));
+            return copy;
+        }
+        Map map;
+        if (cls == HashMap.class)
+            map = new HashMap<>();
+        else if (cls == TreeMap.class)
+            map = new TreeMap<>(((TreeMap) o).comparator());
+        else
+            map = null;
+        if (map != null) {
+            for (Map.Entry e : ((Map<?, ?>) o).entrySet())
+                map.put(copy(e.getKey()), copy(e.getValue()));
+            return map;
+        }
+        if (cls == StringBuilder.class)
+            return new StringBuilder((StringBuilder) o);
+        if (cls == Polygon.class) {
+            // The arrays can be longer than npoints, and Environment checks their length, so copy them whole
+            Polygon p = (Polygon) o, polygon = new Polygon();
+            polygon.npoints = p.npoints;
+            polygon.xpoints = p.xpoints.clone();
+            polygon.ypoints = p.ypoints.clone();
+            return polygon;
+        }
+        if (cls == Point.class || cls == Point2D.Double.class)
+            return ((Point2D) o).clone();
+        if (cls == Rectangle.class || cls == Rectangle2D.Double.class || cls == Ellipse2D.Double.class)
+            return ((RectangularShape) o).clone();
+        if (cls == Line2D.Double.class)
+            return ((Line2D) o).clone();
+        if (cls == Dimension.class)
+            return ((Dimension) o).clone();
+        throw new IllegalArgumentException("Cannot copy " + cls.getName());
+    }
+
+    // Whether copy() of the value holds the same values in the same iteration order. A hash-based collection can
+    // iterate in another order if it wasn't built by insertion alone.
+    static boolean copiesExactly(Object o) {
+        return same(o, copy(o));
+    }
+
+    private static boolean same(Object a, Object b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.getClass() != b.getClass())
+            return false;
+        Class<?> cls = a.getClass();
+        if (cls.isArray()) {
+            if (cls.getComponentType().isPrimitive())
+                return Objects.deepEquals(a, b);
+            Object[] x = (Object[]) a, y = (Object[]) b;
+            if (x.length != y.length)
+                return false;
+            for (int i = 0; i < x.length; i++)
+                if (!same(x[i], y[i]))
+                    return false;
+            return true;
+        }
+        if (a instanceof Map)
+            return same(((Map<?, ?>) a).entrySet(), ((Map<?, ?>) b).entrySet());
+        if (a instanceof Map.Entry)
+            return same(((Map.Entry<?, ?>) a).getKey(), ((Map.Entry<?, ?>) b).getKey())
+                    && same(((Map.Entry<?, ?>) a).getValue(), ((Map.Entry<?, ?>) b).getValue());
+        if (a instanceof Collection) {
+            Iterator<?> x = ((Collection<?>) a).iterator(), y = ((Collection<?>) b).iterator();
+            while (x.hasNext() && y.hasNext())
+                if (!same(x.next(), y.next()))
+                    return false;
+            return !x.hasNext() && !y.hasNext();
+        }
+        if (cls == StringBuilder.class)
+            return a.toString().equals(b.toString());
+        if (cls == Polygon.class) {
+            Polygon x = (Polygon) a, y = (Polygon) b;
+            return x.npoints == y.npoints && Arrays.equals(x.xpoints, y.xpoints) && Arrays.equals(x.ypoints, y.ypoints);
+        }
+        return a.equals(b);
+    }
+}
@@ -1,4 +1,4 @@
-// Loads Java functions.
+// Loads Java functions into a ComponentIndex.
 
 package frangel;
 
@@ -12,15 +12,26 @@ import frangel.utils.Utils;
 
 public class JavaFunctionLoader {
 
+    // Tasks with the same classes and loading options share an index while any of them uses it (guarded by itself)
+    private static final Map<List<Object>, Cached> cache = new HashMap<>();
+
+    private static class Cached {
+        final ComponentIndex index;
+        int users;
+        Cached(ComponentIndex index) {
+            this.index = index;
+        }
+    }
+
     // Every version of an overloaded function corresponds to a separate FunctionData object
-    private static List<FunctionData> allData; // includes methods, fields, constructors, and array operations
-    private static List<FunctionData> allMethods; // only methods
-    private static Map<Class<?>, List<FunctionData>> functionsByReturnType;
+    private final List<FunctionData> allData; // includes methods, fields, constructors, and array operations
+    private final List<FunctionData> allMethods; // only methods
+    private final Map<Class<?>, List<FunctionData>> functionsByReturnType;
 
-    private static Map<Class<?>, Set<Class<?>>> supers;
-    private static Map<Method, Set<Class<?>>> possibleCallingTypes; // if A is assignable from B, then only include A
+    private final Map<Class<?>, Set<Class<?>>> supers;
+    private final Map<Method, Set<Class<?>>> possibleCallingTypes; // if A is assignable from B, then only include A
 
-    private static FunctionData keySetData = null;
+    private FunctionData keySetData = null;
 
     private static Set<Class<?>> getArrayClasses(SynthesisTask task, Set<Class<?>> arrayTypes) {
         Set<Class<?>> relevant = new HashSet<>(arrayTypes);
@@ -36,10 +47,43 @@ public class JavaFunctionLoader {
         return ans;
     }
 
+    // Returns the (possibly shared) index of the task's components. Call release() once done with it.
+    public static ComponentIndex load(SynthesisTask task) {
+        List<Object> key = Arrays.asList(new HashSet<>(task.getClasses()), task.getDeclaringClass(),
+                new HashSet<>(task.getExcludedMethods()), task.getParameterTypeMap() == null ? null : new HashMap<>(task.getParameterTypeMap()),
+                task.isSyPetMode(), Settings.USE_CLASS_CONSTANTS);
+        synchronized (cache) {
+            Cached cached = cache.get(key);
+            if (cached == null) {
+                cached = new Cached(new JavaFunctionLoader(task).toIndex());
+                cache.put(key, cached);
+            }
+            cached.users++;
+            return cached.index;
+        }
+    }
+
+    // Forgets the index once no task uses it
+    public static void release(ComponentIndex index) {
+        synchronized (cache) {
+            for (Iterator<Cached> it = cache.values().iterator(); it.hasNext(); ) {
+                Cached cached = it.next();
+                if (cached.index == index && --cached.users == 0)
+                    it.remove();
+            }
+        }
+    }
+
+    private ComponentIndex toIndex() {
+        return new ComponentIndex(allData, allMethods, functionsByReturnType, supers, possibleCallingTypes, keySetData);
+    }
+
     // Loads methods from library classes
-    public static void resetData(SynthesisTask task) {
+    private JavaFunctionLoader(SynthesisTask task) {
         TimeLogger.start("JavaFunction.resetData()");
-        FunctionData.resetEncodingMap();
+        boolean sypetMode = task.isSyPetMode();
+        if (sypetMode)
+            Settings.loadSyPetPolymorphismMap();
         allData = new ArrayList<>();
         supers = new HashMap<>();
         possibleCallingTypes = new HashMap<>();
@@ -96,7 +140,7 @@ public class JavaFunctionLoader {
                     }
                 }
 
-                if (!Settings.SYPET_MODE) {
+                if (!sypetMode) {
                     Set<Field> fields = new HashSet<>(Arrays.asList(c.getFields()));
                     if (declaringClass)
                         fields.addAll(Arrays.asList(c.getDeclaredFields()));
@@ -137,7 +181,7 @@ public class JavaFunctionLoader {
                 supers.put(returnType, returnSuperTypes);
             }
             for (Class<?> superType : returnSuperTypes) {
-                if (Settings.SYPET_MODE && Settings.HARDCODE_POLYMORPHISM && !superType.equals(returnType) &&
+                if (sypetMode && Settings.HARDCODE_POLYMORPHISM && !superType.equals(returnType) &&
                         Settings.POLYMORPHISM_MAP.containsKey(superType) && !Settings.POLYMORPHISM_MAP.get(superType).contains(returnType))
                     continue;
                 addFunctionByReturnType(superType, data);
@@ -158,7 +202,7 @@ public class JavaFunctionLoader {
         TimeLogger.stop("JavaFunction.resetData()");
     }
 
-    private static void addFunctionByReturnType(Class<?> type, FunctionData data) {
+    private void addFunctionByReturnType(Class<?> type, FunctionData data) {
         if (!functionsByReturnType.containsKey(type))
             functionsByReturnType.put(type, new ArrayList<>());
 //        if (!functionsByReturnType.get(type).contains(data))
@@ -183,48 +227,4 @@ public class JavaFunctionLoader {
         }
         return callerTypes;
     }
-
-    public static List<FunctionData> getFunctionsByReturnType(Class<?> type) {
-        return functionsByReturnType.get(type);
-    }
-
-    // Excludes constructors, fields, and array operations
-    public static List<FunctionData> getAllMethods() {
-        return allMethods;
-    }
-
-    public static int numData() {
-        return allData.size();
-    }
-
-    public static List<FunctionData> getCallableVoidMethods(Set<Class<?>> callableClasses) {
-        List<FunctionData> voidCallable = new ArrayList<>();
-        List<FunctionData> voidMethods = getFunctionsByReturnType(void.class);
-        if (voidMethods == null)
-            return null;
-        for (FunctionData data : voidMethods) {
-            if (data.isStatic)
-                continue;
-            if (callableClasses.contains(data.calleeClass))
-                voidCallable.add(data);
-        }
-        return voidCallable;
-    }
-
-    public static Set<Class<?>> getSuperTypes(Class<?> cls) {
-        if (supers != null) {
-            Set<Class<?>> ans = supers.get(cls);
-            if (ans != null)
-                return ans;
-        }
-        return Utils.getSuperTypes(cls);
-    }
-
-    public static Set<Class<?>> getPossibleCallingTypes(Method m) {
-        return possibleCallingTypes.get(m);
-    }
-
-    public static FunctionData getKeySetData() {
-        return keySetData;
-    }
 }
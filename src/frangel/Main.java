@@ -1,24 +1,38 @@
 package frangel;
 
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
 
 import frangel.benchmarks.BenchmarkGroup;
+import frangel.benchmarks.TaskCreator;
+import frangel.interpreter.Engine;
+import frangel.interpreter.Interpreter;
 import frangel.utils.TimeLogger;
 import frangel.utils.Utils;
 
 public class Main {
+    private static final Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+    private static final String HEARTBEAT_PREFIX = "@@frangel-progress ";
+
+    private static String[] arguments; // forwarded to child JVMs
 
     static void stateSpace(int maxSize) {
         SynthesisTask b = frangel.benchmarks.controlstructures.GetRange.INSTANCE.createTask();
         b.finalizeSetup();
-        JavaFunctionLoader.resetData(b);
         Set<String> programs = new HashSet<>(1000 * 1000);
         int[] counts = new int[maxSize + 1];
-        frangel.model.generator.ProgramGenerator generator = new frangel.model.generator.ProgramGenerator(b);
+        frangel.model.generator.ProgramGenerator generator = new frangel.model.generator.ProgramGenerator(b, JavaFunctionLoader.load(b), SearchConfig.fromSettings(), new frangel.utils.RandomStream(frangel.utils.RandomStream.newSeed()));
         long gen = 0;
         long lastTime = System.nanoTime();
         int lastSize = 0;
@@ -53,6 +67,7 @@ public class Main {
 
         TimeLogger.start("Total");
 
+        arguments = args;
         for (String s : args) {
             try {
                 int firstEquals = s.indexOf('=');
@@ -84,6 +99,63 @@ public class Main {
                     case "-all-groups":
                         Settings.RUN_ALL_GROUPS = Boolean.parseBoolean(value);
                         break;
+                    case "-threads":
+                        Settings.NUM_THREADS = Integer.parseInt(value);
+                        break;
+                    case "-generator-threads":
+                        Settings.GENERATOR_THREADS = Integer.parseInt(value);
+                        break;
+                    case "-resolve-threads":
+                        Settings.RESOLVE_THREADS = Integer.parseInt(value);
+                        break;
+                    case "-resolve-batch":
+                        Settings.RESOLVE_BATCH_SIZE = Integer.parseInt(value);
+                        break;
+                    case "-fragment-exchange":
+                        Settings.FRAGMENT_EXCHANGE_DIR = value;
+                        break;
+                    case "-fragment-exchange-run":
+                        Settings.FRAGMENT_EXCHANGE_RUN = Long.parseLong(value);
+                        break;
+                    case "-portfolio":
+                        Settings.PORTFOLIO = Boolean.parseBoolean(value);
+                        break;
+                    case "-engine":
+                        Settings.ENGINE = Engine.valueOf(value.toUpperCase());
+                        break;
+                    case "-call-timeout":
+                        Settings.CALL_TIMEOUT = Integer.parseInt(value);
+                        break;
+                    case "-check-engine":
+                        Settings.CHECK_ENGINE = Boolean.parseBoolean(value);
+                        break;
+                    case "-adaptive-order":
+                        Settings.ADAPTIVE_EXAMPLE_ORDER = Boolean.parseBoolean(value);
+                        break;
+                    case "-memo-cache":
+                        Settings.MEMO_CACHE_SIZE = Integer.parseInt(value);
+                        break;
+                    case "-seed":
+                        Settings.SEED = Long.parseLong(value);
+                        break;
+                    case "-parallel-tasks":
+                        Settings.PARALLEL_TASKS = Integer.parseInt(value);
+                        break;
+                    case "-child-jvms":
+                        Settings.CHILD_JVMS = Integer.parseInt(value);
+                        break;
+                    case "-stall-limit":
+                        Settings.STALL_LIMIT = Integer.parseInt(value);
+                        break;
+                    case "-heartbeat":
+                        Settings.PRINT_HEARTBEAT = Boolean.parseBoolean(value);
+                        break;
+                    case "-results-file":
+                        Settings.RESULTS_FILE = value;
+                        break;
+                    case "-task":
+                        selectTask(value);
+                        break;
                     default:
                         throw new Exception();
                 }
@@ -101,7 +173,15 @@ public class Main {
         System.out.println("Time limit = " + Settings.TIME_LIMIT + " sec");
         System.out.println("Mine fragments = " + Settings.MINE_FRAGMENTS);
         System.out.println("Angelic conditions = " + Settings.USE_ANGELIC_CONDITIONS);
+        if (Settings.PORTFOLIO)
+            System.out.println("Portfolio = " + SearchConfig.portfolio().size() + " configs");
+        if (Settings.ENGINE != Engine.TREE)
+            System.out.println("Engine = " + Settings.ENGINE + (Settings.CHECK_ENGINE ? " (checked against " + Engine.TREE + ")" : ""));
         System.out.println("Results folder = " + Settings.RESULTS_FOLDER);
+        if (Settings.PARALLEL_TASKS > 1)
+            System.out.println("Parallel tasks = " + Settings.PARALLEL_TASKS);
+        if (Settings.CHILD_JVMS != 0)
+            System.out.println("Child JVMs = " + numChildJvms());
         System.out.println();
 
         List<SynthesisTask> tasks = new ArrayList<>();
@@ -146,15 +226,14 @@ public class Main {
             List<Integer> numExamples = new ArrayList<>();
             List<Integer> numComponents = new ArrayList<>();
             for (SynthesisTask task : tasks) {
-                Settings.SYPET_MODE = BenchmarkGroup.SYPET.toString().equals(task.getGroup());
-                if (Settings.SYPET_MODE)
-                    Settings.loadSyPetPolymorphismMap();
                 numExamples.add(task.getExamples().size());
                 task.finalizeSetup();
-                JavaFunctionLoader.resetData(task);
-                numComponents.add(Utils.numComponents(task));
+                ComponentIndex components = JavaFunctionLoader.load(task);
+                int num = Utils.numComponents(task, components);
+                JavaFunctionLoader.release(components);
+                numComponents.add(num);
                 System.out.println(task.getName() + ", " + task.getExamples().size() + " examples, "
-                        + Utils.numComponents(task) + " components");
+                        + num + " components");
             }
             System.out.println("    Num examples: " + numExamples);
             System.out.println("    Num components: " + numComponents);
@@ -167,24 +246,6 @@ public class Main {
 
         System.out.println("Running " + tasks.size() + " task(s).\n");
 
-        List<FrAngelResult> results = new ArrayList<>();
-
-        int success = 0, total = 0;
-        for (SynthesisTask task : tasks) {
-            Settings.SYPET_MODE = BenchmarkGroup.SYPET.toString().equals(task.getGroup());
-            if (Settings.SYPET_MODE)
-                Settings.loadSyPetPolymorphismMap();
-            FrAngelResult result = runTask(task);
-            if (result.isSuccess())
-                success++;
-            results.add(result);
-            total++;
-        }
-        System.out.printf("Success rate: %d / %d = %.2f%%\n", success, total, success * 100.0 / total);
-
-        Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
-        if (Settings.VERBOSE > 1)
-            System.out.println(gson.toJson(results));
         String outputFilename = Settings.RESULTS_FOLDER;
         if (Settings.RUN >= 0)
             outputFilename += "run" + Settings.RUN + "-";
@@ -195,23 +256,240 @@ public class Main {
         else
             outputFilename += Settings.TASK.getName();
         outputFilename += "-" + Settings.TIME_LIMIT + "s-"
-                + (Settings.MINE_FRAGMENTS ? "F" : "x") + (Settings.USE_ANGELIC_CONDITIONS ? "A" : "x") + "-"
+                + (Settings.PORTFOLIO ? "portfolio" : (Settings.MINE_FRAGMENTS ? "F" : "x") + (Settings.USE_ANGELIC_CONDITIONS ? "A" : "x")) + "-"
                 + new SimpleDateFormat("yyyy_MM_dd_HH_mm_ss").format(new Date()) + ".json";
-        Utils.stringToFile(gson.toJson(results), outputFilename);
+        if (Settings.RESULTS_FILE != null)
+            outputFilename = Settings.RESULTS_FILE;
+
+        // Results are written after every task, so a long run can be inspected (or salvaged) before it finishes
+        FrAngelResult[] results = new FrAngelResult[tasks.size()];
+        if (Settings.CHILD_JVMS != 0) {
+            File childResults = createTempDir();
+            runTasksConcurrently(tasks, numChildJvms(), "frangel-child-",
+                    i -> runChild(tasks.get(i), new File(childResults, i + "-" + tasks.get(i).getName() + ".json")), results, outputFilename);
+            childResults.delete();
+        } else if (Settings.PARALLEL_TASKS > 1) {
+            runTasksConcurrently(tasks, Settings.PARALLEL_TASKS, "frangel-task-", i -> runTask(tasks.get(i)), results, outputFilename);
+        } else {
+            for (int i = 0; i < tasks.size(); i++)
+                addResult(results, i, runTask(tasks.get(i)), outputFilename);
+        }
+
+        int success = 0, total = 0;
+        for (FrAngelResult result : results) {
+            if (result == null)
+                continue;
+            if (result.isSuccess())
+                success++;
+            total++;
+        }
+        System.out.printf("Success rate: %d / %d = %.2f%%\n", success, total, success * 100.0 / total);
+
+        if (Settings.VERBOSE > 1)
+            System.out.println(gson.toJson(finishedResults(results)));
         System.out.println("Wrote results to " + outputFilename);
 
         TimeLogger.stop("Total");
         TimeLogger.printLog();
     }
 
+    private interface TaskRunner {
+        FrAngelResult run(int index) throws Exception;
+    }
+
+    // Runs numThreads tasks at a time. In-process tasks only share immutable component indexes (see JavaFunctionLoader.load()).
+    private static void runTasksConcurrently(List<SynthesisTask> tasks, int numThreads, String threadName, TaskRunner runner,
+            FrAngelResult[] results, String outputFilename) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads, r -> {
+            Thread t = new Thread(r, threadName + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < tasks.size(); i++) {
+            int index = i;
+            futures.add(pool.submit(() -> {
+                addResult(results, index, runner.run(index), outputFilename);
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                System.err.println("Task " + tasks.get(i).getName() + " failed:");
+                e.getCause().printStackTrace();
+            }
+        }
+    }
+
+    private static synchronized void addResult(FrAngelResult[] results, int index, FrAngelResult result, String outputFilename) {
+        results[index] = result;
+        Utils.stringToFile(gson.toJson(finishedResults(results)), outputFilename);
+    }
+
+    // Finished results, in task order
+    private static List<FrAngelResult> finishedResults(FrAngelResult[] results) {
+        List<FrAngelResult> finished = new ArrayList<>();
+        for (FrAngelResult result : results)
+            if (result != null)
+                finished.add(result);
+        return finished;
+    }
+
     public static FrAngelResult runTask(SynthesisTask task) {
         if (Settings.VERBOSE > 0)
             System.out.println(task.toString());
-        System.gc(); // garbage collect to reduce timing variance
+        if (Settings.PARALLEL_TASKS <= 1)
+            System.gc(); // garbage collect to reduce timing variance
+
+        Thread heartbeat = null;
+        if (Settings.PRINT_HEARTBEAT) {
+            heartbeat = new Thread(() -> {
+                try {
+                    while (true) {
+                        System.out.println(HEARTBEAT_PREFIX + Interpreter.numRuns());
+                        Thread.sleep(Settings.HEARTBEAT_DELAY * 1000L);
+                    }
+                } catch (InterruptedException e) {
+                    // task finished
+                }
+            }, "frangel-heartbeat");
+            heartbeat.setDaemon(true);
+            heartbeat.start();
+        }
 
-        FrAngel frangel = new FrAngel(task);
-        FrAngelResult result = frangel.run(Utils.getTimeout(Settings.TIME_LIMIT));
-        result.print();
+        FrAngelResult result = Settings.PORTFOLIO
+                ? FrAngel.runPortfolio(task, SearchConfig.portfolio(), Utils.getTimeout(Settings.TIME_LIMIT))
+                : new FrAngel(task).run(Utils.getTimeout(Settings.TIME_LIMIT));
+        if (heartbeat != null)
+            heartbeat.interrupt();
+        synchronized (Main.class) { // don't interleave with results from other tasks
+            result.print();
+        }
         return result;
     }
+
+    ////////////////
+    // Child JVMs //
+    ////////////////
+
+    // Selects a single task by name (used to start child JVMs)
+    // Creating a task builds its examples, so only creators named like the task are tried (e.g., GuavaSwap creates
+    // guava_swap), then the rest in case one is named otherwise
+    private static void selectTask(String name) {
+        List<TaskCreator> creators = new ArrayList<>(BenchmarkGroup.getAllCreators());
+        String key = name.replace("_", "");
+        creators.sort(Comparator.comparing((TaskCreator c) -> !c.getClass().getSimpleName().replace("_", "").equalsIgnoreCase(key)));
+        for (TaskCreator creator : creators) {
+            SynthesisTask task = creator.createTask();
+            if (task.getName().equals(name)) {
+                Settings.TASK_CREATOR = creator;
+                Settings.TASK = task.setGroup(BenchmarkGroup.findGroup(creator).toString());
+                Settings.RUN_ALL_GROUPS = false;
+                Settings.RUN_ALL_IN_GROUP = false;
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Unknown task: " + name);
+    }
+
+    private static int numChildJvms() {
+        return Settings.CHILD_JVMS > 0 ? Settings.CHILD_JVMS : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static File createTempDir() {
+        try {
+            return Files.createTempDirectory("frangel-results").toFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Runs one task in a child JVM. Kills the child if it stops reporting progress, e.g., when a library call
+    // loops forever, and records the task as failed.
+    private static FrAngelResult runChild(SynthesisTask task, File resultFile) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.addAll(Arrays.asList(arguments));
+        // Later arguments override earlier ones
+        Collections.addAll(command, "-child-jvms=0", "-parallel-tasks=1", "-heartbeat=true",
+                "-task=" + task.getName(), "-results-file=" + resultFile.getPath());
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        AtomicLong lastProgress = new AtomicLong(start);
+        Thread reader = new Thread(() -> readChildOutput(process, lastProgress), "frangel-child-output");
+        reader.setDaemon(true);
+        reader.start();
+
+        String failure = null;
+        while (!process.waitFor(1, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            if (now - lastProgress.get() > Settings.STALL_LIMIT * 1.0e9)
+                failure = "killed after " + Settings.STALL_LIMIT + " sec without progress";
+            else if (now - start > (Settings.TIME_LIMIT + Settings.STALL_LIMIT) * 1.0e9)
+                failure = "killed after exceeding the time limit";
+            if (failure != null) {
+                process.destroyForcibly();
+                process.waitFor();
+                break;
+            }
+        }
+        reader.join(1000);
+        double time = Utils.timeSince(start);
+
+        // The child may have written its result before hanging (e.g., in a stuck library thread)
+        if (resultFile.exists()) {
+            try {
+                FrAngelResult[] childResults = gson.fromJson(Utils.stringFromFile(resultFile.getPath()), FrAngelResult[].class);
+                if (childResults != null && childResults.length == 1)
+                    return childResults[0];
+            } catch (JsonSyntaxException e) { // cut off while writing it
+                if (failure == null)
+                    failure = "child JVM left an incomplete result";
+            } finally {
+                resultFile.delete();
+            }
+        }
+        if (failure == null)
+            failure = "child JVM exited with code " + process.exitValue() + " without a result";
+        System.err.println("Task " + task.getName() + ": " + failure);
+        FrAngelResult result = FrAngelResult.failed(task, time, failure);
+        synchronized (Main.class) {
+            result.print();
+        }
+        return result;
+    }
+
+    private static void readChildOutput(Process process, AtomicLong lastProgress) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            long lastCount = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(HEARTBEAT_PREFIX)) {
+                    long count = Long.parseLong(line.substring(HEARTBEAT_PREFIX.length()).trim());
+                    if (count != lastCount)
+                        lastProgress.set(System.nanoTime());
+                    lastCount = count;
+                } else {
+                    synchronized (Main.class) {
+                        System.out.println(line);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // child was killed
+        }
+    }
 }
@@ -0,0 +1,69 @@
+package frangel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The algorithm settings a single FrAngel run uses. Settings holds the defaults; portfolio mode races several of these.
+public class SearchConfig {
+    public final boolean mineFragments;
+    public final boolean useAngelicConditions;
+    public final int maxSize; // MIN_SIZE <= (size of program) <= maxSize
+    public final int maxBlockSize; // 1 <= (# statements in a block) <= maxBlockSize
+
+    public SearchConfig(boolean mineFragments, boolean useAngelicConditions, int maxSize, int maxBlockSize) {
+        if (maxSize < Settings.MIN_SIZE || maxBlockSize < 1)
+            throw new IllegalArgumentException("Bad size bounds: maxSize = " + maxSize + ", maxBlockSize = " + maxBlockSize);
+        this.mineFragments = mineFragments;
+        this.useAngelicConditions = useAngelicConditions;
+        this.maxSize = maxSize;
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    public static SearchConfig fromSettings() {
+        return new SearchConfig(Settings.MINE_FRAGMENTS, Settings.USE_ANGELIC_CONDITIONS, Settings.MAX_SIZE, Settings.MAX_BLOCK_SIZE);
+    }
+
+    // The ablations from the paper, plus smaller and larger programs with both techniques. The defaults come first.
+    public static List<SearchConfig> portfolio() {
+        SearchConfig defaults = fromSettings();
+        List<SearchConfig> configs = new ArrayList<>();
+        configs.add(defaults);
+        for (boolean fragments : new boolean[] {true, false}) {
+            for (boolean angelic : new boolean[] {true, false}) {
+                SearchConfig c = new SearchConfig(fragments, angelic, defaults.maxSize, defaults.maxBlockSize);
+                if (!c.equals(defaults))
+                    configs.add(c);
+            }
+        }
+        configs.add(new SearchConfig(true, true, Math.max(Settings.MIN_SIZE, defaults.maxSize / 2), Math.max(1, defaults.maxBlockSize - 1)));
+        configs.add(new SearchConfig(true, true, defaults.maxSize * 3 / 2, defaults.maxBlockSize + 2));
+        return configs;
+    }
+
+    // Name of the algorithm, as used in the results
+    public String getAlg() {
+        if (mineFragments)
+            return useAngelicConditions ? "FrAngel" : "Fragments";
+        else
+            return useAngelicConditions ? "Angelic" : "Baseline";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof SearchConfig))
+            return false;
+        SearchConfig c = (SearchConfig) o;
+        return mineFragments == c.mineFragments && useAngelicConditions == c.useAngelicConditions
+                && maxSize == c.maxSize && maxBlockSize == c.maxBlockSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((Boolean.hashCode(mineFragments) * 31 + Boolean.hashCode(useAngelicConditions)) * 31 + maxSize) * 31 + maxBlockSize;
+    }
+
+    @Override
+    public String toString() {
+        return getAlg() + " (max size " + maxSize + ", max block size " + maxBlockSize + ")";
+    }
+}
@@ -7,6 +7,7 @@ import java.util.*;
 
 import frangel.benchmarks.BenchmarkGroup;
 import frangel.benchmarks.TaskCreator;
+import frangel.interpreter.Engine;
 import org.apache.commons.math.linear.SingularValueDecompositionImpl;
 import org.joda.time.DateTime;
 import org.joda.time.LocalDate;
@@ -42,6 +43,15 @@ public class Settings {
     public static SynthesisTask TASK = (TASK_CREATOR == null ? null : TASK_CREATOR.createTask().setGroup(BenchmarkGroup.findGroup(TASK_CREATOR).toString()));
     public static BenchmarkGroup BENCHMARK_GROUP = null; // BenchmarkGroup.CONTROL_STRUCTURES;
 
+    public static int PARALLEL_TASKS = 1; // number of tasks to synthesize at once
+
+    // Driver mode: run each task in a child JVM, killing children that stop making progress
+    public static int CHILD_JVMS = 0; // 0 to run tasks in this JVM, -1 for one child per core
+    public static int STALL_LIMIT = 120; // seconds without a finished evaluation before a child is killed
+    public static final int HEARTBEAT_DELAY = 5; // seconds between a child's progress reports
+    public static boolean PRINT_HEARTBEAT = false; // set in child JVMs
+    public static String RESULTS_FILE = null; // exact output file, overriding the name built from RESULTS_FOLDER
+
     public static boolean CHECK_SOLUTIONS = false;
     public static boolean COUNT_EXAMPLES_AND_COMPONENTS = false;
 
@@ -55,6 +65,22 @@ public class Settings {
     public static boolean USE_ANGELIC_CONDITIONS = true;
     public static double SIMPLIFICATION_TIME = 0.1; // fraction of synthesis time
     public static boolean USE_CLASS_CONSTANTS = true;
+    public static int NUM_THREADS = 1; // search workers per task, sharing fragments and duplicate sets
+    public static int GENERATOR_THREADS = 0; // if > 0, these threads generate programs for NUM_THREADS threads to evaluate
+    public static final int PIPELINE_QUEUE_SIZE = 1024; // generated programs waiting to be evaluated
+    public static int RESOLVE_THREADS = 0; // if > 0, angelic conditions are resolved by these threads while the workers keep searching
+    public static final int MAX_RESOLVE_JOBS = 64; // resolution jobs queued or running at once; beyond this, workers resolve inline
+    public static final int RESOLVE_STOP_WAIT = 10; // seconds to wait for running resolution jobs once the search is over
+    public static Long SEED = null; // null for a fresh seed each run; the seed used is reported in the results
+    public static String FRAGMENT_EXCHANGE_DIR = null; // if set, processes on the same task share fragment programs through files here
+    public static long FRAGMENT_EXCHANGE_RUN = 0; // processes given the same run share all its fragments; 0 shares only those published after opening
+    public static final int FRAGMENT_EXCHANGE_SIZE = 16 * 1024*1024; // bytes per task
+    public static final double FRAGMENT_EXCHANGE_DELAY = 2.0; // seconds between imports
+    public static boolean PORTFOLIO = false; // race the configs in SearchConfig.portfolio() on each task, keeping the first solution
+    public static Engine ENGINE = Engine.TREE; // how candidate programs are run
+    public static boolean CHECK_ENGINE = false; // also run programs with the tree engine, reporting any difference (slow)
+    public static boolean ADAPTIVE_EXAMPLE_ORDER = true; // when an evaluation stops at the first failures, run the examples that fail the most candidates per second first
+    public static int MEMO_CACHE_SIZE = 1 << 16; // slots in each task's cache of pure component calls (rounded down to a power of 2), 0 to disable
 
 
     //////////////////////////
@@ -62,16 +88,15 @@ public class Settings {
     //////////////////////////
 
     /*
-     *  SyPet mode:
+     *  SyPet mode (on for tasks in the SYPET group, see SynthesisTask.isSyPetMode()):
      *     - turns off control structures, operator and literal expressions, and fields
      *     - turns on some extra runtime argument checks (see Interpreter.java)
      *     - turns on using the hardcoded polymorphism map
      */
-    public static boolean SYPET_MODE = false; // Set in Main.java
     public static final boolean HARDCODE_POLYMORPHISM = true; // Hardcode (as in SyPet) specific polymorphism rules
     @SuppressWarnings("serial")
-    public static Map<Class<?>, Set<Class<?>>> POLYMORPHISM_MAP = null;
-    public static void loadSyPetPolymorphismMap() {
+    public static volatile Map<Class<?>, Set<Class<?>>> POLYMORPHISM_MAP = null;
+    public static synchronized void loadSyPetPolymorphismMap() {
         if (POLYMORPHISM_MAP == null) {
             POLYMORPHISM_MAP = new HashMap<>() {{ // from SyPet's CONFIG.json
                 put(java.awt.Shape.class, new HashSet<>(Arrays.asList(java.awt.geom.Ellipse2D.class, java.awt.geom.Rectangle2D.class)));
@@ -104,6 +129,7 @@ public class Settings {
     ///////////////////////
 
     // Bounds time during program execution
+    public static int CALL_TIMEOUT = 10; // seconds a component call may run before its component is quarantined (see Watchdog), 0 to never stop calls
     public static final int MAX_LOOP_ITERATIONS = 100; // Max number of total loop iterations (across all loops)
     public static final int MAX_SINGLE_LOOP_ITERATIONS = 25; // Max number of consecutive iterations of a single loop
 
@@ -120,6 +146,7 @@ public class Settings {
     // Resolving angelic conditions
     public static final double MIN_RESOLVE_CONDITIONS_SEC = 0.2;
     public static final double MAX_RESOLVE_CONDITIONS_SEC = 10.0;
+    public static int RESOLVE_BATCH_SIZE = 1; // if > 1, candidate conditions are evaluated this many at a time, in parallel
     public static final int RESOLVE_CONDITION_STRICTNESS = 0;
 
 
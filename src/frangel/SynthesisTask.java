@@ -3,6 +3,7 @@ package frangel;
 import java.io.IOException;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
 
@@ -10,6 +11,8 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.ClassPath;
 import com.google.common.reflect.ClassPath.ClassInfo;
 
+import frangel.benchmarks.BenchmarkGroup;
+import frangel.interpreter.MemoCache;
 import frangel.model.FunctionData;
 import frangel.utils.Utils;
 
@@ -42,6 +45,14 @@ public class SynthesisTask {
 
     private boolean finalized;
     private String group;
+    private boolean sypetMode;
+    // Components that hung in a call while synthesizing this task (see Watchdog). The FunctionData objects are shared
+    // with other tasks (see ComponentIndex), so this is kept here rather than on them.
+    private final Set<FunctionData> quarantined = ConcurrentHashMap.newKeySet();
+    // Results of pure component calls while this task is searched, or null (see MemoCache). Sized when a search starts,
+    // and dropped when the last search running on the task ends.
+    private volatile MemoCache memoCache;
+    private int memoCacheUsers;
 
     public SynthesisTask() {
         name = "synthesisTask";
@@ -246,6 +257,7 @@ public class SynthesisTask {
 
     public SynthesisTask setGroup(String group) {
         this.group = group;
+        sypetMode = BenchmarkGroup.SYPET.toString().equals(group);
         return this;
     }
 
@@ -258,6 +270,8 @@ public class SynthesisTask {
         if (!finalized) {
             linkWithExamples();
             sanityCheck();
+            for (Example e : examples)
+                e.compileCheckers();
             inferRelevantTypes();
         }
         finalized = true;
@@ -525,4 +539,23 @@ public class SynthesisTask {
     public List<Tag> getTags() {
         return tags;
     }
+    // SyPet benchmarks run with a restricted search space (see Settings.java)
+    public boolean isSyPetMode() {
+        return sypetMode;
+    }
+    public Set<FunctionData> getQuarantined() {
+        return quarantined;
+    }
+
+    public synchronized void startMemoCache() {
+        if (memoCacheUsers++ == 0 && Settings.MEMO_CACHE_SIZE > 0)
+            memoCache = new MemoCache(Settings.MEMO_CACHE_SIZE);
+    }
+    public synchronized void stopMemoCache() {
+        if (--memoCacheUsers == 0)
+            memoCache = null;
+    }
+    public MemoCache getMemoCache() {
+        return memoCache;
+    }
 }
@@ -47,8 +47,8 @@ public class UnitTester {
             Example example = value;
             String exampleName = example.getNameWithIndex();
 
-            Object[] inputs = example.getInputs();
-            Object[] origInputs = example.getInputs();
+            Object[] inputs = example.copyInputs();
+            Object[] origInputs = example.copyInputs();
             Object output;
             try {
                 output = m.invoke(null, inputs);
@@ -0,0 +1,128 @@
+package frangel.experiments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import frangel.ComponentIndex;
+import frangel.Example;
+import frangel.JavaFunctionLoader;
+import frangel.SearchConfig;
+import frangel.SynthesisTask;
+import frangel.benchmarks.BenchmarkGroup;
+import frangel.interpreter.CodePath;
+import frangel.interpreter.Engine;
+import frangel.interpreter.EvaluationInfo;
+import frangel.interpreter.Interpreter;
+import frangel.interpreter.PreparedProgram;
+import frangel.model.Program;
+import frangel.model.generator.ProgramGenerator;
+import frangel.utils.ProgramUtils;
+import frangel.utils.RandomStream;
+
+// Runs random programs generated for the benchmark tasks through each engine, on every example, and compares the results
+// with the tree-walking interpreter's. Each run is compared twice: as the search runs it, and as if it had already
+// taken too long, so that the engine must stop it where the interpreter does. Exits with status 1 if any differ (see
+// "ant check-engines").
+// Arguments: [programs per task, default 200] [seed, default 0] [benchmark groups, default all]
+public class CheckEngines {
+    private static final Engine[] ENGINES = {Engine.COMPILED, Engine.CLOSURE};
+    private static final int MAX_PRINTED = 20;
+    private static final int NONDETERMINISM_CHECKS = 100; // tree runs before calling a difference a mismatch
+    private static final long NONDETERMINISM_DELAY = 1; // milliseconds between them
+    private static final int ANGELIC_PATHS = 4; // code paths tried per example for angelic programs
+
+    public static void main(String[] args) {
+        int programsPerTask = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        List<BenchmarkGroup> groups = new ArrayList<>();
+        for (int i = 2; i < args.length; i++)
+            groups.add(BenchmarkGroup.valueOf(args[i]));
+        if (groups.isEmpty())
+            for (BenchmarkGroup group : BenchmarkGroup.values())
+                groups.add(group);
+
+        long[] runs = new long[ENGINES.length], untranslated = new long[ENGINES.length], nondeterministic = new long[ENGINES.length],
+                mismatches = new long[ENGINES.length];
+        RandomStream rand = new RandomStream(seed);
+        for (BenchmarkGroup group : groups) {
+            for (SynthesisTask task : group.getTasks()) {
+                task.finalizeSetup();
+                ComponentIndex components = JavaFunctionLoader.load(task);
+                ProgramGenerator generator = new ProgramGenerator(task, components, SearchConfig.fromSettings(), rand.split());
+                for (int n = 0; n < programsPerTask; n++) {
+                    Program program = generator.generateProgram(rand.nextBoolean());
+                    boolean angelic = ProgramUtils.numAngelic(program) > 0;
+                    for (int e = 0; e < ENGINES.length; e++) {
+                        PreparedProgram prepared = Interpreter.translate(program, ENGINES[e]);
+                        if (prepared == null) {
+                            untranslated[e]++;
+                            continue;
+                        }
+                        for (int i = 0; i < task.numExamples(); i++) {
+                            for (int p = 0; p < (angelic ? ANGELIC_PATHS : 1); p++) {
+                                CodePath path = angelic ? randomPath(rand) : null;
+                                Example example = task.getExample(i);
+                                EvaluationInfo info = Interpreter.runProgram(prepared, example, path, false);
+                                runs[e]++;
+                                PreparedProgram tree = Interpreter.translate(program, Engine.TREE);
+                                String difference = Interpreter.compareWithTree(prepared, example, path, info);
+                                if (difference != null) {
+                                    EvaluationInfo first = Interpreter.runProgram(tree, example, path, false);
+                                    if (isNondeterministic(() -> Interpreter.compareWithTree(prepared, example, path, info),
+                                            () -> Interpreter.compareWithTree(tree, example, path, first))) {
+                                        nondeterministic[e]++;
+                                        continue;
+                                    }
+                                } else {
+                                    difference = Interpreter.compareTimedOut(prepared, example, path);
+                                    if (difference != null && isNondeterministic(() -> Interpreter.compareTimedOut(prepared, example, path),
+                                            () -> Interpreter.compareTimedOut(tree, example, path))) {
+                                        nondeterministic[e]++;
+                                        continue;
+                                    }
+                                }
+                                if (difference != null && mismatches[e]++ < MAX_PRINTED)
+                                    System.err.println(group + " " + task.getName() + ", engine " + ENGINES[e] + " " + difference);
+                            }
+                        }
+                    }
+                }
+                JavaFunctionLoader.release(components);
+            }
+        }
+
+        long total = 0;
+        for (int e = 0; e < ENGINES.length; e++) {
+            System.out.println(ENGINES[e] + ": " + runs[e] + " runs compared, " + untranslated[e] + " programs left to "
+                    + Engine.TREE + ", " + nondeterministic[e] + " nondeterministic, " + mismatches[e] + " mismatches");
+            total += mismatches[e];
+        }
+        System.exit(total == 0 ? 0 : 1);
+    }
+
+    // Whether the difference may come from the program rather than the engine: of many tree runs some time apart, one
+    // reproduces the engine's results, or one differs from the tree's own earlier results (e.g., the program reads the
+    // clock or shuffles). Each supplier makes one such comparison.
+    private static boolean isNondeterministic(Supplier<String> engineDifference, Supplier<String> treeDifference) {
+        for (int i = 0; i < NONDETERMINISM_CHECKS; i++) {
+            try {
+                Thread.sleep(NONDETERMINISM_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (engineDifference.get() == null || treeDifference.get() != null)
+                return true;
+        }
+        return false;
+    }
+
+    // Angelic programs take the conditions from the path in order, and fail if it runs out
+    private static CodePath randomPath(RandomStream rand) {
+        CodePath path = new CodePath();
+        int length = rand.nextInt(0, 9);
+        for (int i = 0; i < length; i++)
+            path.add(rand.nextBoolean());
+        return path;
+    }
+}
@@ -0,0 +1,33 @@
+package frangel.interpreter;
+
+import java.util.Arrays;
+
+// Argument arrays for component calls, reused within a run. An argument can itself be a call with as many arguments, so
+// each arity has a stack of arrays. A call that throws doesn't release its array, but it ends the run.
+final class ArgumentArrays {
+    private static final Object[] NO_ARGUMENTS = {};
+
+    private Object[][][] arrays = new Object[0][][];
+    private int[] depths = new int[0];
+
+    Object[] take(int n) {
+        if (n == 0)
+            return NO_ARGUMENTS;
+        if (n >= arrays.length) {
+            arrays = Arrays.copyOf(arrays, n + 1);
+            depths = Arrays.copyOf(depths, n + 1);
+        }
+        Object[][] stack = arrays[n];
+        int depth = depths[n]++;
+        if (stack == null || depth == stack.length)
+            arrays[n] = stack = Arrays.copyOf(stack == null ? new Object[0][] : stack, depth + 2);
+        if (stack[depth] == null)
+            stack[depth] = new Object[n];
+        return stack[depth];
+    }
+
+    void release(Object[] args) {
+        if (args.length > 0)
+            depths[args.length]--;
+    }
+}
@@ -0,0 +1,72 @@
+package frangel.interpreter;
+
+import frangel.utils.Utils;
+
+// States saved between the top-level statements of one program's runs on one example, so that a run along another
+// angelic code path can resume from the last point where the two paths agree instead of starting over (see
+// FrAngel.angelicCheck()). A state is only saved if the variables and inputs all hold immutable values, since a later
+// run would otherwise see changes made after the save. So programs that work on mutable values are replayed from the
+// start, as are programs prepared by other engines than the tree-walking one.
+public final class Checkpoints {
+    static final class Checkpoint {
+        final int statement; // the top-level statement to resume at
+        final CodePath codePath; // angelic condition values taken before it
+        final Object[] variables; // see Environment.snapshot()
+        final int loopIterations;
+        final Object[] input;
+
+        private Checkpoint(int statement, CodePath codePath, Object[] variables, int loopIterations, Object[] input) {
+            this.statement = statement;
+            this.codePath = codePath;
+            this.variables = variables;
+            this.loopIterations = loopIterations;
+            this.input = input;
+        }
+    }
+
+    // A trie over code paths
+    private static class Node {
+        Node child0, child1;
+        Checkpoint checkpoint;
+    }
+
+    private final Node root = new Node();
+
+    // The latest checkpoint that a run along the path would pass through, or null. Conditions past the end of the
+    // path are false (see EvaluationInfo.getNextAngelicConditionValue()).
+    Checkpoint find(CodePath path) {
+        Node cur = root;
+        Checkpoint latest = root.checkpoint;
+        for (int i = 0; ; i++) {
+            cur = i < path.length() && path.get(i) ? cur.child1 : cur.child0;
+            if (cur == null)
+                return latest;
+            if (cur.checkpoint != null)
+                latest = cur.checkpoint;
+        }
+    }
+
+    void save(int statement, Object[] input, Environment env, EvaluationInfo info) {
+        CodePath path = info.getActualCodePath();
+        Node cur = root;
+        for (int i = 0; i < path.length(); i++) {
+            Node next = path.get(i) ? cur.child1 : cur.child0;
+            if (next == null) {
+                next = new Node();
+                if (path.get(i))
+                    cur.child1 = next;
+                else
+                    cur.child0 = next;
+            }
+            cur = next;
+        }
+        if (cur.checkpoint != null && cur.checkpoint.statement >= statement)
+            return; // a run along the same path got at least as far
+        for (Object o : input)
+            if (!Utils.isImmutable(o))
+                return;
+        Object[] variables = env.snapshot();
+        if (variables != null)
+            cur.checkpoint = new Checkpoint(statement, path.copy(), variables, info.getLoopIterations(), input);
+    }
+}
@@ -0,0 +1,354 @@
+package frangel.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough of a class file writer for ProgramCompiler: a constant pool, and methods written instruction by
+// instruction, keeping track of the operand stack depth. The class files are version 49 (Java 5), which the JVM
+// still verifies by type inference, so no stack map frames are needed.
+class ClassAssembler {
+    static final int ACONST_NULL = 0x01, ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13,
+            ILOAD = 0x15, LLOAD = 0x16, ALOAD = 0x19, AALOAD = 0x32, ISTORE = 0x36, ASTORE = 0x3a, AASTORE = 0x53,
+            POP = 0x57, DUP = 0x59, IADD = 0x60, DADD = 0x63, ISUB = 0x64, DSUB = 0x67, IMUL = 0x68, DMUL = 0x6b,
+            IDIV = 0x6c, DDIV = 0x6f, IREM = 0x70, IXOR = 0x82, IINC = 0x84, DCMPG = 0x98,
+            IFEQ = 0x99, IFNE = 0x9a, IFGE = 0x9c, IFGT = 0x9d, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3,
+            IF_ACMPEQ = 0xa5, IF_ACMPNE = 0xa6, GOTO = 0xa7, ARETURN = 0xb0, RETURN = 0xb1,
+            GETSTATIC = 0xb2, GETFIELD = 0xb4, INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8,
+            INVOKEINTERFACE = 0xb9, NEW = 0xbb, ANEWARRAY = 0xbd, ATHROW = 0xbf, CHECKCAST = 0xc0, IFNONNULL = 0xc7;
+
+    private static final int MAX_CODE = 65535;
+
+    @SuppressWarnings("serial")
+    static class TooLargeException extends Exception {
+        TooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolSize = 1;
+    private final int thisClass, superClass, itf;
+    private final List<Method> methods = new ArrayList<>();
+
+    ClassAssembler(String name, String superName, String interfaceName) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        itf = classRef(interfaceName);
+    }
+
+    Method method(int access, String name, String descriptor, int argSlots) {
+        Method m = new Method(access, utf8(name), utf8(descriptor), argSlots);
+        methods.add(m);
+        return m;
+    }
+
+    byte[] toByteArray() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int code = utf8("Code");
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(49);
+        out.writeShort(poolSize);
+        pool.flush();
+        poolBytes.writeTo(out);
+        out.writeShort(0x0031); // public final super
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(itf);
+        out.writeShort(0); // fields
+        out.writeShort(methods.size());
+        for (Method m : methods) {
+            out.writeShort(m.access);
+            out.writeShort(m.name);
+            out.writeShort(m.descriptor);
+            out.writeShort(1);
+            out.writeShort(code);
+            out.writeInt(12 + m.length + 8 * m.handlers.size());
+            out.writeShort(m.maxStack);
+            out.writeShort(m.maxLocals);
+            out.writeInt(m.length);
+            out.write(m.code, 0, m.length);
+            out.writeShort(m.handlers.size());
+            for (Label[] h : m.handlers) {
+                out.writeShort(h[0].position);
+                out.writeShort(h[1].position);
+                out.writeShort(h[2].position);
+                out.writeShort(0); // any Throwable
+            }
+            out.writeShort(0); // attributes
+        }
+        out.writeShort(0); // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Internal name, as used by CONSTANT_Class: java/lang/String, or [I for arrays
+    static String internalName(Class<?> c) {
+        return c.isArray() ? descriptor(c) : c.getName().replace('.', '/');
+    }
+
+    static String descriptor(Class<?> c) {
+        if (c.isArray())
+            return c.getName().replace('.', '/');
+        if (c == int.class) return "I";
+        if (c == long.class) return "J";
+        if (c == double.class) return "D";
+        if (c == float.class) return "F";
+        if (c == boolean.class) return "Z";
+        if (c == char.class) return "C";
+        if (c == short.class) return "S";
+        if (c == byte.class) return "B";
+        if (c == void.class) return "V";
+        return "L" + internalName(c) + ";";
+    }
+
+    static String methodDescriptor(Class<?> returnType, Class<?>... argTypes) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> c : argTypes)
+            sb.append(descriptor(c));
+        return sb.append(')').append(descriptor(returnType)).toString();
+    }
+
+    // Number of stack slots taken by the arguments and by the return value of a method descriptor
+    private static int[] slots(String descriptor) {
+        int args = 0, i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            args += (c == 'J' || c == 'D') ? 2 : 1;
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            i++;
+        }
+        char r = descriptor.charAt(i + 1);
+        return new int[] {args, r == 'V' ? 0 : (r == 'J' || r == 'D') ? 2 : 1};
+    }
+
+    private int entry(String key, int tag, Object value, int size) {
+        Integer index = poolIndex.get(key);
+        if (index != null)
+            return index;
+        try {
+            pool.writeByte(tag);
+            switch (tag) {
+            case 1:
+                pool.writeUTF((String) value);
+                break;
+            case 3:
+                pool.writeInt((Integer) value);
+                break;
+            default:
+                int[] refs = (int[]) value;
+                for (int ref : refs)
+                    pool.writeShort(ref);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // can't happen for a ByteArrayOutputStream
+        }
+        index = poolSize;
+        poolSize += size;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private int utf8(String s) {
+        return entry("U" + s, 1, s, 1);
+    }
+    private int intConstant(int i) {
+        return entry("I" + i, 3, i, 1);
+    }
+    private int classRef(String internalName) {
+        return entry("C" + internalName, 7, new int[] {utf8(internalName)}, 1);
+    }
+    private int stringConstant(String s) {
+        return entry("S" + s, 8, new int[] {utf8(s)}, 1);
+    }
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int nameAndType = entry("N" + name + " " + descriptor, 12, new int[] {utf8(name), utf8(descriptor)}, 1);
+        return entry(tag + owner + "." + name + " " + descriptor, tag, new int[] {classRef(owner), nameAndType}, 1);
+    }
+
+    static class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>(); // positions of jump instructions waiting for this label
+    }
+
+    class Method {
+        private final int access, name, descriptor;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0, maxStack = 0, maxLocals;
+        private boolean reachable = true;
+        private boolean tooLarge = false;
+        private final List<Label[]> handlers = new ArrayList<>(); // start, end, and handler of each try block
+
+        private Method(int access, int name, int descriptor, int argSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            maxLocals = argSlots;
+        }
+
+        // Checked once at the end, so code generation doesn't need to care
+        void checkSize() throws TooLargeException {
+            if (tooLarge || length > MAX_CODE || maxLocals > 65535 || poolSize > 65535)
+                throw new TooLargeException();
+        }
+
+        int newLocal(int size) {
+            maxLocals += size;
+            return maxLocals - size;
+        }
+
+        private void put(int b) {
+            if (length == code.length)
+                code = java.util.Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+        private void put2(int s) {
+            put(s >> 8);
+            put(s);
+        }
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        void op(int opcode, int stackDelta) {
+            put(opcode);
+            adjust(stackDelta);
+            if (opcode == ATHROW || opcode == ARETURN || opcode == RETURN || opcode == GOTO)
+                reachable = false;
+        }
+
+        void pushInt(int i) {
+            if (i >= -1 && i <= 5)
+                put(ICONST_0 + i);
+            else if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+                put(BIPUSH);
+                put(i);
+            } else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+                put(SIPUSH);
+                put2(i);
+            } else {
+                put(LDC_W);
+                put2(intConstant(i));
+            }
+            adjust(1);
+        }
+
+        void pushString(String s) {
+            put(LDC_W);
+            put2(stringConstant(s));
+            adjust(1);
+        }
+
+        void local(int opcode, int slot) {
+            if (slot > 255) {
+                put(0xc4); // wide
+                put(opcode);
+                put2(slot);
+            } else {
+                put(opcode);
+                put(slot);
+            }
+            adjust(opcode == ILOAD || opcode == ALOAD ? 1 : opcode == LLOAD ? 2 : -1);
+        }
+
+        void iinc(int slot, int amount) {
+            if (slot > 255) {
+                put(0xc4);
+                put(IINC);
+                put2(slot);
+                put2(amount);
+            } else {
+                put(IINC);
+                put(slot);
+                put(amount);
+            }
+        }
+
+        void type(int opcode, Class<?> c) {
+            put(opcode);
+            put2(classRef(internalName(c)));
+            adjust(opcode == NEW ? 1 : 0);
+        }
+
+        void field(int opcode, Class<?> owner, String name, Class<?> type) {
+            put(opcode);
+            put2(memberRef(9, internalName(owner), name, descriptor(type)));
+            int size = (type == long.class || type == double.class) ? 2 : 1;
+            adjust(opcode == GETSTATIC ? size : size - 1);
+        }
+
+        void invoke(int opcode, Class<?> owner, String name, String descriptor) {
+            boolean isInterface = opcode == INVOKEINTERFACE;
+            int[] slots = slots(descriptor);
+            put(opcode);
+            put2(memberRef(isInterface ? 11 : 10, internalName(owner), name, descriptor));
+            if (isInterface) {
+                put(slots[0] + 1);
+                put(0);
+            }
+            adjust(slots[1] - slots[0] - (opcode == INVOKESTATIC ? 0 : 1));
+        }
+
+        void invokeStatic(Class<?> owner, String name, Class<?> returnType, Class<?>... argTypes) {
+            invoke(INVOKESTATIC, owner, name, methodDescriptor(returnType, argTypes));
+        }
+
+        void jump(int opcode, Label target) {
+            int at = length;
+            put(opcode);
+            if (opcode == IF_ICMPGE || opcode == IF_ICMPGT || opcode == IF_ACMPEQ || opcode == IF_ACMPNE)
+                adjust(-2);
+            else if (opcode != GOTO)
+                adjust(-1);
+            target.stack = stack;
+            if (target.position >= 0) {
+                put2(offset(target.position - at));
+            } else {
+                target.jumps.add(at);
+                put2(0);
+            }
+            if (opcode == GOTO)
+                reachable = false;
+        }
+
+        // Anything thrown from start up to end goes to the handler, which starts with the exception on the stack
+        void tryCatch(Label start, Label end, Label handler) {
+            handler.stack = 1;
+            handlers.add(new Label[] {start, end, handler});
+        }
+
+        void place(Label label) {
+            label.position = length;
+            if (!reachable && label.stack >= 0)
+                stack = label.stack;
+            reachable = true;
+            for (int at : label.jumps) {
+                int offset = offset(length - at);
+                code[at + 1] = (byte) (offset >> 8);
+                code[at + 2] = (byte) offset;
+            }
+            label.jumps.clear();
+        }
+
+        private int offset(int offset) {
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                tooLarge = true;
+            return offset;
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package frangel.interpreter;
+
+import java.lang.reflect.Array;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import frangel.model.FunctionData;
+import frangel.model.Program;
+import frangel.model.expression.*;
+import frangel.model.statement.*;
+
+// Translates a program once into a tree of closures, each specialized for its job: adding ints, comparing doubles,
+// reading variable slot 3, calling one particular component, and so on. Running the tree then skips the interpreter's
+// dispatch on node classes, operators and operand types, and its variable lookups by name. It keeps variables the
+// same way as ProgramCompiler (see CompiledProgram), so runs give the same EvaluationInfo as the interpreter.
+final class ClosureCompiler {
+    private static class Frame {
+        final Object[] variables;
+        final EvaluationInfo info;
+        final ArgumentArrays arguments = new ArgumentArrays();
+
+        Frame(Object[] variables, EvaluationInfo info) {
+            this.variables = variables;
+            this.info = info;
+        }
+    }
+
+    private interface Exp {
+        Object eval(Frame f) throws Exception;
+
+        // Typed parents call these instead of unboxing eval(). Nodes computing a primitive override them.
+        default int evalInt(Frame f) throws Exception {
+            return (int) eval(f);
+        }
+
+        default double evalDouble(Frame f) throws Exception {
+            return (double) eval(f);
+        }
+
+        default boolean evalBoolean(Frame f) throws Exception {
+            return (boolean) eval(f);
+        }
+    }
+
+    // Nodes computing a primitive, which is only boxed if an untyped parent calls eval()
+    private interface IntExp extends Exp {
+        @Override
+        int evalInt(Frame f) throws Exception;
+
+        @Override
+        default Object eval(Frame f) throws Exception {
+            return evalInt(f);
+        }
+    }
+
+    private interface DoubleExp extends Exp {
+        @Override
+        double evalDouble(Frame f) throws Exception;
+
+        @Override
+        default Object eval(Frame f) throws Exception {
+            return evalDouble(f);
+        }
+    }
+
+    private interface BooleanExp extends Exp {
+        @Override
+        boolean evalBoolean(Frame f) throws Exception;
+
+        @Override
+        default Object eval(Frame f) throws Exception {
+            return evalBoolean(f);
+        }
+    }
+
+    private interface Stmt {
+        void exec(Frame f) throws Exception;
+    }
+
+    private interface BinaryOp {
+        Object apply(Object left, Object right) throws Exception;
+    }
+
+    private static final Exp NULL = f -> null;
+
+    private final Program program;
+    private final boolean sypetMode;
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+    private boolean initializing; // local variable initial values can't refer to variables
+
+    private ClosureCompiler(Program program) {
+        this.program = program;
+        sypetMode = program.task.isSyPetMode();
+    }
+
+    // Returns null if the program should be run by the interpreter instead
+    static PreparedProgram compile(Program program) {
+        ClosureCompiler compiler = new ClosureCompiler(program);
+        try {
+            CompiledSupport.Body body = compiler.body();
+            int[] argSlots = new int[program.argNames.length];
+            for (int i = 0; i < argSlots.length; i++)
+                argSlots[i] = compiler.slots.get(program.argNames[i]);
+            return new CompiledProgram(program, body, null, compiler.slots.size(), argSlots);
+        } catch (ProgramCompiler.UnsupportedException e) {
+            return null;
+        }
+    }
+
+    private CompiledSupport.Body body() throws ProgramCompiler.UnsupportedException {
+        for (String arg : program.argNames)
+            slot(arg);
+        initializing = true;
+        Map<String, Expression> localVars = program.getLocalVars();
+        Stmt[] init = new Stmt[localVars.size() + program.getLoopVars().size()];
+        int i = 0;
+        for (Map.Entry<String, Expression> pair : localVars.entrySet())
+            init[i++] = assignment(pair.getKey(), pair.getValue());
+        initializing = false;
+        for (String var : program.getLoopVars()) {
+            int slot = slot(var);
+            init[i++] = f -> f.variables[slot] = 0;
+        }
+
+        Stmt[] statements = block(program.getStatements());
+        Exp returnVal = null;
+        if (program.returns()) {
+            if (program.getReturnVal() == null)
+                throw new ProgramCompiler.UnsupportedException();
+            returnVal = expression(program.getReturnVal());
+        }
+        Exp returnValue = returnVal;
+        return (constants, variables, info) -> {
+            Frame f = new Frame(variables, info);
+            run(init, f);
+            run(statements, f);
+            return returnValue == null ? null : returnValue.eval(f);
+        };
+    }
+
+    private int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    private static void run(Stmt[] block, Frame f) throws Exception {
+        for (Stmt s : block)
+            s.exec(f);
+    }
+
+    private Stmt[] block(List<Statement> list) throws ProgramCompiler.UnsupportedException {
+        Stmt[] block = new Stmt[list.size()];
+        for (int i = 0; i < block.length; i++) {
+            Stmt s = statement(list.get(i));
+            block[i] = f -> {
+                f.info.step(1);
+                s.exec(f);
+            };
+        }
+        return block;
+    }
+
+    private Stmt assignment(String name, Expression value) throws ProgramCompiler.UnsupportedException {
+        int slot = slot(name);
+        Exp exp = expression(value);
+        return f -> f.variables[slot] = exp.eval(f);
+    }
+
+    private Exp condition(boolean angelic, Expression condition, String statement) throws ProgramCompiler.UnsupportedException {
+        if (angelic)
+            return (BooleanExp) f -> CompiledSupport.angelicCondition(f.info, statement);
+        return expression(condition);
+    }
+
+    private Stmt statement(Statement s) throws ProgramCompiler.UnsupportedException {
+        if (s instanceof VarAssignment) {
+            VarAssignment assignment = (VarAssignment) s;
+            return assignment(assignment.var.getName(), assignment.getValue());
+        } else if (s instanceof FuncStatement) {
+            Exp func = function(((FuncStatement) s).func);
+            return f -> func.eval(f);
+        } else if (s instanceof IfStatement) {
+            IfStatement ifStatement = (IfStatement) s;
+            Exp condition = condition(ifStatement.isAngelic(), ifStatement.getCondition(), "if statement");
+            Stmt[] body = block(ifStatement.body);
+            return f -> {
+                if (condition.evalBoolean(f))
+                    run(body, f);
+            };
+        } else if (s instanceof ForLoop) {
+            ForLoop loop = (ForLoop) s;
+            int slot = slot(loop.getVarName());
+            Exp condition = condition(loop.isAngelic(), loop.getCondition(), "for loop");
+            Stmt[] body = block(loop.body);
+            return f -> {
+                int iterations = 0;
+                f.variables[slot] = 0;
+                while (true) {
+                    CompiledSupport.checkLoop(f.info, iterations++, f.variables);
+                    if (!condition.evalBoolean(f))
+                        break;
+                    run(body, f);
+                    f.variables[slot] = (int) f.variables[slot] + 1;
+                }
+            };
+        } else if (s instanceof ForEachLoop) {
+            return forEachLoop((ForEachLoop) s);
+        } else {
+            String message = "evaluateStatement, unknown statement class: " + s.getClass();
+            return f -> CompiledSupport.fail(message);
+        }
+    }
+
+    private Stmt forEachLoop(ForEachLoop s) throws ProgramCompiler.UnsupportedException {
+        if (s.container.getType() == null)
+            throw new ProgramCompiler.UnsupportedException();
+        Exp container = expression(s.container);
+        int slot = slot(s.getVarName());
+        Stmt[] body = block(s.body);
+        if (s.container.getType().isArray()) {
+            return f -> {
+                Object array = container.eval(f);
+                if (f.variables[slot] != CompiledSupport.UNDEFINED)
+                    CompiledSupport.elementInScope();
+                int len = Array.getLength(array);
+                int iterations = 0;
+                for (int i = 0; ; i++) {
+                    CompiledSupport.checkLoop(f.info, iterations++, f.variables);
+                    if (i >= len)
+                        break;
+                    f.variables[slot] = Array.get(array, i);
+                    run(body, f);
+                }
+                f.variables[slot] = CompiledSupport.UNDEFINED;
+            };
+        }
+        return f -> {
+            Object iterable = container.eval(f);
+            if (f.variables[slot] != CompiledSupport.UNDEFINED)
+                CompiledSupport.elementInScope();
+            Iterator<?> it = ((Iterable<?>) iterable).iterator();
+            int iterations = 0;
+            while (true) {
+                CompiledSupport.checkLoop(f.info, iterations++, f.variables);
+                if (!it.hasNext())
+                    break;
+                f.variables[slot] = it.next();
+                run(body, f);
+            }
+            f.variables[slot] = CompiledSupport.UNDEFINED;
+        };
+    }
+
+    // Each statement and expression counts a step when it runs, as in the interpreter (see CompiledSupport.step()). The
+    // wrapper keeps the node's type, so typed parents still avoid boxing.
+    private Exp expression(Expression exp) throws ProgramCompiler.UnsupportedException {
+        Exp e = node(exp);
+        if (e instanceof IntExp)
+            return (IntExp) f -> {
+                f.info.step(1);
+                return e.evalInt(f);
+            };
+        if (e instanceof DoubleExp)
+            return (DoubleExp) f -> {
+                f.info.step(1);
+                return e.evalDouble(f);
+            };
+        if (e instanceof BooleanExp)
+            return (BooleanExp) f -> {
+                f.info.step(1);
+                return e.evalBoolean(f);
+            };
+        return f -> {
+            f.info.step(1);
+            return e.eval(f);
+        };
+    }
+
+    private Exp node(Expression exp) throws ProgramCompiler.UnsupportedException {
+        if (exp instanceof LiteralExpression) {
+            Object literal = ((LiteralExpression) exp).literal;
+            return f -> literal;
+        } else if (exp instanceof VarExpression) {
+            String name = ((VarExpression) exp).getName();
+            if (initializing)
+                return f -> {
+                    CompiledSupport.undefined();
+                    return null;
+                };
+            int slot = slot(name);
+            return f -> {
+                Object value = f.variables[slot];
+                if (value == CompiledSupport.UNDEFINED)
+                    CompiledSupport.undefined();
+                return value;
+            };
+        } else if (exp instanceof OpExpression) {
+            return operator((OpExpression) exp);
+        } else if (exp instanceof FuncExpression) {
+            return function((FuncExpression) exp);
+        } else {
+            String message = "evaluateExpression, unknown expression class: " + exp.getClass();
+            return f -> CompiledSupport.fail(message);
+        }
+    }
+
+    // Both operands are evaluated first, as in the interpreter (so && and || don't short-circuit evaluation). Operators
+    // on primitives get typed nodes instead (see operator()).
+    private static Exp binary(Exp left, Exp right, BinaryOp op) {
+        return f -> op.apply(left.eval(f), right.eval(f));
+    }
+
+    private static BinaryOp fail(String message) {
+        return (l, r) -> CompiledSupport.fail(message);
+    }
+
+    private Exp operator(OpExpression exp) throws ProgramCompiler.UnsupportedException {
+        OpExpression.Op op = exp.op();
+        Exp left = exp.getLeft() == null ? NULL : expression(exp.getLeft());
+        Exp right = exp.getRight() == null ? NULL : expression(exp.getRight());
+        Class<?> leftType = exp.getLeft() == null ? null : exp.getLeft().getType();
+        Class<?> rightType = exp.getRight() == null ? null : exp.getRight().getType();
+        if (leftType == null && op != OpExpression.Op.NOT)
+            throw new ProgramCompiler.UnsupportedException();
+        boolean isInt = int.class.equals(leftType), isDouble = double.class.equals(leftType);
+
+        switch (op) {
+        case AND: // & and | evaluate both sides, like binary()
+            return (BooleanExp) f -> left.evalBoolean(f) & right.evalBoolean(f);
+        case OR:
+            return (BooleanExp) f -> left.evalBoolean(f) | right.evalBoolean(f);
+        case NOT:
+            return binary(left, right, (l, r) -> !(boolean) r);
+        case EQUALS:
+            if (leftType.equals(rightType)) {
+                if (isInt)
+                    return (BooleanExp) f -> left.evalInt(f) == right.evalInt(f);
+                if (isDouble) // same as Double.equals()
+                    return (BooleanExp) f -> Double.doubleToLongBits(left.evalDouble(f)) == Double.doubleToLongBits(right.evalDouble(f));
+                if (leftType.equals(boolean.class))
+                    return (BooleanExp) f -> left.evalBoolean(f) == right.evalBoolean(f);
+            }
+            if (leftType.isPrimitive())
+                return binary(left, right, (l, r) -> l.equals(r));
+            return binary(left, right, (l, r) -> l == r);
+        case LEQ:
+            if (isInt)
+                return (BooleanExp) f -> left.evalInt(f) <= right.evalInt(f);
+            if (isDouble)
+                return (BooleanExp) f -> left.evalDouble(f) <= right.evalDouble(f);
+            return binary(left, right, fail("evaluateOperator, case LEQ, left type: " + leftType));
+        case LESS:
+            if (isInt)
+                return (BooleanExp) f -> left.evalInt(f) < right.evalInt(f);
+            if (isDouble)
+                return (BooleanExp) f -> left.evalDouble(f) < right.evalDouble(f);
+            return binary(left, right, fail("evaluateOperator, case LESS, left type: " + leftType));
+        case PLUS:
+            if (isInt)
+                return (IntExp) f -> left.evalInt(f) + right.evalInt(f);
+            if (isDouble)
+                return (DoubleExp) f -> left.evalDouble(f) + right.evalDouble(f);
+            if (rightType == null)
+                throw new ProgramCompiler.UnsupportedException();
+            if (leftType.equals(String.class) || rightType.equals(String.class) || leftType.equals(Object.class) || rightType.equals(Object.class)) {
+                if (exp.getLeft() instanceof LiteralExpression && exp.getRight() instanceof LiteralExpression
+                        && ((LiteralExpression) exp.getLeft()).literal == null && ((LiteralExpression) exp.getRight()).literal == null)
+                    return binary(left, right, (l, r) -> CompiledSupport.addNullLiterals());
+                return binary(left, right, CompiledSupport::concat);
+            }
+            return binary(left, right, fail("evaluateOperator, case PLUS, left type " + leftType));
+        case MINUS:
+            if (isInt)
+                return (IntExp) f -> left.evalInt(f) - right.evalInt(f);
+            if (isDouble)
+                return (DoubleExp) f -> left.evalDouble(f) - right.evalDouble(f);
+            return binary(left, right, fail("evaluateOperator, case MINUS, left type: " + leftType));
+        case TIMES:
+            if (isInt)
+                return (IntExp) f -> left.evalInt(f) * right.evalInt(f);
+            if (isDouble)
+                return (DoubleExp) f -> left.evalDouble(f) * right.evalDouble(f);
+            return binary(left, right, fail("evaluateOperator, case TIMES, left type: " + leftType));
+        case DIV:
+            if (isInt)
+                return (IntExp) f -> left.evalInt(f) / right.evalInt(f);
+            if (isDouble)
+                return (DoubleExp) f -> left.evalDouble(f) / right.evalDouble(f);
+            return binary(left, right, fail("evaluateOperator, case DIV, left type: " + leftType));
+        case MOD:
+            if (isInt)
+                return (IntExp) f -> left.evalInt(f) % right.evalInt(f);
+            return binary(left, right, fail("evaluateOperator, case MOD, left type: " + leftType));
+        default:
+            return binary(left, right, fail("evaluateOperator, unknown op case: " + op));
+        }
+    }
+
+    private Exp function(FuncExpression exp) throws ProgramCompiler.UnsupportedException {
+        FunctionData data = exp.data;
+        Exp[] args = new Exp[exp.args.length];
+        for (int i = 0; i < args.length; i++)
+            args[i] = expression(exp.args[i]);
+        boolean sypetMode = this.sypetMode;
+        if (data.isStatic) {
+            return f -> {
+                Object[] values = f.arguments.take(args.length);
+                for (int i = 0; i < values.length; i++)
+                    values[i] = args[i].eval(f);
+                Object returnVal = Interpreter.invoke(f.info, data, null, values, sypetMode);
+                f.arguments.release(values);
+                return returnVal;
+            };
+        }
+        Exp callee = expression(exp.callee());
+        return f -> {
+            Object[] values = f.arguments.take(args.length);
+            for (int i = 0; i < values.length; i++)
+                values[i] = args[i].eval(f);
+            Object callerObj = callee.eval(f);
+            if (callerObj == null)
+                throw IncompleteRunException.NULL_CALLEE;
+            Object returnVal = Interpreter.invoke(f.info, data, callerObj, values, sypetMode);
+            f.arguments.release(values);
+            return returnVal;
+        };
+    }
+}
@@ -0,0 +1,97 @@
+package frangel.interpreter;
+
+import java.util.Arrays;
+
+// The values taken by angelic conditions during a run, in order, e.g., 10100 (1 = true). The first 64 bits live in a
+// long, and longer paths spill into an array. Bits past the length are always 0, so equal paths have equal words.
+public final class CodePath {
+    private long bits;
+    private long[] more; // bit i (i >= 64) is in more[i / 64 - 1]
+    private int length;
+
+    public CodePath() {
+        bits = 0;
+        more = null;
+        length = 0;
+    }
+
+    private CodePath(CodePath other) {
+        bits = other.bits;
+        more = other.more == null || other.length <= 64 ? null : Arrays.copyOf(other.more, (other.length - 1) / 64);
+        length = other.length;
+    }
+
+    public CodePath copy() {
+        return new CodePath(this);
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean get(int i) {
+        long word = i < 64 ? bits : more[i / 64 - 1];
+        return (word & (1L << i)) != 0; // shifts only use the low 6 bits of i
+    }
+
+    public void add(boolean bit) {
+        int i = length++;
+        if (i < 64) {
+            if (bit)
+                bits |= 1L << i;
+            return;
+        }
+        int w = i / 64 - 1;
+        if (more == null)
+            more = new long[2];
+        else if (w >= more.length)
+            more = Arrays.copyOf(more, more.length * 2);
+        if (bit)
+            more[w] |= 1L << i;
+    }
+
+    public void set(int i, boolean bit) {
+        if (i < 64)
+            bits = bit ? bits | (1L << i) : bits & ~(1L << i);
+        else
+            more[i / 64 - 1] = bit ? more[i / 64 - 1] | (1L << i) : more[i / 64 - 1] & ~(1L << i);
+    }
+
+    // Drops bits from the end
+    public void setLength(int newLength) {
+        for (int i = newLength; i < length; i++)
+            set(i, false);
+        length = Math.min(length, newLength);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof CodePath))
+            return false;
+        CodePath other = (CodePath) o;
+        if (length != other.length || bits != other.bits)
+            return false;
+        for (int w = 0; w < (length - 1) / 64; w++)
+            if (more[w] != other.more[w])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = bits * 31 + length;
+        for (int w = 0; w < (length - 1) / 64; w++)
+            h = h * 31 + more[w];
+        return Long.hashCode(h);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++)
+            chars[i] = get(i) ? '1' : '0';
+        return new String(chars);
+    }
+}
@@ -0,0 +1,51 @@
+package frangel.interpreter;
+
+import java.util.Arrays;
+
+import frangel.model.Program;
+
+// A program translated by ProgramCompiler or ClosureCompiler. Both keep variables in an array with one slot per name,
+// holding CompiledSupport.UNDEFINED while the variable isn't in scope, and both are run from here.
+class CompiledProgram extends PreparedProgram {
+    private final CompiledSupport.Body body;
+    private final Object[] constants;
+    private final int numVariables;
+    private final int[] argSlots;
+
+    CompiledProgram(Program program, CompiledSupport.Body body, Object[] constants, int numVariables, int[] argSlots) {
+        super(program);
+        this.body = body;
+        this.constants = constants;
+        this.numVariables = numVariables;
+        this.argSlots = argSlots;
+    }
+
+    @Override
+    EvaluationInfo evaluate(Object[] arguments, CodePath angelicCodePath, long start) {
+        EvaluationInfo info = new EvaluationInfo(angelicCodePath, start);
+        Object[] variables = new Object[numVariables];
+        Arrays.fill(variables, CompiledSupport.UNDEFINED);
+        for (int i = 0; i < argSlots.length; i++)
+            variables[argSlots[i]] = arguments[i];
+
+        Failure failure = null;
+        try {
+            Object returnValue = body.run(constants, variables, info);
+            if (program.returns())
+                info.setReturnValue(returnValue);
+        } catch (EvaluationException e) {
+            // Something bad happened
+            failure = Failure.INTERPRETER_ERROR;
+            System.err.println("Program had error:\n" + program.toJava());
+            e.printStackTrace();
+        } catch (Exception | StackOverflowError e) {
+            // Like the tree engine. Direct calls wrap what they throw as FunctionData.invoke() does (see
+            // ProgramCompiler.endCall()), and other errors propagate from both.
+            failure = Interpreter.classify(e);
+        }
+        info.finishCalls();
+        info.setError(failure != null);
+        info.setFailure(failure);
+        return info;
+    }
+}
@@ -0,0 +1,139 @@
+package frangel.interpreter;
+
+import frangel.Settings;
+import frangel.model.FunctionData;
+
+// Called from the classes ProgramCompiler generates, and from ClosureCompiler's closures. The classes live in class
+// loaders of their own, so everything here has to be public, but nothing else should use it. Each method does what the
+// corresponding part of Interpreter does.
+public final class CompiledSupport {
+    public interface Body {
+        Object run(Object[] constants, Object[] variables, EvaluationInfo info) throws Exception;
+    }
+
+    // Value of a variable that isn't in scope (not in the Environment)
+    public static final Object UNDEFINED = new Object();
+
+    private CompiledSupport() {}
+
+    public static void undefined() throws IncompleteRunException {
+        throw IncompleteRunException.UNDEFINED_VARIABLE;
+    }
+
+    public static void elementInScope() throws IncompleteRunException {
+        throw IncompleteRunException.ELEMENT_IN_SCOPE;
+    }
+
+    public static boolean angelicCondition(EvaluationInfo info, String statement) throws EvaluationException {
+        if (!info.hasAngelicCodePath())
+            throw new EvaluationException("Evaluating angelic " + statement + ", but no angelic code path provided");
+        boolean condition = info.getNextAngelicConditionValue();
+        info.logActualCodePath(condition);
+        return condition;
+    }
+
+    // Compiled programs count a step for each statement, expression and loop iteration, where the interpreter does, so
+    // they stop a slow run at the same point
+    public static void step(EvaluationInfo info) throws IncompleteRunException {
+        info.step(1);
+    }
+
+    public static void checkLoop(EvaluationInfo info, int iterations, Object[] variables) throws IncompleteRunException {
+        if (info.incLoopIterations() >= Settings.MAX_LOOP_ITERATIONS || iterations >= Settings.MAX_SINGLE_LOOP_ITERATIONS)
+            throw IncompleteRunException.LOOP_LIMIT;
+        if (isTooLarge(variables))
+            throw IncompleteRunException.TOO_LARGE;
+        info.step(1);
+    }
+
+    private static boolean isTooLarge(Object[] variables) {
+        for (Object obj : variables)
+            if (obj != UNDEFINED && Environment.isTooLarge(obj))
+                return true;
+        return false;
+    }
+
+    public static Object concat(Object left, Object right) {
+        return String.valueOf(left) + right;
+    }
+
+    public static Object addNullLiterals() throws IncompleteRunException {
+        throw IncompleteRunException.NULL_LITERALS;
+    }
+
+    public static Object fail(String message) throws EvaluationException {
+        throw new EvaluationException(message);
+    }
+
+    public static Object invoke(EvaluationInfo info, FunctionData data, Object callerObj, Object[] args, boolean sypetMode) throws Exception {
+        return Interpreter.invoke(info, data, callerObj, args, sypetMode);
+    }
+
+    // Around direct calls, see EvaluationInfo.enterCall()
+    public static void enterCall(EvaluationInfo info, FunctionData data) throws IncompleteRunException {
+        info.enterCall(data);
+    }
+    public static void exitCall(EvaluationInfo info) {
+        info.exitCall();
+    }
+
+    public static void checkMemory(Object o, boolean sypetMode) throws IncompleteRunException {
+        Interpreter.checkMemory(o, sypetMode);
+    }
+
+    public static void checkGeneric(Object returnVal, FunctionData data) throws IncompleteRunException {
+        if (returnVal != null && !data.returnType.isAssignableFrom(returnVal.getClass()))
+            throw IncompleteRunException.WRONG_GENERIC_TYPE;
+    }
+
+    // Argument conversions for direct calls, allowing the same widening as reflection does
+
+    public static boolean toBoolean(Object o) {
+        if (o instanceof Boolean)
+            return (Boolean) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static char toChar(Object o) {
+        if (o instanceof Character)
+            return (Character) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static byte toByte(Object o) {
+        if (o instanceof Byte)
+            return (Byte) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static short toShort(Object o) {
+        if (o instanceof Short || o instanceof Byte)
+            return ((Number) o).shortValue();
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static int toInt(Object o) {
+        if (o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return ((Number) o).intValue();
+        if (o instanceof Character)
+            return (Character) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static long toLong(Object o) {
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return ((Number) o).longValue();
+        if (o instanceof Character)
+            return (Character) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static float toFloat(Object o) {
+        if (o instanceof Float || o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return ((Number) o).floatValue();
+        if (o instanceof Character)
+            return (Character) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+    public static double toDouble(Object o) {
+        if (o instanceof Double || o instanceof Float || o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return ((Number) o).doubleValue();
+        if (o instanceof Character)
+            return (Character) o;
+        throw new IllegalArgumentException("argument type mismatch");
+    }
+}
@@ -0,0 +1,9 @@
+package frangel.interpreter;
+
+// How candidate programs are run, see Settings.ENGINE
+public enum Engine {
+    TREE, // walk the program's syntax tree (Interpreter)
+    CLOSURE, // translate each program into a tree of specialized closures first (ClosureCompiler)
+    COMPILED // compile each program to bytecode first (ProgramCompiler)
+    // Both fall back to TREE for programs they can't translate exactly
+}
@@ -1,46 +1,117 @@
 package frangel.interpreter;
 
 import java.lang.reflect.Array;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
 
 import frangel.Settings;
+import frangel.model.expression.VarExpression;
+import frangel.utils.Utils;
 
+// Variables are indexed by slot (see VarExpression.slotOf()). An empty slot is an undefined variable.
 public class Environment {
-    private final Map<String, Object> variables;
+    private static final Object NULL = new Object(); // stored in place of null, which marks an undefined variable
 
-    public Environment() {
-        variables = new HashMap<>();
+    private Object[] variables;
+    private final boolean sypetMode; // extra runtime checks, see Interpreter.checkMemory()
+    private final EvaluationInfo info; // the run's step budget and component calls
+    private final MemoCache memoCache; // of the program's task, or null
+
+    private final ArgumentArrays arguments = new ArgumentArrays();
+
+    // Variables that may have changed since the last isTooLarge(): assigned, or passed to a call (see Interpreter.markMutated())
+    private int[] dirty = new int[8];
+    private int numDirty;
+    private boolean allDirty = true;
+
+    public Environment(boolean sypetMode, EvaluationInfo info, MemoCache memoCache) {
+        variables = new Object[VarExpression.numSlots()];
+        this.sypetMode = sypetMode;
+        this.info = info;
+        this.memoCache = memoCache;
+    }
+
+    public boolean isSyPetMode() {
+        return sypetMode;
+    }
+
+    public EvaluationInfo getInfo() {
+        return info;
+    }
+
+    MemoCache getMemoCache() {
+        return memoCache;
+    }
+
+    public Object get(int slot) throws IncompleteRunException {
+        Object var = slot < variables.length ? variables[slot] : null;
+        if (var == null)
+            throw IncompleteRunException.UNDEFINED_VARIABLE;
+        return var == NULL ? null : var;
+    }
+
+    public void set(int slot, Object var) {
+        if (slot >= variables.length) // a name first seen after this Environment was created
+            variables = Arrays.copyOf(variables, Math.max(slot + 1, VarExpression.numSlots()));
+        variables[slot] = var == null ? NULL : var;
+        markDirty(slot);
+    }
+
+    public void markDirty(int slot) {
+        if (allDirty)
+            return;
+        if (numDirty == dirty.length)
+            allDirty = true;
+        else
+            dirty[numDirty++] = slot;
     }
 
-    public Object get(String name) throws Exception {
-        if (!variables.containsKey(name))
-            throw new Exception("Unknown variable name: " + name);
-        return variables.get(name);
+    public void markAllDirty() {
+        allDirty = true;
     }
 
-    public void set(String name, Object var) {
-        variables.put(name, var);
+    public void remove(int slot) {
+        if (slot < variables.length)
+            variables[slot] = null;
     }
 
-    public void remove(String name) {
-        variables.remove(name);
+    // A copy of the variables for restore(), or null if some value could be changed in place, which the copy
+    // wouldn't capture
+    Object[] snapshot() {
+        for (Object var : variables)
+            if (var != null && var != NULL && !Utils.isImmutable(var))
+                return null;
+        return variables.clone();
     }
 
-    public boolean contains(String name) {
-        return variables.containsKey(name);
+    void restore(Object[] snapshot) {
+        variables = snapshot.clone();
+        allDirty = true;
     }
 
-    public void incLoopCounter(String name) {
-        variables.put(name, ((int) variables.get(name)) + 1);
+    public boolean contains(int slot) {
+        return slot < variables.length && variables[slot] != null;
     }
-    public void resetLoopCounter(String name) {
-        variables.put(name, 0);
+
+    Object[] takeArguments(int n) {
+        return arguments.take(n);
+    }
+
+    void releaseArguments(Object[] args) {
+        arguments.release(args);
+    }
+
+    public void incLoopCounter(int slot) {
+        Object var = variables[slot];
+        variables[slot] = ((int) (var == NULL ? null : var)) + 1;
+    }
+    public void resetLoopCounter(int slot) {
+        set(slot, 0);
     }
 
     @SuppressWarnings("rawtypes")
-    private boolean checkObj(Object obj) {
+    private static boolean checkObj(Object obj) {
         if (obj instanceof CharSequence && ((CharSequence) obj).length() > Settings.MAX_STRING_LEN)
             return true;
         if (obj.getClass().isArray() && Array.getLength(obj) > Settings.MAX_ARRAY_LEN)
@@ -58,16 +129,31 @@ public class Environment {
         return false;
     }
 
-    @SuppressWarnings("rawtypes")
+    // Values that were not too large at the last check, and haven't changed since, are skipped
     public boolean isTooLarge() {
-        for (Object obj : variables.values()) {
-            if (obj == null)
-                continue;
-            if (checkObj(obj))
-                return true;
-            if (obj instanceof Map && (checkObj(((Map) obj).keySet()) || checkObj(((Map) obj).values())))
-                return true;
+        if (allDirty) {
+            for (Object obj : variables)
+                if (obj != NULL && isTooLarge(obj))
+                    return true;
+        } else {
+            for (int i = 0; i < numDirty; i++) {
+                Object obj = variables[dirty[i]];
+                if (obj != NULL && isTooLarge(obj))
+                    return true;
+            }
         }
+        allDirty = false;
+        numDirty = 0;
         return false;
     }
+
+    // Also used by compiled programs, which keep variables in an array instead of an Environment
+    @SuppressWarnings("rawtypes")
+    static boolean isTooLarge(Object obj) {
+        if (obj == null)
+            return false;
+        if (checkObj(obj))
+            return true;
+        return obj instanceof Map && (checkObj(((Map) obj).keySet()) || checkObj(((Map) obj).values()));
+    }
 }
@@ -1,24 +1,64 @@
 package frangel.interpreter;
 
+import frangel.model.FunctionData;
+
 public class EvaluationInfo {
+    // The clock is read once every CLOCK_STEPS steps of work, rather than on every loop iteration
+    static final int CLOCK_STEPS = 64;
+
     private boolean isError;
+    private Failure failure;
     private Object returnValue;
-    private final String angelicCodePath;
+    private final CodePath angelicCodePath;
     private int angelicCodePathIndex;
-    private String actualCodePath;
+    private CodePath actualCodePath; // null if not angelic
     private int loopIterations;
     private boolean success;
     private boolean slow;
 
-    public EvaluationInfo(String angelicCodePath) {
+    private final long start;
+    private int steps;
+    private int nextClock;
+    private final Watchdog.Slot slot; // this thread's, or null if the watchdog is off
+
+    public EvaluationInfo(CodePath angelicCodePath, long start) {
         isError = false;
         returnValue = null;
         this.angelicCodePath = angelicCodePath;
         angelicCodePathIndex = 0;
-        actualCodePath = "";
+        actualCodePath = angelicCodePath == null ? null : new CodePath();
         loopIterations = 0;
         success = false;
         slow = false;
+        this.start = start;
+        steps = 0;
+        nextClock = CLOCK_STEPS;
+        slot = Watchdog.current();
+    }
+
+    // Counts a step of work (e.g., evaluating a node), and stops the run once it has taken longer than
+    // Interpreter.SLOW_CUTOFF
+    void step(int cost) throws IncompleteRunException {
+        steps += cost;
+        if (steps >= nextClock) {
+            nextClock = steps + CLOCK_STEPS;
+            if (System.nanoTime() - start > Interpreter.SLOW_CUTOFF)
+                throw IncompleteRunException.TIMEOUT;
+        }
+    }
+
+    // Around each component call, so the Watchdog can tell which component a stuck thread is in
+    void enterCall(FunctionData data) throws IncompleteRunException {
+        if (slot != null)
+            slot.enter(data);
+    }
+    void exitCall() {
+        if (slot != null)
+            slot.exit();
+    }
+    void finishCalls() {
+        if (slot != null)
+            slot.finishRun();
     }
 
     public boolean isError() {
@@ -28,6 +68,14 @@ public class EvaluationInfo {
         this.isError = isError;
     }
 
+    // Null if the run succeeded
+    public Failure getFailure() {
+        return failure;
+    }
+    public void setFailure(Failure failure) {
+        this.failure = failure;
+    }
+
     public Object getReturnValue() {
         return returnValue;
     }
@@ -41,14 +89,21 @@ public class EvaluationInfo {
     public boolean getNextAngelicConditionValue() {
         if (angelicCodePathIndex >= angelicCodePath.length())
             return false;
-        return angelicCodePath.charAt(angelicCodePathIndex++) == '1';
+        return angelicCodePath.get(angelicCodePathIndex++);
+    }
+
+    // Continues a run that took the given path, and loop iterations, so far (see Checkpoints)
+    void resume(CodePath codePath, int loopIterations) {
+        angelicCodePathIndex = codePath.length();
+        actualCodePath = codePath.copy();
+        this.loopIterations = loopIterations;
     }
 
-    public String getActualCodePath() {
+    public CodePath getActualCodePath() {
         return actualCodePath;
     }
     public void logActualCodePath(boolean condition) {
-        actualCodePath += (condition ? "1" : "0");
+        actualCodePath.add(condition);
     }
 
     public int getLoopIterations() {
@@ -0,0 +1,21 @@
+package frangel.interpreter;
+
+// Why a run failed, see EvaluationInfo.getFailure() and Interpreter.numFailures()
+public enum Failure {
+    LOOP_LIMIT, // too many loop iterations
+    TIMEOUT, // ran longer than Interpreter.SLOW_CUTOFF
+    TOO_LARGE, // a value grew past the memory bounds in Settings
+    BAD_VALUE, // a value the extra runtime checks reject (non-finite shapes, SyPet mode)
+    NULL_CALLEE, // called a method or field on null
+    UNDEFINED_VARIABLE,
+    TYPE_ERROR, // a cast in the program failed, or a generic component returned the wrong type
+    COMPONENT_ERROR, // a component threw
+    QUARANTINED, // called a component the Watchdog quarantined
+    STACK_OVERFLOW,
+    INTERPRETER_ERROR, // an EvaluationException, which is a bug
+    OTHER, // the program ran, but failed for some other reason
+    // The program finished, but:
+    WRONG_OUTPUT,
+    WRONG_INPUTS, // modified its inputs differently than expected
+    COMPARISON_ERROR // comparing the results threw
+}
@@ -1,13 +1,28 @@
-// Thrown when halting code interpretation due to timeout or memory constraints.
+// Thrown when halting code interpretation due to timeout or memory constraints. Most runs end with one of these, so
+// they are stackless, and the common ones are allocated once and shared.
 
 package frangel.interpreter;
 
 @SuppressWarnings("serial")
 public class IncompleteRunException extends Exception {
-    public IncompleteRunException() {
-        super();
+    public static final IncompleteRunException LOOP_LIMIT = new IncompleteRunException(Failure.LOOP_LIMIT, "Too many loop iterations");
+    public static final IncompleteRunException ELEMENT_IN_SCOPE = new IncompleteRunException(Failure.OTHER, "For-each loop element variable already in scope");
+    public static final IncompleteRunException TIMEOUT = new IncompleteRunException(Failure.TIMEOUT, "Ran too long");
+    public static final IncompleteRunException TOO_LARGE = new IncompleteRunException(Failure.TOO_LARGE, "A variable is too large");
+    public static final IncompleteRunException NULL_CALLEE = new IncompleteRunException(Failure.NULL_CALLEE, "Callee is null");
+    public static final IncompleteRunException UNDEFINED_VARIABLE = new IncompleteRunException(Failure.UNDEFINED_VARIABLE, "Unknown variable name");
+    public static final IncompleteRunException WRONG_GENERIC_TYPE = new IncompleteRunException(Failure.TYPE_ERROR, "Component returned the wrong type");
+    public static final IncompleteRunException NULL_LITERALS = new IncompleteRunException(Failure.TYPE_ERROR, "Cannot add two null literals");
+    public static final IncompleteRunException QUARANTINED = new IncompleteRunException(Failure.QUARANTINED, "Component is quarantined");
+
+    private final Failure failure;
+
+    public IncompleteRunException(Failure failure, String message) {
+        super(message, null, false, false);
+        this.failure = failure;
     }
-    public IncompleteRunException(String message) {
-        super(message);
+
+    public Failure getFailure() {
+        return failure;
     }
 }
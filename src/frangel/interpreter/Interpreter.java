@@ -3,7 +3,10 @@ package frangel.interpreter;
 import java.awt.Shape;
 import java.awt.geom.*;
 import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
 
 import frangel.Example;
 import frangel.Settings;
@@ -13,22 +16,135 @@ import frangel.model.expression.*;
 import frangel.model.expression.OpExpression.Op;
 import frangel.model.statement.*;
 import frangel.utils.TimeLogger;
+import frangel.utils.Utils;
 
 public class Interpreter {
-    private static final double SLOW_CUTOFF = 1.0e9;
+    static final double SLOW_CUTOFF = 1.0e9;
 
-    public static EvaluationInfo runProgram(Program program, Example example, String angelicCodePath) {
-        return runProgram(program, example, angelicCodePath, true);
+    // Number of finished evaluations in this JVM. A child JVM reports it as its heartbeat (see Main).
+    private static final LongAdder numRuns = new LongAdder();
+
+    public static long numRuns() {
+        return numRuns.sum();
+    }
+
+    // Differences found by Settings.CHECK_ENGINE
+    private static final LongAdder numEngineMismatches = new LongAdder();
+
+    public static long numEngineMismatches() {
+        return numEngineMismatches.sum();
+    }
+    // Programs prepared by Settings.ENGINE, and those it left to the tree engine
+    private static final LongAdder numCompiled = new LongAdder();
+    private static final LongAdder numNotCompiled = new LongAdder();
+
+    public static long numCompiled() {
+        return numCompiled.sum();
+    }
+    public static long numNotCompiled() {
+        return numNotCompiled.sum();
+    }
+
+    // Wrong outputs caught by Example.rejectsOutput(), without a full comparison
+    private static final LongAdder numFingerprintRejections = new LongAdder();
+
+    public static long numFingerprintRejections() {
+        return numFingerprintRejections.sum();
+    }
+
+    // Pure calls answered from MemoCache
+    private static final LongAdder numMemoHits = new LongAdder();
+
+    public static long numMemoHits() {
+        return numMemoHits.sum();
+    }
+
+    // Angelic runs that started from a checkpoint (see Checkpoints)
+    private static final LongAdder numResumedRuns = new LongAdder();
+
+    public static long numResumedRuns() {
+        return numResumedRuns.sum();
+    }
+
+    // Failed evaluations in this JVM, by reason
+    private static final LongAdder[] numFailures = new LongAdder[Failure.values().length];
+    static {
+        for (int i = 0; i < numFailures.length; i++)
+            numFailures[i] = new LongAdder();
+    }
+
+    public static long numFailures(Failure failure) {
+        return numFailures[failure.ordinal()].sum();
+    }
+
+    // Readies a program for running with Settings.ENGINE. Prepare once, then run on each example and code path; the
+    // program must not change in between.
+    public static PreparedProgram prepare(Program program) {
+        Engine engine = Settings.ENGINE;
+        if (engine == Engine.TREE)
+            return new TreeProgram(program);
+        PreparedProgram prepared = translate(program, engine);
+        if (prepared != null) {
+            numCompiled.increment();
+            return prepared;
+        }
+        numNotCompiled.increment();
+        return new TreeProgram(program);
+    }
+
+    // The program prepared by the given engine, or null if that engine can't reproduce it exactly
+    public static PreparedProgram translate(Program program, Engine engine) {
+        switch (engine) {
+        case TREE:
+            return new TreeProgram(program);
+        case CLOSURE:
+            return ClosureCompiler.compile(program);
+        default:
+            return ProgramCompiler.compile(program);
+        }
+    }
+
+    public static EvaluationInfo runProgram(Program program, Example example, CodePath angelicCodePath) {
+        return runProgram(prepare(program), example, angelicCodePath, true);
+    }
+
+    public static EvaluationInfo runProgram(Program program, Example example, CodePath angelicCodePath, boolean logTiming) {
+        return runProgram(prepare(program), example, angelicCodePath, logTiming);
+    }
+
+    public static EvaluationInfo runProgram(PreparedProgram prepared, Example example, CodePath angelicCodePath) {
+        return runProgram(prepared, example, angelicCodePath, true);
     }
 
     // Cleaner sets logTiming to false
-    public static EvaluationInfo runProgram(Program program, Example example, String angelicCodePath, boolean logTiming) {
+    public static EvaluationInfo runProgram(PreparedProgram prepared, Example example, CodePath angelicCodePath, boolean logTiming) {
+        return runProgram(prepared, example, angelicCodePath, logTiming, null);
+    }
+
+    // Runs along one of many angelic code paths tried on the same example, resuming from the checkpoints of earlier runs
+    // where possible (tree engine only)
+    public static EvaluationInfo runProgram(PreparedProgram prepared, Example example, CodePath angelicCodePath, Checkpoints checkpoints) {
+        return runProgram(prepared, example, angelicCodePath, true, checkpoints);
+    }
+
+    private static EvaluationInfo runProgram(PreparedProgram prepared, Example example, CodePath angelicCodePath, boolean logTiming, Checkpoints checkpoints) {
         if (logTiming)
             TimeLogger.start("Interpreter.runProgram()");
-        Object[] input = example.getInputs();
+        Program program = prepared.program;
+        if (!(prepared instanceof TreeProgram) || angelicCodePath == null)
+            checkpoints = null;
+        Checkpoints.Checkpoint resume = checkpoints == null ? null : checkpoints.find(angelicCodePath);
+        Object[] input = resume == null ? example.getInputs() : resume.input;
 
         long start = System.nanoTime();
-        EvaluationInfo info = evaluate(program, input, angelicCodePath, start);
+        EvaluationInfo info;
+        if (checkpoints == null) {
+            info = prepared.evaluate(input, angelicCodePath, start);
+        } else {
+            info = evaluate((TreeProgram) prepared, input, angelicCodePath, start, checkpoints, resume);
+            if (resume != null)
+                numResumedRuns.increment();
+        }
         long time = System.nanoTime() - start;
         if (time > SLOW_CUTOFF) {
             System.err.println("Interpreter took " + (time/1.0e9) + " sec to evaluate (angelicCodePath = "
@@ -36,98 +152,249 @@ public class Interpreter {
             info.setSlow(true);
         }
 
-        boolean success = true;
-
-        if (info.isError())
-            success = false;
-
+        Failure failure = info.getFailure();
         try {
             Object actualOutput = info.getReturnValue();
-            if (success && program.returns() && !example.checkOutput(actualOutput))
-                success = false;
-            if (success && !example.checkModifiedInputs(input))
-                success = false;
+            if (failure == null && program.returns() && example.rejectsOutput(actualOutput)) {
+                failure = Failure.WRONG_OUTPUT;
+                numFingerprintRejections.increment();
+            }
+            if (failure == null && program.returns() && !example.checkOutput(actualOutput))
+                failure = Failure.WRONG_OUTPUT;
+            if (failure == null && !example.checkModifiedInputs(input))
+                failure = Failure.WRONG_INPUTS;
         } catch (StackOverflowError e) {
             System.err.println("StackOverflowError while comparing results for program:\n" + program.toJava());
             // Don't print stack trace!
-            success = false;
+            failure = Failure.COMPARISON_ERROR;
         } catch (Exception e) {
             // Sometimes customEquals() will throw an error for weird inputs
-            System.err.println("Exception while comparing results in runProgram (angelicCodePath = " + angelicCodePath + "), program:\n" + program.toJava());
-            e.printStackTrace();
-            success = false;
+            System.err.println("Exception while comparing results in runProgram (" + e + ", angelicCodePath = " + angelicCodePath + "), program:\n" + program.toJava());
+            failure = Failure.COMPARISON_ERROR;
         }
 
-        info.setSuccess(success);
+        // Shared inputs (see Example.getInputs()) are only checked above if the run got that far
+        if (example.sharesInputs() && (failure == Failure.WRONG_INPUTS || failure != null && inputsChanged(example, input)))
+            example.discardSharedInputs();
+
+        info.setFailure(failure);
+        info.setSuccess(failure == null);
+        if (failure != null)
+            numFailures[failure.ordinal()].increment();
+        numRuns.increment();
+        if (Settings.CHECK_ENGINE && !(prepared instanceof TreeProgram))
+            checkEngine(prepared, example, angelicCodePath, info);
         if (logTiming)
             TimeLogger.stop("Interpreter.runProgram()");
         return info;
     }
 
-    private static EvaluationInfo evaluate(Program program, Object[] arguments, String angelicCodePath, long start) {
-        EvaluationInfo info = new EvaluationInfo(angelicCodePath);
-        Environment env = new Environment();
-        int aLen = program.argNames.length;
-        for (int i = 0; i < aLen; i++)
-            env.set(program.argNames[i], arguments[i]);
+    private static boolean inputsChanged(Example example, Object[] input) {
+        try {
+            return !example.checkModifiedInputs(input);
+        } catch (Exception | StackOverflowError e) {
+            return true;
+        }
+    }
 
-        boolean error = false;
+    // Runs the program again with the tree-walking interpreter, on fresh inputs, and reports any difference
+    private static void checkEngine(PreparedProgram prepared, Example example, CodePath angelicCodePath, EvaluationInfo info) {
+        String difference = compareWithTree(prepared, example, angelicCodePath, info);
+        if (difference != null) {
+            numEngineMismatches.increment();
+            System.err.println("Engine " + Settings.ENGINE + " " + difference);
+        }
+    }
+
+    // How the results of the tree-walking interpreter, run on fresh inputs, differ from those that the engine got in info
+    // (from runProgram()), or null if they don't or if either run was cut off by time (they may then legitimately
+    // differ). Also used by the CheckEngines experiment.
+    public static String compareWithTree(PreparedProgram prepared, Example example, CodePath angelicCodePath, EvaluationInfo info) {
+        Object[] input = example.copyInputs();
+        EvaluationInfo expected = new TreeProgram(prepared.program).evaluate(input, angelicCodePath, System.nanoTime());
+        boolean success = !expected.isError();
         try {
-            for (Map.Entry<String, Expression> pair : program.getLocalVars().entrySet())
-                env.set(pair.getKey(), evaluateExpression(pair.getValue(), null));
-            for (String var : program.getLoopVars())
-                env.set(var, 0);
+            if (success && prepared.program.returns() && !example.checkOutput(expected.getReturnValue()))
+                success = false;
+            if (success && !example.checkModifiedInputs(input))
+                success = false;
+        } catch (Exception | StackOverflowError e) {
+            success = false;
+        }
+        if (expected.isSlow() || info.isSlow())
+            return null;
+        return difference(prepared.program, angelicCodePath, info, expected, success);
+    }
+
+    // Like compareWithTree(), but both runs start as if they had already taken too long, so the engine must cut the run
+    // off exactly where the interpreter does. Also used by the CheckEngines experiment.
+    public static String compareTimedOut(PreparedProgram prepared, Example example, CodePath angelicCodePath) {
+        long start = System.nanoTime() - 2 * (long) SLOW_CUTOFF;
+        EvaluationInfo info = prepared.evaluate(example.copyInputs(), angelicCodePath, start);
+        EvaluationInfo expected = new TreeProgram(prepared.program).evaluate(example.copyInputs(), angelicCodePath, start);
+        return difference(prepared.program, angelicCodePath, info, expected, info.isSuccess());
+    }
+
+    private static String difference(Program program, CodePath angelicCodePath, EvaluationInfo info, EvaluationInfo expected, boolean success) {
+        Object value = info.getReturnValue(), expectedValue = expected.getReturnValue();
+        boolean sameValue = sameValue(value, expectedValue);
+        if (info.isError() != expected.isError() || info.isSuccess() != success || !sameValue
+                || info.isError() && info.getFailure() != expected.getFailure()
+                || !Objects.equals(info.getActualCodePath(), expected.getActualCodePath())
+                || info.getLoopIterations() != expected.getLoopIterations()) {
+            return "differs from the interpreter (angelicCodePath = " + angelicCodePath + "): "
+                    + "error " + info.isError() + "/" + expected.isError() + ", failure " + info.getFailure() + "/" + expected.getFailure() + ", success " + info.isSuccess() + "/" + success
+                    + ", code path " + info.getActualCodePath() + "/" + expected.getActualCodePath()
+                    + ", loop iterations " + info.getLoopIterations() + "/" + expected.getLoopIterations()
+                    + ", return value " + value + "/" + expectedValue + ", program:\n" + program.toJava();
+        }
+        return null;
+    }
+
+    private static final Pattern IDENTITY_HASH = Pattern.compile("@[0-9a-f]+");
 
-            evaluateBlock(program.getStatements(), env, info, start);
+    // Fresh objects from separate runs, so equal contents (or printing the same, for classes without equals) is enough
+    private static boolean sameValue(Object value, Object expected) {
+        try {
+            return Objects.deepEquals(value, expected)
+                    || (value != null && expected != null && value.getClass() == expected.getClass()
+                            && IDENTITY_HASH.matcher(value.toString()).replaceAll("").equals(IDENTITY_HASH.matcher(expected.toString()).replaceAll("")));
+        } catch (Exception | StackOverflowError e) { // e.g., a list containing itself
+            return value.getClass() == expected.getClass();
+        }
+    }
+
+    // The tree-walking engine: only the slots of the program's top-level variables are looked up in advance
+    private static class TreeProgram extends PreparedProgram {
+        private final int[] argSlots, localSlots, loopSlots;
+        private final Expression[] localValues;
+
+        TreeProgram(Program program) {
+            super(program);
+            argSlots = new int[program.argNames.length];
+            for (int i = 0; i < argSlots.length; i++)
+                argSlots[i] = VarExpression.slotOf(program.argNames[i]);
+            Map<String, Expression> localVars = program.getLocalVars();
+            localSlots = new int[localVars.size()];
+            localValues = new Expression[localVars.size()];
+            int i = 0;
+            for (Map.Entry<String, Expression> pair : localVars.entrySet()) {
+                localSlots[i] = VarExpression.slotOf(pair.getKey());
+                localValues[i++] = pair.getValue();
+            }
+            loopSlots = program.getLoopVars().stream().mapToInt(VarExpression::slotOf).toArray();
+        }
+        @Override
+        EvaluationInfo evaluate(Object[] arguments, CodePath angelicCodePath, long start) {
+            return Interpreter.evaluate(this, arguments, angelicCodePath, start);
+        }
+    }
+
+    private static EvaluationInfo evaluate(TreeProgram prepared, Object[] arguments, CodePath angelicCodePath, long start) {
+        return evaluate(prepared, arguments, angelicCodePath, start, null, null);
+    }
+
+    // Saves a checkpoint before each top-level statement if checkpoints isn't null, and starts from resume if it isn't null
+    private static EvaluationInfo evaluate(TreeProgram prepared, Object[] arguments, CodePath angelicCodePath, long start,
+            Checkpoints checkpoints, Checkpoints.Checkpoint resume) {
+        Program program = prepared.program;
+        EvaluationInfo info = new EvaluationInfo(angelicCodePath, start);
+        boolean sypetMode = program.task.isSyPetMode();
+        MemoCache memoCache = program.task.getMemoCache();
+        Environment env = new Environment(sypetMode, info, memoCache);
+
+        Failure failure = null;
+        try {
+            int first = 0;
+            if (resume != null) {
+                env.restore(resume.variables);
+                info.resume(resume.codePath, resume.loopIterations);
+                first = resume.statement;
+            } else {
+                int aLen = prepared.argSlots.length;
+                for (int i = 0; i < aLen; i++)
+                    env.set(prepared.argSlots[i], arguments[i]);
+                Environment initEnv = new Environment(sypetMode, info, memoCache); // initial values can't refer to variables
+                for (int i = 0; i < prepared.localSlots.length; i++)
+                    env.set(prepared.localSlots[i], evaluateExpression(prepared.localValues[i], initEnv));
+                for (int slot : prepared.loopSlots)
+                    env.set(slot, 0);
+            }
+
+            List<Statement> statements = program.getStatements();
+            for (int i = first; i < statements.size(); i++) {
+                if (checkpoints != null && i > first)
+                    checkpoints.save(i, arguments, env, info);
+                evaluateStatement(statements.get(i), env, info);
+            }
             if (program.returns())
                 info.setReturnValue(evaluateExpression(program.getReturnVal(), env));
         } catch (EvaluationException e) {
             // Something bad happened
-            error = true;
+            failure = Failure.INTERPRETER_ERROR;
             System.err.println("Program had error:\n" + program.toJava());
             e.printStackTrace();
         } catch (StackOverflowError e) {
-            error = true;
+            failure = Failure.STACK_OVERFLOW;
             System.err.println("Program caused StackOverflowError:\n" + program.toJava());
             // Don't print stack trace!
         } catch (Exception e) {
             // Ignore all other exceptions
-            error = true;
+            failure = classify(e);
         }
-        info.setError(error);
+        info.finishCalls();
+        info.setError(failure != null);
+        info.setFailure(failure);
         return info;
     }
 
-    private static void evaluateBlock(List<Statement> list, Environment env, EvaluationInfo info, long start) throws Exception {
+    // Why a run threw. Components' exceptions come wrapped by FunctionData.invoke(), except from the direct calls in
+    // compiled programs, which CompiledProgram counts as component errors.
+    static Failure classify(Throwable e) {
+        if (e instanceof IncompleteRunException)
+            return ((IncompleteRunException) e).getFailure();
+        if (e instanceof InvocationTargetException)
+            return e.getCause() instanceof StackOverflowError ? Failure.STACK_OVERFLOW : Failure.COMPONENT_ERROR;
+        if (e instanceof StackOverflowError)
+            return Failure.STACK_OVERFLOW;
+        if (e instanceof ClassCastException)
+            return Failure.TYPE_ERROR;
+        if (e instanceof EvaluationException)
+            return Failure.INTERPRETER_ERROR;
+        return Failure.OTHER;
+    }
+
+    private static void evaluateBlock(List<Statement> list, Environment env, EvaluationInfo info) throws Exception {
         for (Statement s : list)
-            evaluateStatement(s, env, info, start);
+            evaluateStatement(s, env, info);
     }
 
-    private static void evaluateStatement(Statement s, Environment env, EvaluationInfo info, long start) throws Exception {
+    private static void evaluateStatement(Statement s, Environment env, EvaluationInfo info) throws Exception {
+        info.step(1);
         if (s instanceof VarAssignment)
             evaluateVarAssignment((VarAssignment) s, env);
         else if (s instanceof FuncStatement)
             evaluateFuncStatement((FuncStatement) s, env);
         else if (s instanceof IfStatement)
-            evaluateIfStatement((IfStatement) s, env, info, start);
+            evaluateIfStatement((IfStatement) s, env, info);
         else if (s instanceof ForLoop)
-            evaluateForLoop((ForLoop) s, env, info, start);
+            evaluateForLoop((ForLoop) s, env, info);
         else if (s instanceof ForEachLoop)
-            evaluateForEachLoop((ForEachLoop) s, env, info, start);
+            evaluateForEachLoop((ForEachLoop) s, env, info);
         else
             throw new EvaluationException("evaluateStatement, unknown statement class: " + s.getClass());
     }
 
     private static void evaluateVarAssignment(VarAssignment s, Environment env) throws Exception {
         Object value = evaluateExpression(s.getValue(), env);
-        env.set(s.var.getName(), value);
+        env.set(s.var.getSlot(), value);
     }
 
     private static void evaluateFuncStatement(FuncStatement s, Environment env) throws Exception {
         evaluateFuncExp(s.func, env);
     }
 
-    private static void evaluateIfStatement(IfStatement s, Environment env, EvaluationInfo info, long start) throws Exception {
+    private static void evaluateIfStatement(IfStatement s, Environment env, EvaluationInfo info) throws Exception {
         boolean condition;
         if (s.isAngelic()) {
             if (!info.hasAngelicCodePath())
@@ -135,20 +402,21 @@ public class Interpreter {
             condition = info.getNextAngelicConditionValue();
             info.logActualCodePath(condition);
         } else {
-            condition = (boolean) evaluateExpression(s.getCondition(), env);
+            condition = evaluateBoolean(s.getCondition(), env);
         }
         if (condition)
-            evaluateBlock(s.body, env, info, start);
+            evaluateBlock(s.body, env, info);
     }
 
-    private static void evaluateForLoop(ForLoop s, Environment env, EvaluationInfo info, long start) throws Exception {
+    private static void evaluateForLoop(ForLoop s, Environment env, EvaluationInfo info) throws Exception {
         int iterations = 0;
-        env.resetLoopCounter(s.getVarName());
+        env.resetLoopCounter(s.getVarSlot());
         while (true) {
-            if (info.incLoopIterations() >= Settings.MAX_LOOP_ITERATIONS || iterations++ >= Settings.MAX_SINGLE_LOOP_ITERATIONS || env.isTooLarge())
-                throw new IncompleteRunException();
-            if (System.nanoTime() - start > SLOW_CUTOFF)
-                throw new IncompleteRunException();
+            if (info.incLoopIterations() >= Settings.MAX_LOOP_ITERATIONS || iterations++ >= Settings.MAX_SINGLE_LOOP_ITERATIONS)
+                throw IncompleteRunException.LOOP_LIMIT;
+            if (env.isTooLarge())
+                throw IncompleteRunException.TOO_LARGE;
+            info.step(1);
 
             boolean condition;
             if (s.isAngelic()) {
@@ -157,49 +425,51 @@ public class Interpreter {
                 condition = info.getNextAngelicConditionValue();
                 info.logActualCodePath(condition);
             } else {
-                condition = (boolean) evaluateExpression(s.getCondition(), env);
+                condition = evaluateBoolean(s.getCondition(), env);
             }
 
             if (!condition)
                 break;
-            evaluateBlock(s.body, env, info, start);
-            env.incLoopCounter(s.getVarName());
+            evaluateBlock(s.body, env, info);
+            env.incLoopCounter(s.getVarSlot());
         }
     }
 
-    private static void evaluateForEachLoop(ForEachLoop s, Environment env, EvaluationInfo info, long start) throws Exception {
+    private static void evaluateForEachLoop(ForEachLoop s, Environment env, EvaluationInfo info) throws Exception {
         Object containerObj = evaluateExpression(s.container, env);
-        String elemName = s.getVarName();
-        if (env.contains(elemName))
-            throw new IncompleteRunException("For-each loop element variable already in scope");
+        int elemSlot = s.getVarSlot();
+        if (env.contains(elemSlot))
+            throw IncompleteRunException.ELEMENT_IN_SCOPE;
         boolean isArray = s.container.getType().isArray();
         int i = 0;
         int len = isArray ? Array.getLength(containerObj) : 0;
         Iterator<?> it = isArray ? null : ((Iterable<?>) containerObj).iterator();
         int iterations = 0;
         while (true) {
-            if (info.incLoopIterations() >= Settings.MAX_LOOP_ITERATIONS || iterations++ >= Settings.MAX_SINGLE_LOOP_ITERATIONS || env.isTooLarge())
-                throw new IncompleteRunException();
-            if (System.nanoTime() - start > SLOW_CUTOFF)
-                throw new IncompleteRunException();
+            if (info.incLoopIterations() >= Settings.MAX_LOOP_ITERATIONS || iterations++ >= Settings.MAX_SINGLE_LOOP_ITERATIONS)
+                throw IncompleteRunException.LOOP_LIMIT;
+            if (env.isTooLarge())
+                throw IncompleteRunException.TOO_LARGE;
+            info.step(1);
 
             if (isArray) {
                 if (i >= len)
                     break;
-                env.set(elemName, Array.get(containerObj, i));
+                env.set(elemSlot, Array.get(containerObj, i));
                 i++;
             } else {
                 if (it.hasNext())
-                    env.set(elemName, it.next());
+                    env.set(elemSlot, it.next());
                 else
                     break;
             }
-            evaluateBlock(s.body, env, info, start);
+            evaluateBlock(s.body, env, info);
         }
-        env.remove(elemName);
+        env.remove(elemSlot);
     }
 
     private static Object evaluateExpression(Expression exp, Environment env) throws Exception {
+        env.getInfo().step(1);
         if (exp instanceof LiteralExpression)
             return evaluateLiteral((LiteralExpression) exp);
         else if (exp instanceof VarExpression)
@@ -217,10 +487,134 @@ public class Interpreter {
     }
 
     private static Object evaluateVariable(VarExpression exp, Environment env) throws Exception {
-        return env.get(exp.getName());
+        return env.get(exp.getSlot());
     }
 
+    // Operators on primitives go through evaluateBoolean(), evaluateInt() and evaluateDouble(), so only the final result is boxed
     private static Object evaluateOperator(OpExpression exp, Environment env) throws Exception {
+        switch (exp.op()) {
+        case AND:
+        case OR:
+        case NOT:
+        case EQUALS:
+        case LESS:
+        case LEQ:
+            return evaluateBooleanOperator(exp, env);
+        default:
+            Class<?> leftType = exp.getLeft() == null ? null : exp.getLeft().getType();
+            if (int.class.equals(leftType))
+                return evaluateIntOperator(exp, env);
+            else if (double.class.equals(leftType))
+                return evaluateDoubleOperator(exp, env);
+            else
+                return evaluateObjectOperator(exp, env);
+        }
+    }
+
+    // The typed paths count a step for each operator they evaluate, as evaluateExpression() does
+    private static boolean evaluateBoolean(Expression exp, Environment env) throws Exception {
+        if (!(exp instanceof OpExpression))
+            return (boolean) evaluateExpression(exp, env);
+        env.getInfo().step(1);
+        return evaluateBooleanOperator((OpExpression) exp, env);
+    }
+
+    private static boolean evaluateBooleanOperator(OpExpression opExp, Environment env) throws Exception {
+        Expression left = opExp.getLeft(), right = opExp.getRight();
+        boolean l, r;
+        switch (opExp.op()) {
+        case AND: // both sides are always evaluated, as in evaluateObjectOperator()
+            l = evaluateBoolean(left, env);
+            r = evaluateBoolean(right, env);
+            return l && r;
+        case OR:
+            l = evaluateBoolean(left, env);
+            r = evaluateBoolean(right, env);
+            return l || r;
+        case NOT:
+            return !evaluateBoolean(right, env);
+        case EQUALS:
+            if (left.getType() != right.getType())
+                break;
+            if (left.getType().equals(int.class))
+                return evaluateInt(left, env) == evaluateInt(right, env);
+            else if (left.getType().equals(double.class)) // same as Double.equals()
+                return Double.doubleToLongBits(evaluateDouble(left, env)) == Double.doubleToLongBits(evaluateDouble(right, env));
+            else if (left.getType().equals(boolean.class))
+                return evaluateBoolean(left, env) == evaluateBoolean(right, env);
+            break;
+        case LESS:
+            if (left.getType().equals(int.class))
+                return evaluateInt(left, env) < evaluateInt(right, env);
+            else if (left.getType().equals(double.class))
+                return evaluateDouble(left, env) < evaluateDouble(right, env);
+            break;
+        case LEQ:
+            if (left.getType().equals(int.class))
+                return evaluateInt(left, env) <= evaluateInt(right, env);
+            else if (left.getType().equals(double.class))
+                return evaluateDouble(left, env) <= evaluateDouble(right, env);
+            break;
+        default:
+            break;
+        }
+        return (boolean) evaluateObjectOperator(opExp, env);
+    }
+
+    private static int evaluateInt(Expression exp, Environment env) throws Exception {
+        if (!(exp instanceof OpExpression))
+            return (int) evaluateExpression(exp, env);
+        env.getInfo().step(1);
+        return evaluateIntOperator((OpExpression) exp, env);
+    }
+
+    private static int evaluateIntOperator(OpExpression opExp, Environment env) throws Exception {
+        Expression left = opExp.getLeft(), right = opExp.getRight();
+        if (left == null || !left.getType().equals(int.class))
+            return (int) evaluateObjectOperator(opExp, env);
+        switch (opExp.op()) {
+        case PLUS:
+            return evaluateInt(left, env) + evaluateInt(right, env);
+        case MINUS:
+            return evaluateInt(left, env) - evaluateInt(right, env);
+        case TIMES:
+            return evaluateInt(left, env) * evaluateInt(right, env);
+        case DIV:
+            return evaluateInt(left, env) / evaluateInt(right, env);
+        case MOD:
+            return evaluateInt(left, env) % evaluateInt(right, env);
+        default:
+            return (int) evaluateObjectOperator(opExp, env);
+        }
+    }
+
+    private static double evaluateDouble(Expression exp, Environment env) throws Exception {
+        if (!(exp instanceof OpExpression))
+            return (double) evaluateExpression(exp, env);
+        env.getInfo().step(1);
+        return evaluateDoubleOperator((OpExpression) exp, env);
+    }
+
+    private static double evaluateDoubleOperator(OpExpression opExp, Environment env) throws Exception {
+        Expression left = opExp.getLeft(), right = opExp.getRight();
+        if (left == null || !left.getType().equals(double.class))
+            return (double) evaluateObjectOperator(opExp, env);
+        switch (opExp.op()) {
+        case PLUS:
+            return evaluateDouble(left, env) + evaluateDouble(right, env);
+        case MINUS:
+            return evaluateDouble(left, env) - evaluateDouble(right, env);
+        case TIMES:
+            return evaluateDouble(left, env) * evaluateDouble(right, env);
+        case DIV:
+            return evaluateDouble(left, env) / evaluateDouble(right, env);
+        default:
+            return (double) evaluateObjectOperator(opExp, env);
+        }
+    }
+
+    // Evaluates both operands as objects, for the cases the typed paths above don't cover
+    private static Object evaluateObjectOperator(OpExpression exp, Environment env) throws Exception {
         Op op = exp.op();
         Object left = null, right = null;
         Class<?> leftType = null, rightType = null;
@@ -266,7 +660,7 @@ public class Interpreter {
                 return ((double) left) + ((double) right);
             } else if (leftType.equals(String.class) || rightType.equals(String.class) || leftType.equals(Object.class) || rightType.equals(Object.class)) {
                 if (left == null && right == null && exp.getLeft() instanceof LiteralExpression && exp.getRight() instanceof LiteralExpression)
-                    throw new IncompleteRunException("Cannot add two null literals");
+                    throw IncompleteRunException.NULL_LITERALS;
                 return String.valueOf(left) + right;
             } else {
                 throw new EvaluationException("evaluateOperator, case PLUS, left type " + leftType);
@@ -305,7 +699,7 @@ public class Interpreter {
     private static Object evaluateFuncExp(FuncExpression exp, Environment env) throws Exception {
         FunctionData data = exp.data;
 
-        Object[] args = new Object[exp.args.length];
+        Object[] args = env.takeArguments(exp.args.length);
         for (int i = 0; i < args.length; i++)
             args[i] = evaluateExpression(exp.args[i], env);
 
@@ -313,34 +707,104 @@ public class Interpreter {
         if (!data.isStatic) {
             callerObj = evaluateExpression(exp.callee(), env);
             if (callerObj == null)
-                throw new NullPointerException();
+                throw IncompleteRunException.NULL_CALLEE;
         }
 
+        MemoCache memoCache = env.getMemoCache();
+        if (memoCache != null && isMemoizable(data, callerObj, args)) {
+            int hash = MemoCache.hash(data, callerObj, args);
+            Object result = memoCache.get(data, callerObj, args, hash);
+            if (result == MemoCache.MISS) {
+                result = invoke(env.getInfo(), data, callerObj, args, env.isSyPetMode());
+                memoCache.put(data, callerObj, args, hash, result); // only reached if the call succeeded
+            } else {
+                numMemoHits.increment(); // the same values passed checkMemory() when the result was cached
+            }
+            env.releaseArguments(args);
+            return result;
+        }
+
+        if (data.kind == FunctionData.Kind.METHOD || data.kind == FunctionData.Kind.CONSTRUCTOR)
+            markMutated(exp, callerObj, args, env);
+        Object returnVal = invoke(env.getInfo(), data, callerObj, args, env.isSyPetMode());
+        env.releaseArguments(args);
+        return returnVal;
+    }
+
+    // Pure calls on immutable values that return primitives can be answered from MemoCache. Other results could be told
+    // apart from a fresh call's by ==, which is why constructors aren't cached either.
+    private static boolean isMemoizable(FunctionData data, Object callerObj, Object[] args) {
+        if (!data.isPure() || !data.returnType.isPrimitive() || !data.returns)
+            return false;
+        if (!Utils.isImmutable(callerObj))
+            return false;
+        for (Object arg : args)
+            if (!Utils.isImmutable(arg))
+                return false;
+        return true;
+    }
+
+    // Classes whose methods and constructors change at most the receiver and arguments, and whose instances share no state
+    // with other objects. Fields, array accesses, and array lengths (the only array property isTooLarge() checks) change nothing.
+    private static final Set<Class<?>> UNSHARED = new HashSet<>(Arrays.asList(
+            String.class, StringBuilder.class, StringBuffer.class, Math.class, StrictMath.class,
+            Integer.class, Long.class, Double.class, Float.class, Short.class, Byte.class, Character.class, Boolean.class,
+            ArrayList.class, LinkedList.class, ArrayDeque.class, PriorityQueue.class, Stack.class, Vector.class,
+            HashSet.class, LinkedHashSet.class, TreeSet.class, HashMap.class, LinkedHashMap.class, TreeMap.class,
+            java.awt.Polygon.class, java.awt.Point.class, java.awt.Rectangle.class));
+
+    // A call may change its receiver and arguments, so Environment.isTooLarge() must check the variables holding them again.
+    // Anything else (e.g., a view like subList(), or a call into another class) might change any reachable object.
+    private static void markMutated(FuncExpression exp, Object callerObj, Object[] args, Environment env) {
+        if (callerObj == null ? !UNSHARED.contains(exp.data.calleeClass) : !UNSHARED.contains(callerObj.getClass())) {
+            env.markAllDirty();
+            return;
+        }
+        if (callerObj != null)
+            markMutated(exp.callee(), callerObj, env);
+        for (int i = 0; i < args.length; i++)
+            markMutated(exp.args[i], args[i], env);
+    }
+
+    private static void markMutated(Expression exp, Object obj, Environment env) {
+        if (obj == null || obj instanceof String || obj instanceof Number && UNSHARED.contains(obj.getClass())
+                || obj instanceof Character || obj instanceof Boolean)
+            return; // immutable
+        if (exp instanceof VarExpression && UNSHARED.contains(obj.getClass()))
+            env.markDirty(((VarExpression) exp).getSlot());
+        else
+            env.markAllDirty();
+    }
+
+    // Calls a component on evaluated arguments, through FunctionData.invoke(). Compiled programs use this for components
+    // they can't call directly.
+    static Object invoke(EvaluationInfo info, FunctionData data, Object callerObj, Object[] args, boolean sypetMode) throws Exception {
         Object returnVal;
         switch (data.kind) {
         case METHOD:
-            returnVal = data.getMethod().invoke(callerObj, args);
+            info.enterCall(data);
+            returnVal = data.invoke(callerObj, args);
+            info.exitCall();
             if (data.returnsGeneric() && returnVal != null && !data.returnType.isAssignableFrom(returnVal.getClass()))
-                throw new IncompleteRunException(data.name + " returned " + returnVal.getClass() + ", expected " + data.returnType);
-            checkMemory(returnVal);
-            checkMemory(callerObj);
+                throw IncompleteRunException.WRONG_GENERIC_TYPE;
+            checkMemory(returnVal, sypetMode);
+            checkMemory(callerObj, sypetMode);
             return returnVal;
         case CONSTRUCTOR:
-            returnVal = data.getConstructor().newInstance(args);
-            checkMemory(returnVal);
+            info.enterCall(data);
+            returnVal = data.invoke(null, args);
+            info.exitCall();
+            checkMemory(returnVal, sypetMode);
             return returnVal;
         case FIELD:
-            returnVal = data.getField().get(callerObj);
+            returnVal = data.invoke(callerObj, args);
             if (data.returnsGeneric() && returnVal != null && !data.returnType.isAssignableFrom(returnVal.getClass()))
-                throw new IncompleteRunException(data.name + " returned " + returnVal.getClass() + ", expected " + data.returnType);
+                throw IncompleteRunException.WRONG_GENERIC_TYPE;
             return returnVal;
         case ARR_GET:
-            return Array.get(args[0], (int) args[1]);
         case ARR_SET:
-            Array.set(args[0], (int) args[1], args[2]);
-            return null;
         case ARR_LEN:
-            return Array.getLength(args[0]);
+            return data.invoke(null, args);
         default:
             throw new EvaluationException("evaluateFuncExp, unknown FunctionData.Kind: " + data.kind);
         }
@@ -359,18 +823,21 @@ public class Interpreter {
         return true;
     }
 
+    private static final IncompleteRunException NON_FINITE_SHAPE = new IncompleteRunException(Failure.BAD_VALUE, "checkMemory: non-finite value in shape");
+    private static final IncompleteRunException SYPET_VALUE = new IncompleteRunException(Failure.BAD_VALUE, "checkMemory: value out of range (SyPet mode)");
+
     @SuppressWarnings("rawtypes")
-    private static void checkMemory(Object o) throws IncompleteRunException {
+    static void checkMemory(Object o, boolean sypetMode) throws IncompleteRunException {
         if (o != null) {
             Class<?> oCls = o.getClass();
             if (CharSequence.class.isAssignableFrom(oCls) && ((CharSequence) o).length() > Settings.MAX_STRING_LEN)
-                throw new IncompleteRunException("checkMemory: CharSequence too long");
+                throw IncompleteRunException.TOO_LARGE;
             if (Collection.class.isAssignableFrom(oCls) && ((Collection) o).size() > Settings.MAX_COLLECTION_SIZE)
-                throw new IncompleteRunException("checkMemory: Collection too large");
+                throw IncompleteRunException.TOO_LARGE;
             if (Map.class.isAssignableFrom(oCls) && ((Map) o).size() > Settings.MAX_COLLECTION_SIZE)
-                throw new IncompleteRunException("checkMemory: Collection too large");
+                throw IncompleteRunException.TOO_LARGE;
             if (oCls.isArray() && Array.getLength(o) > Settings.MAX_ARRAY_LEN)
-                throw new IncompleteRunException("checkMemory: array too long");
+                throw IncompleteRunException.TOO_LARGE;
 
             // These can cause the Area(Shape) constructor to hang
             if (Shape.class.isAssignableFrom(oCls)) {
@@ -379,29 +846,29 @@ public class Interpreter {
                     if (!Double.isFinite(c.getX1()) || !Double.isFinite(c.getY1()) ||
                             !Double.isFinite(c.getX2()) || !Double.isFinite(c.getY2()) ||
                             !Double.isFinite(c.getCtrlX()) || !Double.isFinite(c.getCtrlY()))
-                        throw new IncompleteRunException("checkMemory: non-finite value in QuadCurve2D");
+                        throw NON_FINITE_SHAPE;
                 } else if (CubicCurve2D.class.isAssignableFrom(oCls)) {
                     CubicCurve2D c = (CubicCurve2D) o;
                     if (!Double.isFinite(c.getX1()) || !Double.isFinite(c.getY1()) ||
                             !Double.isFinite(c.getX2()) || !Double.isFinite(c.getY2()) ||
                             !Double.isFinite(c.getCtrlX1()) || !Double.isFinite(c.getCtrlY1()) ||
                             !Double.isFinite(c.getCtrlX2()) || !Double.isFinite(c.getCtrlY2()))
-                        throw new IncompleteRunException("checkMemory: non-finite value in CubicCurve2D");
+                        throw NON_FINITE_SHAPE;
                 } else if (Path2D.class.isAssignableFrom(oCls)) {
                     if (!validPath((Path2D) o))
-                        throw new IncompleteRunException("checkMemory: non-finite value in Path2D");
+                        throw NON_FINITE_SHAPE;
                 }
             }
 
-            if (Settings.SYPET_MODE) {
+            if (sypetMode) {
                 if (o.getClass().equals(Integer.class) && Math.abs((int) o) > 2000)
-                    throw new IncompleteRunException("checkMemory: int too large (SyPet mode)");
+                    throw SYPET_VALUE;
                 if (o.getClass().isArray() && Array.getLength(o) > 5)
-                    throw new IncompleteRunException("checkMemory: array too long (SyPet mode)");
+                    throw SYPET_VALUE;
                 if (o.getClass().equals(Double.class) && (double) o != 0.0 && Math.abs((double) o) < 1e-3)
-                    throw new IncompleteRunException("checkMemory: double too close to 0 (SyPet mode)");
+                    throw SYPET_VALUE;
                 if (o.getClass().equals(Double.class) && Double.isNaN((double) o))
-                    throw new IncompleteRunException("checkMemory: double NaN (SyPet mode)"); // NaN breaks solveAllComplex() for sypet_3_findRoots
+                    throw SYPET_VALUE; // NaN breaks solveAllComplex() for sypet_3_findRoots
             }
         }
     }
@@ -0,0 +1,58 @@
+package frangel.interpreter;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import frangel.model.FunctionData;
+
+// Results of pure component calls (see FunctionData.isPure()), shared by all runs for one task (see
+// SynthesisTask.startMemoCache()), so that a subexpression that many candidates compute on the same example is only
+// called once. A call is looked up by its component, receiver,
+// and argument values, which for a pure component determine the result regardless of the expression that computed
+// them. Direct-mapped: each call has one slot, and a new result replaces whatever was there. Entries are immutable, so
+// racing threads at worst lose an entry.
+public final class MemoCache {
+    private static final class Entry {
+        final FunctionData data;
+        final Object callee;
+        final Object[] args;
+        final int hash;
+        final Object result;
+
+        Entry(FunctionData data, Object callee, Object[] args, int hash, Object result) {
+            this.data = data;
+            this.callee = callee;
+            this.args = args;
+            this.hash = hash;
+            this.result = result;
+        }
+    }
+
+    static final Object MISS = new Object();
+
+    private final Entry[] table;
+
+    public MemoCache(int size) {
+        table = new Entry[Integer.highestOneBit(Math.max(1, size))];
+    }
+
+    static int hash(FunctionData data, Object callee, Object[] args) {
+        int h = System.identityHashCode(data) * 31 + Objects.hashCode(callee);
+        for (Object arg : args)
+            h = h * 31 + Objects.hashCode(arg);
+        return h ^ (h >>> 16);
+    }
+
+    // The cached result, or MISS
+    Object get(FunctionData data, Object callee, Object[] args, int hash) {
+        Entry e = table[hash & (table.length - 1)];
+        if (e != null && e.hash == hash && e.data == data && Objects.equals(e.callee, callee) && Arrays.equals(e.args, args))
+            return e.result;
+        return MISS;
+    }
+
+    // args is copied, since callers reuse their argument arrays (see ArgumentArrays)
+    void put(FunctionData data, Object callee, Object[] args, int hash, Object result) {
+        table[hash & (table.length - 1)] = new Entry(data, callee, args.clone(), hash, result);
+    }
+}
@@ -0,0 +1,14 @@
+package frangel.interpreter;
+
+import frangel.model.Program;
+
+// A program readied for running by one of the engines, see Interpreter.prepare()
+public abstract class PreparedProgram {
+    public final Program program;
+
+    PreparedProgram(Program program) {
+        this.program = program;
+    }
+
+    abstract EvaluationInfo evaluate(Object[] arguments, CodePath angelicCodePath, long start);
+}
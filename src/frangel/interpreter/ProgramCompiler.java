@@ -0,0 +1,775 @@
+package frangel.interpreter;
+
+import static frangel.interpreter.ClassAssembler.*;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import frangel.model.FunctionData;
+import frangel.model.Program;
+import frangel.model.expression.*;
+import frangel.model.statement.*;
+
+// Compiles a program into a class of its own, whose code does what Interpreter.evaluate() does for that program: the
+// same evaluation order, loop guards, memory checks and angelic code path handling, so runs give the same
+// EvaluationInfo. Variables live in an array with one slot per name, so the loop guard sees exactly what the
+// Environment would hold. Components are called directly when the generated class can link to them, and through
+// Interpreter.invoke() otherwise. Each class gets its own class loader, so it is unloaded along with the program.
+final class ProgramCompiler {
+    private static final String NAME = "frangel/compiled/Candidate";
+    private static final String RUN_DESCRIPTOR = methodDescriptor(Object.class, Object[].class, Object[].class, EvaluationInfo.class);
+    private static final int CONSTANTS = 1, VARIABLES = 2, INFO = 3;
+
+    private static final Map<Class<?>, Boolean> linkable = new ConcurrentHashMap<>();
+
+    // The program uses something the compiler can't reproduce exactly (also used by ClosureCompiler)
+    @SuppressWarnings("serial")
+    static class UnsupportedException extends Exception {
+        UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final Program program;
+    private final boolean sypetMode;
+    private final Map<String, Integer> slots = new LinkedHashMap<>();
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    private ClassAssembler.Method m;
+    private boolean initializing; // local variable initial values can't refer to variables
+
+    private ProgramCompiler(Program program) {
+        this.program = program;
+        sypetMode = program.task.isSyPetMode();
+    }
+
+    // Returns null if the program should be run by the interpreter instead
+    static PreparedProgram compile(Program program) {
+        ProgramCompiler compiler = new ProgramCompiler(program);
+        try {
+            byte[] bytes = compiler.assemble();
+            Class<?> cls = new Loader().define(bytes);
+            CompiledSupport.Body body = (CompiledSupport.Body) cls.getDeclaredConstructor().newInstance();
+            int[] argSlots = new int[program.argNames.length];
+            for (int i = 0; i < argSlots.length; i++)
+                argSlots[i] = compiler.slots.get(program.argNames[i]);
+            return new CompiledProgram(program, body, compiler.constants.toArray(), compiler.slots.size(), argSlots);
+        } catch (UnsupportedException | TooLargeException e) {
+            // Leave it to the interpreter
+        } catch (IOException | ReflectiveOperationException | LinkageError e) {
+            // A bug in the compiler, but the interpreter still gives the right answer
+            System.err.println("Could not compile program:\n" + program.toJava());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(ProgramCompiler.class.getClassLoader());
+        }
+        Class<?> define(byte[] bytes) {
+            return defineClass(NAME.replace('/', '.'), bytes, 0, bytes.length);
+        }
+    }
+
+    private byte[] assemble() throws UnsupportedException, TooLargeException, IOException {
+        ClassAssembler cls = new ClassAssembler(NAME, "java/lang/Object", internalName(CompiledSupport.Body.class));
+        ClassAssembler.Method init = cls.method(Modifier.PUBLIC, "<init>", "()V", 1);
+        init.local(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, Object.class, "<init>", "()V");
+        init.op(RETURN, 0);
+
+        m = cls.method(Modifier.PUBLIC, "run", RUN_DESCRIPTOR, 4);
+        for (String arg : program.argNames)
+            slot(arg);
+        initializing = true;
+        for (Map.Entry<String, Expression> pair : program.getLocalVars().entrySet())
+            store(pair.getKey(), pair.getValue());
+        initializing = false;
+        for (String var : program.getLoopVars())
+            storeZero(slot(var));
+
+        block(program.getStatements());
+        if (program.returns()) {
+            if (program.getReturnVal() == null)
+                throw new UnsupportedException();
+            expression(program.getReturnVal());
+        } else {
+            m.op(ACONST_NULL, 1);
+        }
+        m.op(ARETURN, -1);
+        m.checkSize();
+        return cls.toByteArray();
+    }
+
+    private int slot(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    private void constant(Object value) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantIndex.put(value, index);
+        }
+        m.local(ALOAD, CONSTANTS);
+        m.pushInt(index);
+        m.op(AALOAD, -1);
+    }
+
+    private void store(String name, Expression value) throws UnsupportedException {
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(slot(name));
+        expression(value);
+        m.op(AASTORE, -3);
+    }
+
+    private void storeZero(int slot) {
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(slot);
+        m.pushInt(0);
+        m.invokeStatic(Integer.class, "valueOf", Integer.class, int.class);
+        m.op(AASTORE, -3);
+    }
+
+    private void storeUndefined(int slot) {
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(slot);
+        m.field(GETSTATIC, CompiledSupport.class, "UNDEFINED", Object.class);
+        m.op(AASTORE, -3);
+    }
+
+    private void fail(String message) {
+        m.pushString(message);
+        m.invokeStatic(CompiledSupport.class, "fail", Object.class, String.class);
+    }
+
+    private void block(List<Statement> list) throws UnsupportedException {
+        for (Statement s : list)
+            statement(s);
+    }
+
+    private void step() {
+        m.local(ALOAD, INFO);
+        m.invokeStatic(CompiledSupport.class, "step", void.class, EvaluationInfo.class);
+    }
+
+    private void statement(Statement s) throws UnsupportedException {
+        step();
+        if (s instanceof VarAssignment) {
+            VarAssignment assignment = (VarAssignment) s;
+            store(assignment.var.getName(), assignment.getValue());
+        } else if (s instanceof FuncStatement) {
+            function(((FuncStatement) s).func);
+            m.op(POP, -1);
+        } else if (s instanceof IfStatement) {
+            IfStatement ifStatement = (IfStatement) s;
+            Label end = new Label();
+            condition(ifStatement.isAngelic(), ifStatement.getCondition(), "if statement");
+            m.jump(IFEQ, end);
+            block(ifStatement.body);
+            m.place(end);
+        } else if (s instanceof ForLoop) {
+            forLoop((ForLoop) s);
+        } else if (s instanceof ForEachLoop) {
+            forEachLoop((ForEachLoop) s);
+        } else {
+            fail("evaluateStatement, unknown statement class: " + s.getClass());
+            m.op(POP, -1);
+        }
+    }
+
+    private void condition(boolean angelic, Expression condition, String statement) throws UnsupportedException {
+        if (angelic) {
+            m.local(ALOAD, INFO);
+            m.pushString(statement);
+            m.invokeStatic(CompiledSupport.class, "angelicCondition", boolean.class, EvaluationInfo.class, String.class);
+        } else {
+            expression(condition);
+            unbox(Boolean.class, "booleanValue", boolean.class);
+        }
+    }
+
+    private void checkLoop(int iterations) {
+        m.local(ALOAD, INFO);
+        m.local(ILOAD, iterations);
+        m.local(ALOAD, VARIABLES);
+        m.invokeStatic(CompiledSupport.class, "checkLoop", void.class, EvaluationInfo.class, int.class, Object[].class);
+        m.iinc(iterations, 1);
+    }
+
+    private void forLoop(ForLoop s) throws UnsupportedException {
+        int var = slot(s.getVarName());
+        int iterations = m.newLocal(1);
+        m.pushInt(0);
+        m.local(ISTORE, iterations);
+        storeZero(var);
+
+        Label top = new Label(), end = new Label();
+        m.place(top);
+        checkLoop(iterations);
+        condition(s.isAngelic(), s.getCondition(), "for loop");
+        m.jump(IFEQ, end);
+        block(s.body);
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(var);
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(var);
+        m.op(AALOAD, -1);
+        unbox(Integer.class, "intValue", int.class);
+        m.pushInt(1);
+        m.op(IADD, -1);
+        m.invokeStatic(Integer.class, "valueOf", Integer.class, int.class);
+        m.op(AASTORE, -3);
+        m.jump(GOTO, top);
+        m.place(end);
+    }
+
+    private void forEachLoop(ForEachLoop s) throws UnsupportedException {
+        if (s.container.getType() == null)
+            throw new UnsupportedException();
+        boolean isArray = s.container.getType().isArray();
+        int elem = slot(s.getVarName());
+        int container = m.newLocal(1), index = m.newLocal(1), length = m.newLocal(1), iterator = m.newLocal(1), iterations = m.newLocal(1);
+        expression(s.container);
+        m.local(ASTORE, container);
+
+        Label notInScope = new Label();
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(elem);
+        m.op(AALOAD, -1);
+        m.field(GETSTATIC, CompiledSupport.class, "UNDEFINED", Object.class);
+        m.jump(IF_ACMPEQ, notInScope);
+        m.invokeStatic(CompiledSupport.class, "elementInScope", void.class);
+        m.place(notInScope);
+
+        if (isArray) {
+            m.pushInt(0);
+            m.local(ISTORE, index);
+            m.local(ALOAD, container);
+            m.invokeStatic(Array.class, "getLength", int.class, Object.class);
+            m.local(ISTORE, length);
+        } else {
+            m.local(ALOAD, container);
+            m.type(CHECKCAST, Iterable.class);
+            m.invoke(INVOKEINTERFACE, Iterable.class, "iterator", methodDescriptor(Iterator.class));
+            m.local(ASTORE, iterator);
+        }
+        m.pushInt(0);
+        m.local(ISTORE, iterations);
+
+        Label top = new Label(), end = new Label();
+        m.place(top);
+        checkLoop(iterations);
+        if (isArray) {
+            m.local(ILOAD, index);
+            m.local(ILOAD, length);
+            m.jump(IF_ICMPGE, end);
+            m.local(ALOAD, VARIABLES);
+            m.pushInt(elem);
+            m.local(ALOAD, container);
+            m.local(ILOAD, index);
+            m.invokeStatic(Array.class, "get", Object.class, Object.class, int.class);
+            m.op(AASTORE, -3);
+            m.iinc(index, 1);
+        } else {
+            m.local(ALOAD, iterator);
+            m.invoke(INVOKEINTERFACE, Iterator.class, "hasNext", methodDescriptor(boolean.class));
+            m.jump(IFEQ, end);
+            m.local(ALOAD, VARIABLES);
+            m.pushInt(elem);
+            m.local(ALOAD, iterator);
+            m.invoke(INVOKEINTERFACE, Iterator.class, "next", methodDescriptor(Object.class));
+            m.op(AASTORE, -3);
+        }
+        block(s.body);
+        m.jump(GOTO, top);
+        m.place(end);
+        storeUndefined(elem);
+    }
+
+    private void expression(Expression exp) throws UnsupportedException {
+        step();
+        if (exp instanceof LiteralExpression) {
+            Object literal = ((LiteralExpression) exp).literal;
+            if (literal == null)
+                m.op(ACONST_NULL, 1);
+            else
+                constant(literal);
+        } else if (exp instanceof VarExpression) {
+            variable(((VarExpression) exp).getName());
+        } else if (exp instanceof OpExpression) {
+            operator((OpExpression) exp);
+        } else if (exp instanceof FuncExpression) {
+            function((FuncExpression) exp);
+        } else {
+            fail("evaluateExpression, unknown expression class: " + exp.getClass());
+        }
+    }
+
+    private void variable(String name) {
+        if (initializing) {
+            m.invokeStatic(CompiledSupport.class, "undefined", void.class);
+            m.op(ACONST_NULL, 1);
+            return;
+        }
+        Label defined = new Label();
+        m.local(ALOAD, VARIABLES);
+        m.pushInt(slot(name));
+        m.op(AALOAD, -1);
+        m.op(DUP, 1);
+        m.field(GETSTATIC, CompiledSupport.class, "UNDEFINED", Object.class);
+        m.jump(IF_ACMPNE, defined);
+        m.invokeStatic(CompiledSupport.class, "undefined", void.class);
+        m.place(defined);
+    }
+
+    private void unbox(Class<?> box, String method, Class<?> primitive) {
+        m.type(CHECKCAST, box);
+        m.invoke(INVOKEVIRTUAL, box, method, methodDescriptor(primitive));
+    }
+
+    private void box(Class<?> primitive) {
+        if (primitive == void.class)
+            m.op(ACONST_NULL, 1);
+        else if (primitive.isPrimitive())
+            m.invokeStatic(boxType(primitive), "valueOf", boxType(primitive), primitive);
+    }
+
+    private static Class<?> boxType(Class<?> primitive) {
+        if (primitive == int.class) return Integer.class;
+        if (primitive == long.class) return Long.class;
+        if (primitive == double.class) return Double.class;
+        if (primitive == float.class) return Float.class;
+        if (primitive == boolean.class) return Boolean.class;
+        if (primitive == char.class) return Character.class;
+        if (primitive == short.class) return Short.class;
+        return Byte.class;
+    }
+
+    private void load(int local) {
+        if (local < 0)
+            m.op(ACONST_NULL, 1);
+        else
+            m.local(ALOAD, local);
+    }
+
+    private int evaluateToLocal(Expression exp) throws UnsupportedException {
+        if (exp == null)
+            return -1;
+        expression(exp);
+        int local = m.newLocal(1);
+        m.local(ASTORE, local);
+        return local;
+    }
+
+    // Pushes Boolean.valueOf() of the result of a comparison, given the jump taken when it's false
+    private void booleanResult(int jumpIfFalse) {
+        Label isFalse = new Label(), end = new Label();
+        m.jump(jumpIfFalse, isFalse);
+        m.pushInt(1);
+        m.jump(GOTO, end);
+        m.place(isFalse);
+        m.pushInt(0);
+        m.place(end);
+        box(boolean.class);
+    }
+
+    private boolean arithmetic(int left, int right, Class<?> leftType, int intOp, int doubleOp) {
+        if (int.class.equals(leftType)) {
+            load(left);
+            unbox(Integer.class, "intValue", int.class);
+            load(right);
+            unbox(Integer.class, "intValue", int.class);
+            m.op(intOp, -1);
+            box(int.class);
+            return true;
+        } else if (doubleOp != 0 && double.class.equals(leftType)) {
+            load(left);
+            unbox(Double.class, "doubleValue", double.class);
+            load(right);
+            unbox(Double.class, "doubleValue", double.class);
+            m.op(doubleOp, -2);
+            box(double.class);
+            return true;
+        }
+        return false;
+    }
+
+    private boolean comparison(int left, int right, Class<?> leftType, int intJumpIfFalse, int doubleJumpIfFalse) {
+        if (int.class.equals(leftType)) {
+            load(left);
+            unbox(Integer.class, "intValue", int.class);
+            load(right);
+            unbox(Integer.class, "intValue", int.class);
+            booleanResult(intJumpIfFalse);
+            return true;
+        } else if (double.class.equals(leftType)) {
+            load(left);
+            unbox(Double.class, "doubleValue", double.class);
+            load(right);
+            unbox(Double.class, "doubleValue", double.class);
+            m.op(DCMPG, -3);
+            booleanResult(doubleJumpIfFalse);
+            return true;
+        }
+        return false;
+    }
+
+    private void operator(OpExpression exp) throws UnsupportedException {
+        OpExpression.Op op = exp.op();
+        int left = evaluateToLocal(exp.getLeft());
+        int right = evaluateToLocal(exp.getRight());
+        Class<?> leftType = exp.getLeft() == null ? null : exp.getLeft().getType();
+        Class<?> rightType = exp.getRight() == null ? null : exp.getRight().getType();
+        if (leftType == null && op != OpExpression.Op.NOT)
+            throw new UnsupportedException();
+
+        switch (op) {
+        case AND:
+        case OR: {
+            Label shortCircuit = new Label(), end = new Label();
+            int jump = op == OpExpression.Op.AND ? IFEQ : IFNE;
+            load(left);
+            unbox(Boolean.class, "booleanValue", boolean.class);
+            m.jump(jump, shortCircuit);
+            load(right);
+            unbox(Boolean.class, "booleanValue", boolean.class);
+            m.jump(jump, shortCircuit);
+            m.pushInt(op == OpExpression.Op.AND ? 1 : 0);
+            m.jump(GOTO, end);
+            m.place(shortCircuit);
+            m.pushInt(op == OpExpression.Op.AND ? 0 : 1);
+            m.place(end);
+            box(boolean.class);
+            return;
+        }
+        case NOT:
+            load(right);
+            unbox(Boolean.class, "booleanValue", boolean.class);
+            m.pushInt(1);
+            m.op(IXOR, -1);
+            box(boolean.class);
+            return;
+        case EQUALS:
+            load(left);
+            load(right);
+            if (leftType.isPrimitive()) {
+                m.invoke(INVOKEVIRTUAL, Object.class, "equals", methodDescriptor(boolean.class, Object.class));
+                box(boolean.class);
+            } else {
+                booleanResult(IF_ACMPNE);
+            }
+            return;
+        case LEQ:
+            if (!comparison(left, right, leftType, IF_ICMPGT, IFGT))
+                fail("evaluateOperator, case LEQ, left type: " + leftType);
+            return;
+        case LESS:
+            if (!comparison(left, right, leftType, IF_ICMPGE, IFGE))
+                fail("evaluateOperator, case LESS, left type: " + leftType);
+            return;
+        case PLUS:
+            if (arithmetic(left, right, leftType, IADD, DADD))
+                return;
+            if (rightType == null)
+                throw new UnsupportedException();
+            if (leftType.equals(String.class) || rightType.equals(String.class) || leftType.equals(Object.class) || rightType.equals(Object.class)) {
+                if (exp.getLeft() instanceof LiteralExpression && exp.getRight() instanceof LiteralExpression
+                        && ((LiteralExpression) exp.getLeft()).literal == null && ((LiteralExpression) exp.getRight()).literal == null) {
+                    m.invokeStatic(CompiledSupport.class, "addNullLiterals", Object.class);
+                } else {
+                    load(left);
+                    load(right);
+                    m.invokeStatic(CompiledSupport.class, "concat", Object.class, Object.class, Object.class);
+                }
+            } else {
+                fail("evaluateOperator, case PLUS, left type " + leftType);
+            }
+            return;
+        case MINUS:
+            if (!arithmetic(left, right, leftType, ISUB, DSUB))
+                fail("evaluateOperator, case MINUS, left type: " + leftType);
+            return;
+        case TIMES:
+            if (!arithmetic(left, right, leftType, IMUL, DMUL))
+                fail("evaluateOperator, case TIMES, left type: " + leftType);
+            return;
+        case DIV:
+            if (!arithmetic(left, right, leftType, IDIV, DDIV))
+                fail("evaluateOperator, case DIV, left type: " + leftType);
+            return;
+        case MOD:
+            if (!arithmetic(left, right, leftType, IREM, 0))
+                fail("evaluateOperator, case MOD, left type: " + leftType);
+            return;
+        default:
+            fail("evaluateOperator, unknown op case: " + op);
+        }
+    }
+
+    private void function(FuncExpression exp) throws UnsupportedException {
+        FunctionData data = exp.data;
+        int[] args = new int[exp.args.length];
+        for (int i = 0; i < args.length; i++)
+            args[i] = evaluateToLocal(exp.args[i]);
+
+        int callerObj = -1;
+        if (!data.isStatic) {
+            callerObj = evaluateToLocal(exp.callee());
+            Label nonNull = new Label();
+            m.local(ALOAD, callerObj);
+            m.jump(IFNONNULL, nonNull);
+            m.field(GETSTATIC, IncompleteRunException.class, "NULL_CALLEE", IncompleteRunException.class);
+            m.op(ATHROW, -1);
+            m.place(nonNull);
+        }
+
+        switch (data.kind) {
+        case METHOD:
+            if (!direct(data, callerObj, args))
+                break;
+            return;
+        case CONSTRUCTOR: {
+            Constructor<?> con = data.getConstructor();
+            Class<?> cls = con.getDeclaringClass();
+            if (!linkable(con, con.getParameterTypes(), void.class) || Modifier.isAbstract(cls.getModifiers()) || con.getParameterCount() != args.length)
+                break;
+            enterCall(data);
+            Label call = beginCall();
+            m.type(NEW, cls);
+            m.op(DUP, 1);
+            arguments(args, con.getParameterTypes());
+            m.invoke(INVOKESPECIAL, cls, "<init>", methodDescriptor(void.class, con.getParameterTypes()));
+            endCall(call);
+            exitCall();
+            int result = m.newLocal(1);
+            m.local(ASTORE, result);
+            checkMemory(result);
+            m.local(ALOAD, result);
+            return;
+        }
+        case FIELD: {
+            Field field = data.getField();
+            Class<?> cls = field.getDeclaringClass();
+            if (!linkable(field, new Class<?>[0], field.getType()))
+                break;
+            Label call = beginCall();
+            if (Modifier.isStatic(field.getModifiers())) {
+                m.field(GETSTATIC, cls, field.getName(), field.getType());
+            } else {
+                m.local(ALOAD, callerObj);
+                m.type(CHECKCAST, cls);
+                m.field(GETFIELD, cls, field.getName(), field.getType());
+            }
+            endCall(call);
+            box(field.getType());
+            checkGeneric(data);
+            return;
+        }
+        case ARR_GET: {
+            if (args.length != 2)
+                break;
+            Label call = beginCall();
+            load(args[0]);
+            load(args[1]);
+            unbox(Integer.class, "intValue", int.class);
+            m.invokeStatic(Array.class, "get", Object.class, Object.class, int.class);
+            endCall(call);
+            return;
+        }
+        case ARR_SET: {
+            if (args.length != 3)
+                break;
+            Label call = beginCall();
+            load(args[0]);
+            load(args[1]);
+            unbox(Integer.class, "intValue", int.class);
+            load(args[2]);
+            m.invokeStatic(Array.class, "set", void.class, Object.class, int.class, Object.class);
+            endCall(call);
+            m.op(ACONST_NULL, 1);
+            return;
+        }
+        case ARR_LEN: {
+            if (args.length != 1)
+                break;
+            Label call = beginCall();
+            load(args[0]);
+            m.invokeStatic(Array.class, "getLength", int.class, Object.class);
+            endCall(call);
+            box(int.class);
+            return;
+        }
+        default:
+            break;
+        }
+
+        // Call it the way the interpreter does
+        m.local(ALOAD, INFO);
+        constant(data);
+        m.type(CHECKCAST, FunctionData.class);
+        load(callerObj);
+        m.pushInt(args.length);
+        m.type(ANEWARRAY, Object.class);
+        for (int i = 0; i < args.length; i++) {
+            m.op(DUP, 1);
+            m.pushInt(i);
+            load(args[i]);
+            m.op(AASTORE, -3);
+        }
+        m.pushInt(sypetMode ? 1 : 0);
+        m.invokeStatic(CompiledSupport.class, "invoke", Object.class, EvaluationInfo.class, FunctionData.class, Object.class, Object[].class, boolean.class);
+    }
+
+    private boolean direct(FunctionData data, int callerObj, int[] args) {
+        Method method = data.getMethod();
+        Class<?> cls = method.getDeclaringClass();
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        if (!linkable(method, method.getParameterTypes(), method.getReturnType()) || method.getParameterCount() != args.length
+                || (isStatic && cls.isInterface()) || isStatic != data.isStatic)
+            return false;
+        enterCall(data);
+        Label call = beginCall();
+        if (!isStatic) {
+            m.local(ALOAD, callerObj);
+            m.type(CHECKCAST, cls);
+        }
+        arguments(args, method.getParameterTypes());
+        String descriptor = methodDescriptor(method.getReturnType(), method.getParameterTypes());
+        m.invoke(isStatic ? INVOKESTATIC : cls.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL, cls, method.getName(), descriptor);
+        endCall(call);
+        exitCall();
+        box(method.getReturnType());
+        int result = m.newLocal(1);
+        m.local(ASTORE, result);
+        if (data.returnsGeneric()) {
+            m.local(ALOAD, result);
+            checkGeneric(data);
+            m.op(POP, -1);
+        }
+        checkMemory(result);
+        if (!isStatic)
+            checkMemory(callerObj);
+        m.local(ALOAD, result);
+        return true;
+    }
+
+    // A direct call reports itself to the watchdog as Interpreter.invoke() does
+    private void enterCall(FunctionData data) {
+        m.local(ALOAD, INFO);
+        constant(data);
+        m.type(CHECKCAST, FunctionData.class);
+        m.invokeStatic(CompiledSupport.class, "enterCall", void.class, EvaluationInfo.class, FunctionData.class);
+    }
+
+    private void exitCall() {
+        m.local(ALOAD, INFO);
+        m.invokeStatic(CompiledSupport.class, "exitCall", void.class, EvaluationInfo.class);
+    }
+
+    // Anything thrown between beginCall() and endCall(), i.e., while converting the arguments or in the call itself, is
+    // wrapped by FunctionData.callFailed() as invoke() wraps it, so that failures are classified as in the tree engine
+    private Label beginCall() {
+        Label start = new Label();
+        m.place(start);
+        return start;
+    }
+
+    private void endCall(Label start) {
+        Label end = new Label(), handler = new Label(), after = new Label();
+        m.place(end);
+        m.jump(GOTO, after);
+        m.tryCatch(start, end, handler);
+        m.place(handler);
+        m.invokeStatic(FunctionData.class, "callFailed", InvocationTargetException.class, Throwable.class);
+        m.op(ATHROW, -1);
+        m.place(after);
+    }
+
+    // Converts the arguments for a direct call, as Method.invoke() would
+    private void arguments(int[] args, Class<?>[] types) {
+        for (int i = 0; i < args.length; i++) {
+            load(args[i]);
+            Class<?> type = types[i];
+            if (type.isPrimitive()) {
+                String name = type.getName();
+                m.invokeStatic(CompiledSupport.class, "to" + Character.toUpperCase(name.charAt(0)) + name.substring(1), type, Object.class);
+            } else if (type != Object.class) {
+                m.type(CHECKCAST, type);
+            }
+        }
+    }
+
+    // Expects the value on the stack, and leaves it there
+    private void checkGeneric(FunctionData data) {
+        if (!data.returnsGeneric())
+            return;
+        m.op(DUP, 1);
+        constant(data);
+        m.type(CHECKCAST, FunctionData.class);
+        m.invokeStatic(CompiledSupport.class, "checkGeneric", void.class, Object.class, FunctionData.class);
+    }
+
+    private void checkMemory(int local) {
+        m.local(ALOAD, local);
+        m.pushInt(sypetMode ? 1 : 0);
+        m.invokeStatic(CompiledSupport.class, "checkMemory", void.class, Object.class, boolean.class);
+    }
+
+    // Whether the generated class, in its own class loader, can link to the member without reflection's access override
+    private static boolean linkable(Member member, Class<?>[] parameterTypes, Class<?> returnType) {
+        if (!Modifier.isPublic(member.getModifiers()) || !linkable(member.getDeclaringClass()) || !linkable(returnType))
+            return false;
+        for (Class<?> type : parameterTypes)
+            if (!linkable(type))
+                return false;
+        return true;
+    }
+
+    private static boolean linkable(Class<?> cls) {
+        while (cls.isArray())
+            cls = cls.getComponentType();
+        if (cls.isPrimitive())
+            return true;
+        Boolean result = linkable.get(cls);
+        if (result == null) {
+            result = checkLinkable(cls);
+            linkable.put(cls, result);
+        }
+        return result;
+    }
+
+    private static boolean checkLinkable(Class<?> cls) {
+        for (Class<?> c = cls; c != null; c = c.getDeclaringClass())
+            if (!Modifier.isPublic(c.getModifiers()))
+                return false;
+        if (cls.isAnonymousClass() || cls.isLocalClass() || !cls.getModule().isExported(cls.getPackageName()))
+            return false;
+        try {
+            return Class.forName(cls.getName(), false, ProgramCompiler.class.getClassLoader()) == cls;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
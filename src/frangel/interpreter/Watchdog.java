@@ -0,0 +1,174 @@
+package frangel.interpreter;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import frangel.Settings;
+import frangel.model.FunctionData;
+
+// Watches the threads that run candidate programs, for component calls that don't return (e.g., a library method
+// looping forever on a strange argument). A call stuck for Settings.CALL_TIMEOUT seconds gets its component
+// quarantined for the task the thread works on (see bind()), and its thread interrupted. If the thread is still stuck
+// after another CALL_TIMEOUT, and it was started through watch(), it is abandoned: its replacement takes over, and the
+// thread itself unwinds if the call ever returns.
+public final class Watchdog {
+    private static final long POLL_MILLIS = 500;
+
+    // The state of one thread. Only calls (component calls started) and call are written on every component call.
+    static final class Slot {
+        final Thread thread;
+        private int calls;
+        private volatile FunctionData call; // being called right now, or null
+        private volatile boolean interrupted, abandoned;
+        private volatile Runnable onAbandon;
+        private volatile Set<FunctionData> quarantined; // of the task the thread works on, or null
+
+        // Only used by the watchdog thread
+        private FunctionData seenCall;
+        private int seenCalls;
+        private long seenSince;
+
+        private Slot(Thread thread) {
+            this.thread = thread;
+        }
+
+        void enter(FunctionData data) throws IncompleteRunException {
+            Set<FunctionData> q = quarantined;
+            if (q != null && !q.isEmpty() && q.contains(data))
+                throw IncompleteRunException.QUARANTINED;
+            calls++;
+            call = data; // volatile write after calls, so the watchdog sees both
+        }
+
+        void exit() {
+            call = null;
+        }
+
+        // At the end of each run: a component the watchdog gave up on may have returned after all
+        void finishRun() {
+            call = null;
+            if (interrupted) {
+                interrupted = false;
+                Thread.interrupted(); // the interrupt was meant for the component, not for the caller
+            }
+            if (abandoned)
+                throw new AbandonedError();
+        }
+    }
+
+    // Unwinds a thread that was abandoned and replaced. Jobs started by FrAngel catch it and return.
+    @SuppressWarnings("serial")
+    public static final class AbandonedError extends Error {
+        AbandonedError() {
+            super("abandoned by the watchdog", null, false, false);
+        }
+    }
+
+    private static final Map<Thread, Slot> slots = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Slot> currentSlot = new ThreadLocal<>();
+    private static Thread watchdog;
+
+    private Watchdog() {}
+
+    // The calling thread's slot, or null if the watchdog is off
+    static Slot current() {
+        if (Settings.CALL_TIMEOUT <= 0)
+            return null;
+        Slot slot = currentSlot.get();
+        if (slot == null) {
+            Thread thread = Thread.currentThread();
+            slot = new Slot(thread);
+            currentSlot.set(slot);
+            slots.put(thread, slot);
+            start();
+        }
+        return slot;
+    }
+
+    // The calling thread may be abandoned while stuck in a component call, in which case onAbandon is run (on the
+    // watchdog thread) to start its replacement. A pooled thread may have been abandoned in an earlier job, and has
+    // unwound since, so its new job starts afresh.
+    public static void watch(Runnable onAbandon) {
+        Slot slot = current();
+        if (slot != null) {
+            slot.abandoned = false;
+            slot.onAbandon = onAbandon;
+        }
+    }
+
+    public static void unwatch() {
+        Slot slot = currentSlot.get();
+        if (slot != null)
+            slot.onAbandon = null;
+    }
+
+    // The calling thread works on the task with the given quarantined components (see SynthesisTask.getQuarantined()),
+    // until bound to another, or to null
+    public static void bind(Set<FunctionData> quarantined) {
+        Slot slot = quarantined == null ? currentSlot.get() : current();
+        if (slot != null)
+            slot.quarantined = quarantined;
+    }
+
+    private static synchronized void start() {
+        if (watchdog != null)
+            return;
+        watchdog = new Thread(Watchdog::poll, "frangel-watchdog");
+        watchdog.setDaemon(true);
+        watchdog.start();
+    }
+
+    private static void poll() {
+        try {
+            while (true) {
+                Thread.sleep(POLL_MILLIS);
+                long now = System.nanoTime();
+                for (Slot slot : slots.values()) {
+                    if (!slot.thread.isAlive())
+                        slots.remove(slot.thread);
+                    else
+                        check(slot, now);
+                }
+            }
+        } catch (InterruptedException e) {
+            // only at shutdown
+        }
+    }
+
+    private static void check(Slot slot, long now) {
+        FunctionData call = slot.call;
+        int calls = slot.calls;
+        if (call == null || call != slot.seenCall || calls != slot.seenCalls) {
+            slot.seenCall = call;
+            slot.seenCalls = calls;
+            slot.seenSince = now;
+            return;
+        }
+        double stuck = (now - slot.seenSince) / 1.0e9;
+        if (stuck >= Settings.CALL_TIMEOUT && !slot.interrupted && !slot.abandoned) {
+            quarantine(slot, call, stuck);
+            slot.interrupted = true;
+            slot.thread.interrupt();
+        } else if (stuck >= 2 * Settings.CALL_TIMEOUT && !slot.abandoned) {
+            Runnable onAbandon = slot.onAbandon;
+            if (onAbandon == null)
+                return; // nothing can take over, so keep waiting
+            slot.abandoned = true;
+            System.err.println("Abandoning thread " + slot.thread.getName() + ", stuck in " + call.getSignature());
+            try {
+                onAbandon.run();
+            } catch (RuntimeException e) { // e.g., the search finished in the meantime
+                System.err.println("Could not replace thread " + slot.thread.getName() + ": " + e);
+            }
+        }
+    }
+
+    private static void quarantine(Slot slot, FunctionData data, double stuck) {
+        Set<FunctionData> quarantined = slot.quarantined;
+        if (quarantined == null)
+            System.err.printf("Component %s did not return for %.1f sec\n", data.getSignature(), stuck);
+        else if (quarantined.add(data))
+            System.err.printf("Component %s did not return for %.1f sec, quarantined for the rest of the task\n", data.getSignature(), stuck);
+    }
+}
@@ -1,9 +1,15 @@
 package frangel.model;
 
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
 
 import frangel.utils.Utils;
 
@@ -23,11 +29,47 @@ public class FunctionData implements Comparable<FunctionData> {
     private Constructor<?> constructor = null;
     private Field field = null;
 
-    private static Map<String, Integer> encodingMap = new HashMap<>();
-    private String encoding;
+    private String encodingKey; // the same for overloads with the same number of arguments
+    private String encoding; // set by the ComponentIndex holding this function
 
     private boolean valid = true;
     private boolean returnsGeneric = false;
+    private boolean pure = false;
+
+    // Classes whose methods, given immutable receivers and arguments, return values that depend only on them and change
+    // nothing. Methods inherited from Object, and the few listed in IMPURE_METHODS, are excluded.
+    private static final Set<Class<?>> PURE_CLASSES = new HashSet<>(Arrays.asList(
+            String.class, Math.class, StrictMath.class, Integer.class, Long.class, Double.class, Float.class, Short.class,
+            Byte.class, Character.class, Boolean.class, BigInteger.class, BigDecimal.class));
+    private static final Set<String> IMPURE_METHODS = new HashSet<>(Arrays.asList(
+            "random", "getInteger", "getLong", "getBoolean")); // Math.random(), and system properties
+
+    // What invoke() calls through, built by prepareInvoker(). Methods and constructors get a CallN or RunN from
+    // LambdaMetafactory, whose target is a constant to the JIT, unlike a MethodHandle read from a field. Anything else
+    // (fields, array operations, and methods a lambda can't call) gets a handle of type
+    // (Object callee, Object arg1, ..., Object argN)Object, or (Object callee, Object[] args)Object for more than
+    // MAX_EXACT_ARGS arguments.
+    private volatile boolean prepared;
+    private Object lambda;
+    private int lambdaArity; // counts an instance method's receiver, which is the lambda's first argument
+    private boolean lambdaReturns;
+    private MethodHandle invoker;
+    private static final int MAX_EXACT_ARGS = 4;
+
+    interface Call0 { Object call(); }
+    interface Call1 { Object call(Object a); }
+    interface Call2 { Object call(Object a, Object b); }
+    interface Call3 { Object call(Object a, Object b, Object c); }
+    interface Call4 { Object call(Object a, Object b, Object c, Object d); }
+    interface Call5 { Object call(Object a, Object b, Object c, Object d, Object e); }
+    interface Run0 { void run(); }
+    interface Run1 { void run(Object a); }
+    interface Run2 { void run(Object a, Object b); }
+    interface Run3 { void run(Object a, Object b, Object c); }
+    interface Run4 { void run(Object a, Object b, Object c, Object d); }
+    interface Run5 { void run(Object a, Object b, Object c, Object d, Object e); }
+    private static final Class<?>[] CALL_TYPES = {Call0.class, Call1.class, Call2.class, Call3.class, Call4.class, Call5.class};
+    private static final Class<?>[] RUN_TYPES = {Run0.class, Run1.class, Run2.class, Run3.class, Run4.class, Run5.class};
 
     private Class<?> convertGenericType(Type t, Class<?> nonGeneric, Class<?> parameterType) {
         if (t instanceof TypeVariable) {
@@ -64,7 +106,8 @@ public class FunctionData implements Comparable<FunctionData> {
         if (returns)
             returnsGeneric = !(generic instanceof Class);
         kind = Kind.METHOD;
-        setEncoding();
+        pure = PURE_CLASSES.contains(m.getDeclaringClass()) && !IMPURE_METHODS.contains(name);
+        setEncodingKey();
     }
 
     public FunctionData(Constructor<?> con, Class<?> parameterType) {
@@ -77,7 +120,7 @@ public class FunctionData implements Comparable<FunctionData> {
         isStatic = true; // don't need an existing object to call constructor
         returns = true;
         kind = Kind.CONSTRUCTOR;
-        setEncoding();
+        setEncodingKey();
     }
 
     public FunctionData(Field f, Class<?> parameterType) {
@@ -92,7 +135,7 @@ public class FunctionData implements Comparable<FunctionData> {
         isStatic = Modifier.isStatic(f.getModifiers());
         returns = true;
         kind = Kind.FIELD;
-        setEncoding();
+        setEncodingKey();
     }
 
     // Used to create special static methods (e.g., array operations)
@@ -104,23 +147,40 @@ public class FunctionData implements Comparable<FunctionData> {
         calleeClass = null;
         isStatic = true;
         returns = !returnType.equals(void.class);
-        setEncoding();
+        setEncodingKey();
     }
 
-    public static void resetEncodingMap() {
-        encodingMap = new HashMap<>();
+    private void setEncodingKey() {
+        encodingKey = kind + (calleeClass == null ? "~" : calleeClass.getCanonicalName()) + "-" + name + "-" + argTypes.length + "-" + isStatic;
     }
 
-    private void setEncoding() {
-        String encodingKey = kind + (calleeClass == null ? "~" : calleeClass.getCanonicalName()) + "-" + name + "-" + argTypes.length + "-" + isStatic;
-        if (!encodingMap.containsKey(encodingKey))
-            encodingMap.put(encodingKey, encodingMap.size());
-        int i = encodingMap.get(encodingKey);
+    public String getEncodingKey() {
+        return encodingKey;
+    }
+
+    public void setEncoding(int i) {
         encoding = Integer.toString(i, 36);
     }
 
     public void encode(StringBuilder sb) {
-        sb.append(encoding);
+        if (encoding != null)
+            sb.append(encoding);
+        else // not a component (e.g., the default value of a local variable)
+            sb.append('{').append(encodingKey).append('}');
+    }
+
+    // Identifies the function in any process, unlike the encoding, which depends on the order FunctionData are created
+    public String getSignature() {
+        return getSignature(kind, calleeClass, name, argTypes, returnType);
+    }
+
+    public static String getSignature(Kind kind, Class<?> calleeClass, String name, Class<?>[] argTypes, Class<?> returnType) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(kind).append(' ').append(calleeClass == null ? "~" : calleeClass.getName()).append(' ').append(name).append('(');
+        for (Class<?> argType : argTypes)
+            sb.append(argType.getName()).append(',');
+        sb.append(')').append(returnType.getName());
+        return sb.toString();
     }
 
     @Override
@@ -159,7 +219,7 @@ public class FunctionData implements Comparable<FunctionData> {
         final int prime = 167;
         int result = 1;
         result = prime * result + kind.hashCode();
-        result = prime * result + name.hashCode();
+        result = prime * result + (name == null ? 0 : name.hashCode());
         result = prime * result + (method == null ? 0 : method.hashCode());
         result = prime * result + (constructor == null ? 0 : constructor.hashCode());
         result = prime * result + (field == null ? 0 : field.hashCode());
@@ -190,6 +250,213 @@ public class FunctionData implements Comparable<FunctionData> {
         return returnsGeneric;
     }
 
+    // Whether calls with immutable receivers and arguments can be cached (see Interpreter.evaluateFuncExp())
+    public boolean isPure() {
+        return pure;
+    }
+
+    // Builds what invoke() calls through. ComponentIndex does this for its components before the search starts; other
+    // functions (e.g., the constructor of a default value) get it on their first call.
+    public void prepareInvoker() {
+        if (prepared)
+            return;
+        createLambda();
+        if (lambda == null)
+            invoker = createInvoker();
+        prepared = true; // racing threads create equivalent invokers
+    }
+
+    // Calls the function on evaluated arguments (callee is ignored if static). Like Method.invoke(), anything the call
+    // throws, including argument conversion failures, is wrapped in an InvocationTargetException, except errors that
+    // aren't the function's doing (see callFailed()). The array is not kept, so callers may reuse it.
+    public Object invoke(Object callee, Object[] args) throws InvocationTargetException {
+        if (!prepared)
+            prepareInvoker();
+        try {
+            Object lambda = this.lambda;
+            if (lambda != null)
+                return callLambda(lambda, callee, args);
+            MethodHandle handle = invoker;
+            switch (args.length) { // exact calls for the usual arities, without spreading the array
+            case 0:
+                return (Object) handle.invokeExact(callee);
+            case 1:
+                return (Object) handle.invokeExact(callee, args[0]);
+            case 2:
+                return (Object) handle.invokeExact(callee, args[0], args[1]);
+            case 3:
+                return (Object) handle.invokeExact(callee, args[0], args[1], args[2]);
+            case 4:
+                return (Object) handle.invokeExact(callee, args[0], args[1], args[2], args[3]);
+            default:
+                return (Object) handle.invokeExact(callee, args);
+            }
+        } catch (InvocationTargetException e) { // from invokeReflectively()
+            throw callFailed(e.getCause());
+        } catch (Throwable t) {
+            throw callFailed(t);
+        }
+    }
+
+    // How invoke() reports a failed call, also used for direct calls in compiled programs. Running out of memory and
+    // the thread being stopped propagate, since they say nothing about the call. A stack overflow is wrapped: it is
+    // usually the function's own (e.g., hashCode() of a list containing itself).
+    public static InvocationTargetException callFailed(Throwable target) {
+        if (target instanceof VirtualMachineError && !(target instanceof StackOverflowError))
+            throw (VirtualMachineError) target;
+        if (target instanceof ThreadDeath)
+            throw (ThreadDeath) target;
+        return new CallFailed(target);
+    }
+
+    // Components fail on most candidate programs, and nothing reads where from, so skip filling in the stack trace
+    @SuppressWarnings("serial")
+    private static final class CallFailed extends InvocationTargetException {
+        CallFailed(Throwable target) {
+            super(target);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
+    private Object callLambda(Object lambda, Object callee, Object[] args) {
+        boolean r = lambdaReturns;
+        switch (lambdaArity) {
+        case 0:
+            if (r)
+                return ((Call0) lambda).call();
+            ((Run0) lambda).run();
+            return null;
+        case 1:
+            if (r)
+                return ((Call1) lambda).call(arg(callee, args, 0));
+            ((Run1) lambda).run(arg(callee, args, 0));
+            return null;
+        case 2:
+            if (r)
+                return ((Call2) lambda).call(arg(callee, args, 0), arg(callee, args, 1));
+            ((Run2) lambda).run(arg(callee, args, 0), arg(callee, args, 1));
+            return null;
+        case 3:
+            if (r)
+                return ((Call3) lambda).call(arg(callee, args, 0), arg(callee, args, 1), arg(callee, args, 2));
+            ((Run3) lambda).run(arg(callee, args, 0), arg(callee, args, 1), arg(callee, args, 2));
+            return null;
+        case 4:
+            if (r)
+                return ((Call4) lambda).call(arg(callee, args, 0), arg(callee, args, 1), arg(callee, args, 2), arg(callee, args, 3));
+            ((Run4) lambda).run(arg(callee, args, 0), arg(callee, args, 1), arg(callee, args, 2), arg(callee, args, 3));
+            return null;
+        default:
+            if (r)
+                return ((Call5) lambda).call(arg(callee, args, 0), arg(callee, args, 1), arg(callee, args, 2), arg(callee, args, 3), arg(callee, args, 4));
+            ((Run5) lambda).run(arg(callee, args, 0), arg(callee, args, 1), arg(callee, args, 2), arg(callee, args, 3), arg(callee, args, 4));
+            return null;
+        }
+    }
+
+    // The i-th argument of the lambda
+    private Object arg(Object callee, Object[] args, int i) {
+        if (!isStatic)
+            return i == 0 ? callee : args[i - 1];
+        return args[i];
+    }
+
+    private void createLambda() {
+        if (kind != Kind.METHOD && kind != Kind.CONSTRUCTOR)
+            return;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle target = kind == Kind.METHOD ? lookup.unreflect(method).asFixedArity() : lookup.unreflectConstructor(constructor).asFixedArity();
+            MethodType type = target.type();
+            int arity = type.parameterCount();
+            if (arity >= CALL_TYPES.length)
+                return;
+            boolean returnsValue = type.returnType() != void.class;
+            MethodType erased = MethodType.genericMethodType(arity);
+            MethodType instantiated = type.wrap();
+            if (!returnsValue) {
+                erased = erased.changeReturnType(void.class);
+                instantiated = instantiated.changeReturnType(void.class);
+            }
+            Class<?> samType = returnsValue ? CALL_TYPES[arity] : RUN_TYPES[arity];
+            Object created = LambdaMetafactory.metafactory(lookup, returnsValue ? "call" : "run", MethodType.methodType(samType), erased, target,
+                    instantiated).getTarget().invoke();
+            lambdaArity = arity;
+            lambdaReturns = returnsValue;
+            lambda = created;
+        } catch (VirtualMachineError | ThreadDeath e) {
+            throw e;
+        } catch (Throwable t) {
+            // Not accessible, or not a direct method handle (e.g., a caller-sensitive method), so invoke() uses the handle
+        }
+    }
+
+    private MethodHandle createInvoker() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            switch (kind) {
+            case METHOD:
+                return spread(lookup.unreflect(method).asFixedArity(), !Modifier.isStatic(method.getModifiers()), method.getParameterCount());
+            case CONSTRUCTOR:
+                return spread(lookup.unreflectConstructor(constructor).asFixedArity(), false, constructor.getParameterCount());
+            case FIELD:
+                return spread(lookup.unreflectGetter(field), !Modifier.isStatic(field.getModifiers()), 0);
+            case ARR_GET:
+                return spread(MethodHandles.arrayElementGetter(argTypes[0]), false, 2);
+            case ARR_SET:
+                return spread(MethodHandles.arrayElementSetter(argTypes[0]), false, 3);
+            case ARR_LEN:
+                return spread(MethodHandles.arrayLength(argTypes[0]), false, 1);
+            default:
+                break;
+            }
+        } catch (IllegalAccessException | RuntimeException e) {
+            // Not accessible to a lookup (e.g., setAccessible() wasn't called), so keep using reflection
+        }
+        try {
+            MethodHandle reflective = lookup.findVirtual(FunctionData.class, "invokeReflectively",
+                    MethodType.methodType(Object.class, Object.class, Object[].class)).bindTo(this);
+            int numArgs = argTypes.length;
+            return numArgs > MAX_EXACT_ARGS ? reflective : reflective.asCollector(Object[].class, numArgs);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Adapts (callee, arg1, ..., argN) or (arg1, ..., argN) to the invoker's type, unboxing and casting the arguments
+    // and boxing the result (null for void)
+    private static MethodHandle spread(MethodHandle handle, boolean hasCallee, int numArgs) {
+        if (!hasCallee)
+            handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        handle = handle.asType(MethodType.genericMethodType(numArgs + 1));
+        return numArgs > MAX_EXACT_ARGS ? handle.asSpreader(Object[].class, numArgs) : handle;
+    }
+
+    @SuppressWarnings("unused") // found by createInvoker()
+    private Object invokeReflectively(Object callee, Object[] args) throws Exception {
+        switch (kind) {
+        case METHOD:
+            return method.invoke(callee, args);
+        case CONSTRUCTOR:
+            return constructor.newInstance(args);
+        case FIELD:
+            return field.get(callee);
+        case ARR_GET:
+            return Array.get(args[0], (int) args[1]);
+        case ARR_SET:
+            Array.set(args[0], (int) args[1], args[2]);
+            return null;
+        case ARR_LEN:
+            return Array.getLength(args[0]);
+        default:
+            throw new IllegalStateException("Unknown FunctionData.Kind: " + kind);
+        }
+    }
+
     private String comparisonKey;
     private String getComparisonKey() {
         if (comparisonKey != null)
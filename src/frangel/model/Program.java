@@ -4,12 +4,15 @@ package frangel.model;
 
 import java.util.*;
 
+import frangel.ComponentIndex;
+import frangel.SearchConfig;
 import frangel.Settings;
 import frangel.SynthesisTask;
 import frangel.model.expression.Expression;
 import frangel.model.generator.ExpressionGenerator;
 import frangel.model.generator.StatementGenerator;
 import frangel.model.statement.Statement;
+import frangel.utils.RandomStream;
 import frangel.utils.Utils;
 
 public class Program {
@@ -19,6 +22,8 @@ public class Program {
     public final Class<?> returnType;
     public final Map<Class<?>, Class<?>> parameterTypeMap;
     public final SynthesisTask task;
+    public final ComponentIndex components; // functions available to the generators
+    public final SearchConfig config; // size bounds for the generators
 
     private List<Statement> statements;
     private Expression returnVal; // null if doesn't return
@@ -34,6 +39,9 @@ public class Program {
 
     private boolean angelic; // whether to generate angelic conditions
 
+    // Randomness for generating and cleaning this program. Clones share it.
+    public final RandomStream rand;
+
     // Every Program has its own ExpressionGenerator and StatementGenerator, both of which have a link back to this
     public final ExpressionGenerator expressionGenerator;
     public final StatementGenerator statementGenerator;
@@ -43,8 +51,11 @@ public class Program {
     private List<Statement> statementFragments = null;
 
     // Creates a new (empty) Program
-    public Program(SynthesisTask task, boolean angelic) {
+    public Program(SynthesisTask task, ComponentIndex components, SearchConfig config, boolean angelic, RandomStream rand) {
         this.task = task;
+        this.components = components;
+        this.config = config;
+        this.rand = rand;
         name = task.getName();
         int numArgs = task.getInputTypes().length;
         argNames = new String[numArgs];
@@ -189,7 +200,7 @@ public class Program {
 
     @Override
     public Program clone() {
-        Program clone = new Program(task, angelic);
+        Program clone = new Program(task, components, config, angelic, rand);
         clone.variables.putAll(variables);
         for (Map.Entry<Class<?>, List<String>> entry : typeToVars.entrySet())
             clone.typeToVars.put(entry.getKey(), new ArrayList<>(entry.getValue()));
@@ -2,7 +2,6 @@ package frangel.model.expression;
 
 import java.util.Arrays;
 
-import frangel.Settings;
 import frangel.model.FunctionData;
 import frangel.model.Precedence;
 import frangel.utils.Utils;
@@ -189,7 +188,7 @@ public class FuncExpression extends Expression {
 	}
 
 	public String getName() {
-		return data.name(Settings.USE_SIMPLE_NAME);
+		return data.name(Utils.useSimpleName());
 	}
 
 	public Expression callee() {
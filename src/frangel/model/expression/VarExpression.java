@@ -1,9 +1,18 @@
 package frangel.model.expression;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import frangel.model.Precedence;
 
 public class VarExpression extends Expression {
+    // Every variable name gets a slot number, the same in every program, so interpreter environments can be arrays
+    private static final Map<String, Integer> slots = new ConcurrentHashMap<>();
+    private static final AtomicInteger numSlots = new AtomicInteger();
+
     private String name;
+    private int slot = -1; // looked up on first use
 
     public VarExpression(String name, Class<?> type) {
         this.name = name;
@@ -50,5 +59,22 @@ public class VarExpression extends Expression {
 
     public void setName(String name) {
         this.name = name;
+        slot = -1;
+    }
+
+    public int getSlot() {
+        int s = slot;
+        if (s < 0)
+            slot = s = slotOf(name);
+        return s;
+    }
+
+    public static int slotOf(String name) {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : slots.computeIfAbsent(name, n -> numSlots.getAndIncrement());
+    }
+
+    public static int numSlots() {
+        return numSlots.get();
     }
 }
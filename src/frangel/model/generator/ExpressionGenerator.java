@@ -4,14 +4,12 @@ package frangel.model.generator;
 
 import java.util.*;
 
-import frangel.JavaFunctionLoader;
 import frangel.Settings;
 import frangel.model.FunctionData;
 import frangel.model.Program;
 import frangel.model.expression.*;
 import frangel.model.expression.OpExpression.Op;
 import frangel.utils.ProgramUtils;
-import frangel.utils.Utils;
 
 public class ExpressionGenerator {
     public enum ExpCategory { FUNC, OP, LIT, VAR }
@@ -32,13 +30,13 @@ public class ExpressionGenerator {
         if (exp == null)
             return null;
         if (exp.getType().equals(int.class) && (exp instanceof LiteralExpression || exp instanceof VarExpression)
-                && Utils.randBoolean(Settings.PROB_REPLACE_WITH_LOOPVAR)) {
+                && program.rand.nextBoolean(Settings.PROB_REPLACE_WITH_LOOPVAR)) {
             List<String> loopVarsInScope = new ArrayList<>(program.getLoopVars());
             loopVarsInScope.retainAll(program.getInScope());
             if (!loopVarsInScope.isEmpty())
-                return new OpExpression(Op.PLUS, new VarExpression(Utils.randElement(loopVarsInScope), int.class), exp);
+                return new OpExpression(Op.PLUS, new VarExpression(program.rand.element(loopVarsInScope), int.class), exp);
         }
-        if (Utils.randBoolean(Settings.GEN_SIMILAR_PROB_NEW)) {
+        if (program.rand.nextBoolean(Settings.GEN_SIMILAR_PROB_NEW)) {
             return genAnyExp(size, exp.getType(), true); // disable fragments
         } else {
             return genSimilarExpression(exp);
@@ -84,7 +82,7 @@ public class ExpressionGenerator {
 
     public Expression genAnyExp(int size, Class<?> type, boolean disableFragments) {
         ExpCategory[] categories =
-                Settings.SYPET_MODE ? new ExpCategory[] {ExpCategory.FUNC, ExpCategory.VAR} :
+                program.task.isSyPetMode() ? new ExpCategory[] {ExpCategory.FUNC, ExpCategory.VAR} :
                     new ExpCategory[] {ExpCategory.FUNC, ExpCategory.OP, ExpCategory.VAR, ExpCategory.LIT};
                 return genExp(size, type, categories, disableFragments);
     }
@@ -95,12 +93,12 @@ public class ExpressionGenerator {
         if (size <= 0)
             return null;
 
-        if (!disableFragments && program.useFragments() && program.getExpressionFragments() != null && Utils.randBoolean()) {
+        if (!disableFragments && program.useFragments() && program.getExpressionFragments() != null && program.rand.nextBoolean()) {
             List<Expression> list = program.getExpressionFragments().get(type);
             if (list != null && !list.isEmpty()) {
-                Expression randElement = Utils.randElement(list).clone();
+                Expression randElement = program.rand.element(list).clone();
                 ProgramUtils.makeVarsCompatible(randElement, new HashMap<>(), program);
-                if (Utils.randBoolean())
+                if (program.rand.nextBoolean())
                     return randElement;
                 Expression similar = genSimilarExpression(randElement);
                 if (similar != null)
@@ -108,7 +106,7 @@ public class ExpressionGenerator {
             }
         }
 
-        Utils.shuffle(categories);
+        program.rand.shuffle(categories);
         for (ExpCategory category : categories) {
             Expression exp = null;
             switch (category) {
@@ -131,7 +129,7 @@ public class ExpressionGenerator {
         List<FunctionData> dataList = null;
         boolean calledFromVar = false;
         if (type.equals(void.class)) {
-            int choice = Utils.randInt(3);
+            int choice = program.rand.nextInt(3);
             if (choice == 0) {
                 // Choose a void-returning method callable by some variable in scope
                 Set<Class<?>> callableClasses = new HashSet<>();
@@ -143,16 +141,16 @@ public class ExpressionGenerator {
                     if (!cls.isPrimitive() && !cls.isArray())
                         callableClasses.add(cls);
                 }
-                dataList = JavaFunctionLoader.getCallableVoidMethods(callableClasses);
+                dataList = program.components.getCallableVoidMethods(callableClasses);
                 if (dataList != null && !dataList.isEmpty())
                     calledFromVar = true;
             } else if (choice == 1) {
-                dataList = JavaFunctionLoader.getFunctionsByReturnType(void.class); // Void-returning methods
+                dataList = program.components.getFunctionsByReturnType(void.class); // Void-returning methods
             }
             if (dataList == null || dataList.isEmpty())
-                dataList = JavaFunctionLoader.getAllMethods(); // No return type required, but can still use a function that returns something
+                dataList = program.components.getAllMethods(); // No return type required, but can still use a function that returns something
         } else {
-            dataList = JavaFunctionLoader.getFunctionsByReturnType(type);
+            dataList = program.components.getFunctionsByReturnType(type);
         }
         if (dataList == null || dataList.isEmpty())
             return null;
@@ -161,19 +159,22 @@ public class ExpressionGenerator {
         if (calledFromVar) {
             calledFrom = new ExpCategory[] {ExpCategory.VAR};
         } else {
-            calledFrom = Settings.SYPET_MODE ? new ExpCategory[] {ExpCategory.FUNC, ExpCategory.VAR} :
+            calledFrom = program.task.isSyPetMode() ? new ExpCategory[] {ExpCategory.FUNC, ExpCategory.VAR} :
                 new ExpCategory[] {ExpCategory.FUNC, ExpCategory.VAR, ExpCategory.LIT};
         }
 
+        Set<FunctionData> quarantined = program.task.getQuarantined();
         for (int i = 0; i < Settings.GEN_FUNCTION_TRIES; i++) {
-            FunctionData data = Utils.randElement(dataList);
+            FunctionData data = program.rand.element(dataList);
+            if (!quarantined.isEmpty() && quarantined.contains(data))
+                continue;
 
             int numPartitions = data.argTypes.length;
             if (!data.isStatic)
                 numPartitions++;
             int[] sizes = null;
             if (numPartitions > 0) {
-                sizes = Utils.randPartition(size - 1, numPartitions, Settings.MIN_EXP_SIZE);
+                sizes = program.rand.partition(size - 1, numPartitions, Settings.MIN_EXP_SIZE);
                 if (sizes == null)
                     continue;
             }
@@ -209,7 +210,7 @@ public class ExpressionGenerator {
     }
 
     public OpExpression genOpExp(int size, Class<?> type, Op op, boolean disableFragments) {
-        int[] sizes = Utils.randPartition(size - 1, 2, Settings.MIN_EXP_SIZE);
+        int[] sizes = program.rand.partition(size - 1, 2, Settings.MIN_EXP_SIZE);
         if (sizes == null)
             return null;
 
@@ -220,7 +221,7 @@ public class ExpressionGenerator {
         if (type.equals(String.class)) {
             // Allow String + (String | char) and vice versa
             op = Op.PLUS;
-            if (Utils.randBoolean()) {
+            if (program.rand.nextBoolean()) {
                 leftChoices = new Class<?>[] {String.class, char.class};
                 rightType = String.class;
             } else {
@@ -229,7 +230,7 @@ public class ExpressionGenerator {
             }
         } else if (type.equals(boolean.class)) {
             if (op == null)
-                op = Utils.randElement(new Op[] {Op.EQUALS, Op.AND, Op.OR, Op.LESS, Op.LEQ, Op.NOT});
+                op = program.rand.element(new Op[] {Op.EQUALS, Op.AND, Op.OR, Op.LESS, Op.LEQ, Op.NOT});
             operandsSameType = true;
             if (op == Op.EQUALS)
                 leftChoices = new Class<?>[] {int.class, double.class, boolean.class, char.class, Object.class};
@@ -239,11 +240,11 @@ public class ExpressionGenerator {
                         leftType = rightType = boolean.class;
         } else if (type.equals(int.class)) {
             if (op == null)
-                op = Utils.randElement(new Op[] {Op.PLUS, Op.MINUS, Op.TIMES, Op.DIV, Op.MOD});
+                op = program.rand.element(new Op[] {Op.PLUS, Op.MINUS, Op.TIMES, Op.DIV, Op.MOD});
             leftType = rightType = type;
         } else if (type.equals(double.class)) {
             if (op == null)
-                op = Utils.randElement(new Op[] {Op.PLUS, Op.MINUS, Op.TIMES, Op.DIV});
+                op = program.rand.element(new Op[] {Op.PLUS, Op.MINUS, Op.TIMES, Op.DIV});
             leftType = rightType = type;
         } else {
             return null;
@@ -252,7 +253,7 @@ public class ExpressionGenerator {
         Expression left = null, right = null;
         if (leftType == null) {
             // Try choices in random order until one works
-            Utils.shuffle(leftChoices);
+            program.rand.shuffle(leftChoices);
             for (Class<?> choice : leftChoices) {
                 left = genAnyExp(sizes[0], choice, disableFragments);
                 if (left != null) {
@@ -268,7 +269,7 @@ public class ExpressionGenerator {
             return null; // None of the specified types work
 
         if (rightType == null) {
-            Utils.shuffle(rightChoices);
+            program.rand.shuffle(rightChoices);
             for (Class<?> choice : rightChoices) {
                 right = genAnyExp(sizes[1], choice, disableFragments);
                 if (right != null)
@@ -314,18 +315,18 @@ public class ExpressionGenerator {
             if (type.isAssignableFrom(entry.getKey()))
                 choices.addAll(entry.getValue());
         if (choices.size() == 0) {
-            if (!type.isPrimitive() && Utils.randBoolean(0.1))
+            if (!type.isPrimitive() && program.rand.nextBoolean(0.1))
                 return new LiteralExpression(null, type); // null as an object literal is very rarely correct
             return null;
         }
-        return new LiteralExpression(Utils.randElement(choices), type);
+        return new LiteralExpression(program.rand.element(choices), type);
     }
 
     public VarExpression genVarExp(int size, Class<?> type) {
         List<String> list = new ArrayList<>();
         for (String var : program.getInScope()) {
             Class<?> varType = program.getVariables().get(var);
-            if (Settings.SYPET_MODE && Settings.HARDCODE_POLYMORPHISM && Settings.POLYMORPHISM_MAP.containsKey(type)) {
+            if (program.task.isSyPetMode() && Settings.HARDCODE_POLYMORPHISM && Settings.POLYMORPHISM_MAP.containsKey(type)) {
                 if (varType.equals(type) || Settings.POLYMORPHISM_MAP.get(type).contains(varType))
                     list.add(var);
             } else if (type.isAssignableFrom(varType)) {
@@ -334,7 +335,7 @@ public class ExpressionGenerator {
         }
         if (list.isEmpty())
             return null;
-        String name = Utils.randElement(list);
+        String name = program.rand.element(list);
         return new VarExpression(name, program.getVariables().get(name));
     }
 }
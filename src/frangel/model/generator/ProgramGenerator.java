@@ -3,23 +3,31 @@ package frangel.model.generator;
 import java.util.List;
 import java.util.Map;
 
+import frangel.ComponentIndex;
+import frangel.SearchConfig;
 import frangel.Settings;
 import frangel.SynthesisTask;
 import frangel.model.Program;
 import frangel.model.expression.Expression;
 import frangel.model.statement.Statement;
 import frangel.utils.TimeLogger;
-import frangel.utils.Utils;
+import frangel.utils.RandomStream;
 
 public class ProgramGenerator {
 
     private final SynthesisTask task;
+    private final ComponentIndex components;
+    private final SearchConfig config;
+    private final RandomStream rand;
 
     private Map<Class<?>, List<Expression>> expressionFragments;
     private List<Statement> statementFragments;
 
-    public ProgramGenerator(SynthesisTask task) {
+    public ProgramGenerator(SynthesisTask task, ComponentIndex components, SearchConfig config, RandomStream rand) {
         this.task = task;
+        this.components = components;
+        this.config = config;
+        this.rand = rand;
         expressionFragments = null;
         statementFragments = null;
     }
@@ -35,16 +43,16 @@ public class ProgramGenerator {
         Program p;
 
         while (true) {
-            p = new Program(task, angelic);
+            p = new Program(task, components, config, angelic, rand.split()); // the program owns its randomness, so it can move between threads
             p.useFragments(expressionFragments, statementFragments);
 
-            int size = Utils.randInt(Settings.MIN_SIZE, Settings.MAX_SIZE + 1);
-            int numLocalVars = Utils.randInt(1, Settings.MAX_LOCAL_VARS + 1);
+            int size = rand.nextInt(Settings.MIN_SIZE, config.maxSize + 1);
+            int numLocalVars = rand.nextInt(1, Settings.MAX_LOCAL_VARS + 1);
             size -= numLocalVars;
             int returnSize = 0;
             int bodySize = size;
             if (p.returns()) {
-                returnSize = Utils.randInt(Settings.MIN_EXP_SIZE, size + 1);
+                returnSize = rand.nextInt(Settings.MIN_EXP_SIZE, size + 1);
                 bodySize = size - returnSize;
             }
 
@@ -65,10 +73,10 @@ public class ProgramGenerator {
             return;
         for (int i = 0; i < numVars; i++) {
             Class<?> cls;
-            if (!task.getOutputType().equals(void.class) && !task.getOutputType().equals(Object.class) && Utils.randBoolean())
+            if (!task.getOutputType().equals(void.class) && !task.getOutputType().equals(Object.class) && rand.nextBoolean())
                 cls = task.getOutputType();
             else
-                cls = Utils.randElement(task.getClassesCachedArray());
+                cls = rand.element(task.getClassesCachedArray());
             String name = p.getFreshLocalVar();
             p.addLocalVar(name, cls);
             p.addToScope(name);
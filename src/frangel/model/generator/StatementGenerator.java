@@ -4,7 +4,7 @@ package frangel.model.generator;
 
 import java.util.*;
 
-import frangel.JavaFunctionLoader;
+import frangel.ComponentIndex;
 import frangel.Settings;
 import frangel.model.FunctionData;
 import frangel.model.Program;
@@ -32,7 +32,7 @@ public class StatementGenerator {
     }
 
     public Statement newOrSimilar(Statement s, int size, int indent) {
-        if (Utils.randBoolean(Settings.GEN_SIMILAR_PROB_NEW)) {
+        if (program.rand.nextBoolean(Settings.GEN_SIMILAR_PROB_NEW)) {
             return genStatement(size, indent, true); // disable fragments
         } else {
             return genSimilarStatement(s, indent);
@@ -45,7 +45,7 @@ public class StatementGenerator {
         if (s instanceof VarAssignment) {
             VarAssignment v = (VarAssignment) s;
             VarExpression var;
-            if (Utils.randBoolean(Settings.GEN_SIMILAR_PROB_NEW))
+            if (program.rand.nextBoolean(Settings.GEN_SIMILAR_PROB_NEW))
                 var = expGen.genVarExp(1, v.var.getType());
             else
                 var = (VarExpression) expGen.genSimilarExpression(v.var);
@@ -119,14 +119,14 @@ public class StatementGenerator {
     // A block could have zero statements if generating statements always fails
     List<Statement> genBlock(int size, int indent) {
         List<Statement> block = new ArrayList<>();
-        int maxStatements = Math.min(size / Settings.MIN_STATEMENT_SIZE, Settings.MAX_BLOCK_SIZE);
+        int maxStatements = Math.min(size / Settings.MIN_STATEMENT_SIZE, program.config.maxBlockSize);
         if (maxStatements == 0)
             return block;
-        int numStatements = 1 + Utils.randInt(maxStatements);
+        int numStatements = 1 + program.rand.nextInt(maxStatements);
         size = Math.max(numStatements * Settings.MIN_STATEMENT_SIZE, size); // Increase size if it's below the minimum possible
-        int[] sizes = Utils.randPartition(size, numStatements, Settings.MIN_STATEMENT_SIZE);
+        int[] sizes = program.rand.partition(size, numStatements, Settings.MIN_STATEMENT_SIZE);
         for (int i = 0; i < numStatements; i++) {
-            boolean disableFragments = Utils.randBoolean();
+            boolean disableFragments = program.rand.nextBoolean();
             Statement s = genStatement(sizes[i], indent, disableFragments);
             if (s != null)
                 block.add(s);
@@ -136,7 +136,7 @@ public class StatementGenerator {
 
     public Statement genStatement(int size, int indent, boolean disableFragments) {
         StatementCategory[] categories =
-                Settings.SYPET_MODE ? new StatementCategory[] {StatementCategory.ASSIGN, StatementCategory.FUNC} :
+                program.task.isSyPetMode() ? new StatementCategory[] {StatementCategory.ASSIGN, StatementCategory.FUNC} :
                     new StatementCategory[] {StatementCategory.ASSIGN, StatementCategory.FUNC, StatementCategory.FOR, StatementCategory.FOREACH, StatementCategory.IF};
                 return genStatement(size, categories, indent, disableFragments);
     }
@@ -146,17 +146,17 @@ public class StatementGenerator {
             return null;
 
         List<Statement> list = program.getStatementFragments();
-        if (!disableFragments && program.useFragments() && list != null && !list.isEmpty() && Utils.randBoolean()) {
-            Statement randElement = Utils.randElement(list).clone();
+        if (!disableFragments && program.useFragments() && list != null && !list.isEmpty() && program.rand.nextBoolean()) {
+            Statement randElement = program.rand.element(list).clone();
             ProgramUtils.makeVarsCompatible(randElement, new HashMap<>(), program);
-            if (Utils.randBoolean())
+            if (program.rand.nextBoolean())
                 return randElement;
             Statement similar = genSimilarStatement(randElement, indent);
             if (similar != null)
                 return similar;
         }
 
-        Utils.shuffle(categories);
+        program.rand.shuffle(categories);
         for (StatementCategory category : categories) {
             Statement s = null;
             switch (category) {
@@ -182,7 +182,7 @@ public class StatementGenerator {
         mutable.addAll(program.argVars);
         if (mutable.isEmpty())
             return null;
-        String name = Utils.randElement(mutable);
+        String name = program.rand.element(mutable);
         Class<?> type = program.getVariables().get(name);
         Expression value = program.expressionGenerator.genAnyExp(size - 2, type, disableFragments);
         if (value == null)
@@ -213,7 +213,7 @@ public class StatementGenerator {
 
         if (!program.isAngelic()) {
             int maxCondSize = Math.min(Settings.MAX_LOOP_COND_SIZE, size - 1 - Settings.MIN_STATEMENT_SIZE);
-            conditionSize = Utils.randInt(Settings.MIN_LOOP_COND_SIZE, maxCondSize + 1);
+            conditionSize = program.rand.nextInt(Settings.MIN_LOOP_COND_SIZE, maxCondSize + 1);
             ExpCategory[] noLiteral = new ExpCategory[] {ExpCategory.FUNC, ExpCategory.OP, ExpCategory.VAR};
             condition = program.expressionGenerator.genExp(conditionSize, boolean.class, noLiteral, true);
             if (condition == null) {
@@ -244,7 +244,7 @@ public class StatementGenerator {
             this.containerType = containerType;
             this.elemType = elemType;
         }
-        Expression getExpression() {
+        Expression getExpression(ComponentIndex components) {
             VarExpression containerExp = new VarExpression(containerName, containerType);
             switch (kind) {
             case ARRAY:
@@ -254,7 +254,7 @@ public class StatementGenerator {
             case ITERABLE:
                 return containerExp;
             case MAP:
-                FunctionData data = JavaFunctionLoader.getKeySetData();
+                FunctionData data = components.getKeySetData();
                 if (data != null)
                     return new FuncExpression(new Expression[0], containerExp, data);
                 else
@@ -300,7 +300,7 @@ public class StatementGenerator {
         }
         if (containers.isEmpty())
             return null;
-        Container container = Utils.randElement(containers);
+        Container container = program.rand.element(containers);
 
         String varName = program.getFreshElemVar();
         program.addElemVar(varName, container.elemType);
@@ -312,7 +312,7 @@ public class StatementGenerator {
         if (body.isEmpty())
             return null;
 
-        ForEachLoop ret = new ForEachLoop(container.elemType, varName, container.getExpression(), body, indent);
+        ForEachLoop ret = new ForEachLoop(container.elemType, varName, container.getExpression(program.components), body, indent);
         return ret;
     }
 
@@ -325,7 +325,7 @@ public class StatementGenerator {
 
         if (!program.isAngelic()) {
             int maxCondSize = Math.min(Settings.MAX_IF_COND_SIZE, size - 1 - Settings.MIN_STATEMENT_SIZE);
-            conditionSize = Utils.randInt(Settings.MIN_IF_COND_SIZE, maxCondSize + 1);
+            conditionSize = program.rand.nextInt(Settings.MIN_IF_COND_SIZE, maxCondSize + 1);
             ExpCategory[] noLiteral = new ExpCategory[] {ExpCategory.FUNC, ExpCategory.OP, ExpCategory.VAR};
             condition = program.expressionGenerator.genExp(conditionSize, boolean.class, noLiteral, true);
             if (condition == null)
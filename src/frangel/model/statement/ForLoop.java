@@ -4,10 +4,12 @@ import java.util.ArrayList;
 import java.util.List;
 
 import frangel.model.expression.Expression;
+import frangel.model.expression.VarExpression;
 import frangel.utils.Utils;
 
 public class ForLoop extends Statement {
     private String varName;
+    private int varSlot = -1;
     private Expression condition;
     public final List<Statement> body;
     private Expression rememberedCondition;
@@ -145,6 +147,14 @@ public class ForLoop extends Statement {
 
     public void setVarName(String varName) {
         this.varName = varName;
+        varSlot = -1;
+    }
+
+    public int getVarSlot() { // see VarExpression.slotOf()
+        int s = varSlot;
+        if (s < 0)
+            varSlot = s = VarExpression.slotOf(varName);
+        return s;
     }
 
     public boolean isWhileLoop() {
@@ -0,0 +1,362 @@
+// Converts Programs to and from bytes that another process can decode (see FragmentExchange).
+// Functions are identified by signature and literals by value, so nothing depends on the order objects were created
+// in this process. Decoding needs the same task, and fails (returns null) if a function or class can't be found.
+
+package frangel.utils;
+
+import java.io.*;
+import java.util.*;
+
+import frangel.ComponentIndex;
+import frangel.SearchConfig;
+import frangel.Settings;
+import frangel.SynthesisTask;
+import frangel.model.FunctionData;
+import frangel.model.Program;
+import frangel.model.expression.*;
+import frangel.model.statement.*;
+
+public class ProgramCodec {
+
+    // Thrown while encoding a literal that can't be written by value or found in the task's literals
+    @SuppressWarnings("serial")
+    private static class UnencodableException extends Exception {
+        UnencodableException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    // Null if the program contains something that can't be encoded
+    public static byte[] encode(Program p, SynthesisTask task) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            Set<String> localVars = new TreeSet<>(p.getLocalVars().keySet());
+            out.writeInt(localVars.size());
+            for (String name : localVars) {
+                out.writeUTF(name);
+                writeClass(out, p.getVariables().get(name));
+                writeExpression(out, p.getLocalVars().get(name), task);
+            }
+            Set<String> loopVars = new TreeSet<>(p.getLoopVars());
+            out.writeInt(loopVars.size());
+            for (String name : loopVars) {
+                out.writeUTF(name);
+                out.writeBoolean(p.getLoopVarsDeclaredInLoop().contains(name));
+            }
+            writeStatements(out, p.getStatements(), task);
+            out.writeBoolean(p.getReturnVal() != null);
+            if (p.getReturnVal() != null)
+                writeExpression(out, p.getReturnVal(), task);
+        } catch (IOException | UnencodableException e) {
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+
+    // Null if the bytes don't describe a program for this task and these components
+    public static Program decode(byte[] bytes, SynthesisTask task, ComponentIndex components, SearchConfig config, RandomStream rand) {
+        Program p = new Program(task, components, config, false, rand);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int numLocalVars = in.readInt();
+            for (int i = 0; i < numLocalVars; i++) {
+                String name = in.readUTF();
+                p.addLocalVar(name, readClass(in));
+                p.addToScope(name);
+                p.localVars.put(name, readExpression(in, p));
+            }
+            int numLoopVars = in.readInt();
+            for (int i = 0; i < numLoopVars; i++) {
+                String name = in.readUTF();
+                p.addLoopVar(name);
+                if (in.readBoolean())
+                    p.declareLoopVarInLoop(name);
+            }
+            p.setStatements(readStatements(in, p));
+            if (in.readBoolean())
+                p.setReturnVal(readExpression(in, p));
+        } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+            if (Settings.VERBOSE > 0)
+                System.err.println("Could not decode fragment program: " + e);
+            return null;
+        }
+        ProgramUtils.resetIndents(p);
+        return p;
+    }
+
+    private static void writeStatements(DataOutputStream out, List<Statement> statements, SynthesisTask task) throws IOException, UnencodableException {
+        out.writeInt(statements.size());
+        for (Statement s : statements)
+            writeStatement(out, s, task);
+    }
+
+    private static void writeStatement(DataOutputStream out, Statement s, SynthesisTask task) throws IOException, UnencodableException {
+        if (s instanceof VarAssignment) {
+            VarAssignment v = (VarAssignment) s;
+            out.writeByte('A');
+            writeExpression(out, v.var, task);
+            writeExpression(out, v.getValue(), task);
+        } else if (s instanceof FuncStatement) {
+            out.writeByte('C');
+            writeExpression(out, ((FuncStatement) s).func, task);
+        } else if (s instanceof IfStatement) {
+            IfStatement i = (IfStatement) s;
+            out.writeByte('I');
+            writeCondition(out, i.getCondition(), task);
+            writeStatements(out, i.body, task);
+        } else if (s instanceof ForLoop) {
+            ForLoop f = (ForLoop) s;
+            out.writeByte('L');
+            out.writeUTF(f.getVarName());
+            out.writeBoolean(f.isVarLocal());
+            out.writeBoolean(f.isWhileLoop());
+            writeCondition(out, f.getCondition(), task);
+            writeStatements(out, f.body, task);
+        } else if (s instanceof ForEachLoop) {
+            ForEachLoop f = (ForEachLoop) s;
+            out.writeByte('E');
+            writeClass(out, f.varType);
+            out.writeUTF(f.getVarName());
+            writeExpression(out, f.container, task);
+            writeStatements(out, f.body, task);
+        } else {
+            throw new UnencodableException("Unknown statement class: " + s.getClass());
+        }
+    }
+
+    // Angelic conditions are null
+    private static void writeCondition(DataOutputStream out, Expression condition, SynthesisTask task) throws IOException, UnencodableException {
+        out.writeBoolean(condition != null);
+        if (condition != null)
+            writeExpression(out, condition, task);
+    }
+
+    private static void writeExpression(DataOutputStream out, Expression e, SynthesisTask task) throws IOException, UnencodableException {
+        if (e instanceof VarExpression) {
+            out.writeByte('V');
+            out.writeUTF(((VarExpression) e).getName());
+            writeClass(out, e.getType());
+        } else if (e instanceof LiteralExpression) {
+            out.writeByte('L');
+            writeLiteral(out, ((LiteralExpression) e).literal, task);
+            writeClass(out, e.getType());
+        } else if (e instanceof OpExpression) {
+            OpExpression o = (OpExpression) e;
+            out.writeByte('O');
+            out.writeUTF(o.op().name());
+            out.writeBoolean(o.getLeft() != null);
+            if (o.getLeft() != null)
+                writeExpression(out, o.getLeft(), task);
+            writeExpression(out, o.getRight(), task);
+        } else if (e instanceof FuncExpression) {
+            FuncExpression f = (FuncExpression) e;
+            FunctionData data = f.data;
+            out.writeByte('F');
+            out.writeUTF(data.kind.name());
+            out.writeBoolean(data.calleeClass != null);
+            if (data.calleeClass != null)
+                writeClass(out, data.calleeClass);
+            out.writeBoolean(data.name != null);
+            if (data.name != null)
+                out.writeUTF(data.name);
+            out.writeInt(data.argTypes.length);
+            for (Class<?> argType : data.argTypes)
+                writeClass(out, argType);
+            writeClass(out, data.returnType);
+            out.writeBoolean(f.callee() != null);
+            if (f.callee() != null)
+                writeExpression(out, f.callee(), task);
+            out.writeInt(f.args.length);
+            for (Expression arg : f.args)
+                writeExpression(out, arg, task);
+        } else {
+            throw new UnencodableException("Unknown expression class: " + e.getClass());
+        }
+    }
+
+    private static void writeLiteral(DataOutputStream out, Object literal, SynthesisTask task) throws IOException, UnencodableException {
+        if (literal == null) {
+            out.writeByte('n');
+        } else if (literal instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) literal);
+        } else if (literal instanceof Integer) {
+            out.writeByte('I');
+            out.writeInt((Integer) literal);
+        } else if (literal instanceof Long) {
+            out.writeByte('J');
+            out.writeLong((Long) literal);
+        } else if (literal instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) literal);
+        } else if (literal instanceof Float) {
+            out.writeByte('F');
+            out.writeFloat((Float) literal);
+        } else if (literal instanceof Short) {
+            out.writeByte('S');
+            out.writeShort((Short) literal);
+        } else if (literal instanceof Byte) {
+            out.writeByte('B');
+            out.writeByte((Byte) literal);
+        } else if (literal instanceof Character) {
+            out.writeByte('C');
+            out.writeChar((Character) literal);
+        } else if (literal instanceof String) {
+            out.writeByte('T');
+            out.writeUTF((String) literal);
+        } else {
+            // Some other immutable object, which must be one of the task's literals
+            for (Map.Entry<Class<?>, List<Object>> entry : task.getLiterals().entrySet()) {
+                int index = entry.getValue().indexOf(literal);
+                if (index >= 0) {
+                    out.writeByte('X');
+                    writeClass(out, entry.getKey());
+                    out.writeInt(index);
+                    return;
+                }
+            }
+            throw new UnencodableException("Literal not found in task: " + literal);
+        }
+    }
+
+    private static void writeClass(DataOutputStream out, Class<?> cls) throws IOException {
+        out.writeUTF(cls.getName());
+    }
+
+    private static List<Statement> readStatements(DataInputStream in, Program p) throws IOException, ReflectiveOperationException {
+        int n = in.readInt();
+        List<Statement> statements = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            statements.add(readStatement(in, p));
+        return statements;
+    }
+
+    private static Statement readStatement(DataInputStream in, Program p) throws IOException, ReflectiveOperationException {
+        char tag = (char) in.readByte();
+        switch (tag) {
+        case 'A':
+            return new VarAssignment((VarExpression) readExpression(in, p), readExpression(in, p), 0);
+        case 'C':
+            return new FuncStatement((FuncExpression) readExpression(in, p), 0);
+        case 'I': {
+            Expression condition = readCondition(in, p);
+            return new IfStatement(condition, readStatements(in, p), 0);
+        }
+        case 'L': {
+            String varName = in.readUTF();
+            boolean varLocal = in.readBoolean();
+            boolean whileLoop = in.readBoolean();
+            Expression condition = readCondition(in, p);
+            ForLoop f = new ForLoop(varName, condition, readStatements(in, p), 0);
+            f.setVarLocal(varLocal);
+            f.setWhileLoop(whileLoop);
+            return f;
+        }
+        case 'E': {
+            Class<?> varType = readClass(in);
+            String varName = in.readUTF();
+            p.addElemVar(varName, varType);
+            Expression container = readExpression(in, p);
+            return new ForEachLoop(varType, varName, container, readStatements(in, p), 0);
+        }
+        default:
+            throw new IOException("Unknown statement tag: " + tag);
+        }
+    }
+
+    private static Expression readCondition(DataInputStream in, Program p) throws IOException, ReflectiveOperationException {
+        return in.readBoolean() ? readExpression(in, p) : null;
+    }
+
+    private static Expression readExpression(DataInputStream in, Program p) throws IOException, ReflectiveOperationException {
+        char tag = (char) in.readByte();
+        switch (tag) {
+        case 'V': {
+            String name = in.readUTF();
+            return new VarExpression(name, readClass(in));
+        }
+        case 'L': {
+            Object literal = readLiteral(in, p.task);
+            return new LiteralExpression(literal, readClass(in));
+        }
+        case 'O': {
+            OpExpression.Op op = OpExpression.Op.valueOf(in.readUTF());
+            Expression left = in.readBoolean() ? readExpression(in, p) : null;
+            return new OpExpression(op, left, readExpression(in, p));
+        }
+        case 'F': {
+            FunctionData data = readFunction(in, p);
+            Expression callee = in.readBoolean() ? readExpression(in, p) : null;
+            Expression[] args = new Expression[in.readInt()];
+            for (int i = 0; i < args.length; i++)
+                args[i] = readExpression(in, p);
+            return new FuncExpression(args, callee, data);
+        }
+        default:
+            throw new IOException("Unknown expression tag: " + tag);
+        }
+    }
+
+    private static FunctionData readFunction(DataInputStream in, Program p) throws IOException, ReflectiveOperationException {
+        FunctionData.Kind kind = FunctionData.Kind.valueOf(in.readUTF());
+        Class<?> calleeClass = in.readBoolean() ? readClass(in) : null;
+        String name = in.readBoolean() ? in.readUTF() : null;
+        Class<?>[] argTypes = new Class<?>[in.readInt()];
+        for (int i = 0; i < argTypes.length; i++)
+            argTypes[i] = readClass(in);
+        Class<?> returnType = readClass(in);
+
+        FunctionData data = p.components.getBySignature(FunctionData.getSignature(kind, calleeClass, name, argTypes, returnType));
+        if (data != null)
+            return data;
+        switch (kind) {
+        case ARR_GET:
+        case ARR_SET:
+        case ARR_LEN:
+            return new FunctionData(returnType, argTypes, kind);
+        case CONSTRUCTOR: // e.g., the default value of a local variable
+            return new FunctionData(calleeClass.getConstructor(argTypes), Utils.getParameterTypeForClass(calleeClass, p.parameterTypeMap));
+        default:
+            throw new NoSuchMethodException("Not a component: " + name);
+        }
+    }
+
+    private static Object readLiteral(DataInputStream in, SynthesisTask task) throws IOException, ReflectiveOperationException {
+        char tag = (char) in.readByte();
+        switch (tag) {
+        case 'n':
+            return null;
+        case 'Z':
+            return in.readBoolean();
+        case 'I':
+            return in.readInt();
+        case 'J':
+            return in.readLong();
+        case 'D':
+            return in.readDouble();
+        case 'F':
+            return in.readFloat();
+        case 'S':
+            return in.readShort();
+        case 'B':
+            return in.readByte();
+        case 'C':
+            return in.readChar();
+        case 'T':
+            return in.readUTF();
+        case 'X': {
+            Class<?> key = readClass(in);
+            List<Object> literals = task.getLiterals().get(key);
+            int index = in.readInt();
+            if (literals == null || index >= literals.size())
+                throw new IOException("Literal not found in task");
+            return literals.get(index);
+        }
+        default:
+            throw new IOException("Unknown literal tag: " + tag);
+        }
+    }
+
+    private static Class<?> readClass(DataInputStream in) throws IOException, ClassNotFoundException {
+        return Utils.classFromString(in.readUTF());
+    }
+}
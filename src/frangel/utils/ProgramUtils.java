@@ -312,7 +312,7 @@ public class ProgramUtils {
                         p.addToScope(replacementName);
                         replacements.put(name, replacementName);
                     } else {
-                        replacementName = Utils.randElement(sameType);
+                        replacementName = p.rand.element(sameType);
                         v.setName(replacementName);
                         replacements.put(name, replacementName);
                     }
@@ -0,0 +1,105 @@
+// A seedable source of randomness. Each search worker draws from its own stream, so workers don't contend on
+// a shared generator, and a run can be replayed from its seed.
+
+package frangel.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+public class RandomStream {
+    private final long seed;
+    private final SplittableRandom rand;
+
+    public RandomStream(long seed) {
+        this.seed = seed;
+        rand = new SplittableRandom(seed);
+    }
+
+    private RandomStream(SplittableRandom rand, long seed) {
+        this.seed = seed;
+        this.rand = rand;
+    }
+
+    // A fresh seed, for runs that don't ask for a specific one
+    public static long newSeed() {
+        return new SplittableRandom().nextLong();
+    }
+
+    // The seed this stream (or the stream it was split from) was created with
+    public long getSeed() {
+        return seed;
+    }
+
+    // An independent stream. Splitting in the same order from the same seed gives the same streams.
+    public RandomStream split() {
+        return new RandomStream(rand.split(), seed);
+    }
+
+    public <T> T element(T[] arr) {
+        return arr[rand.nextInt(arr.length)];
+    }
+
+    public <T> T element(List<T> list) {
+        return list.get(rand.nextInt(list.size()));
+    }
+
+    public <T> void shuffle(T[] arr) {
+        for (int i = arr.length - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            T temp = arr[j];
+            arr[j] = arr[i];
+            arr[i] = temp;
+        }
+    }
+
+    public <T> void shuffle(List<T> list) {
+        for (int i = list.size() - 1; i > 0; i--)
+            list.set(i, list.set(rand.nextInt(i + 1), list.get(i)));
+    }
+
+    public boolean nextBoolean() {
+        return rand.nextBoolean();
+    }
+
+    public boolean nextBoolean(double prob) {
+        return rand.nextDouble() < prob;
+    }
+
+    public int nextInt(int max) {
+        return rand.nextInt(max);
+    }
+
+    // In the range [min, max)
+    public int nextInt(int min, int max) {
+        return rand.nextInt(min, max);
+    }
+
+    public double nextDouble() {
+        return rand.nextDouble();
+    }
+
+    // Partitions "total" elements into a given number of "parts", each part having at least "min" elements
+    // Null if impossible (e.g., parts * min > total)
+    // Ex: partition(10, 3, 2) might return [2, 5, 3]
+    public int[] partition(int total, int parts, int min) {
+        total -= parts * min;
+        if (total < 0)
+            return null;
+
+        // Randomly place bars that separate the parts
+        int[] ans = new int[parts];
+        ans[0] = total;
+        for (int i = 1; i < parts; i++)
+            ans[i] = rand.nextInt(total + 1);
+        Arrays.sort(ans);
+
+        int start = 0;
+        for (int i = 0; i < parts; i++) {
+            int end = ans[i];
+            ans[i] = min + end - start;
+            start = end;
+        }
+        return ans;
+    }
+}
@@ -0,0 +1,77 @@
+// A bounded, lock-free queue for many producers and many consumers (Vyukov's array-based queue).
+// Each slot has a sequence number that says whether it is ready to be written or read in the current lap.
+
+package frangel.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class RingQueue<T> {
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLong head = new AtomicLong(); // next position to read
+    private final AtomicLong tail = new AtomicLong(); // next position to write
+
+    // The capacity is rounded up to a power of 2
+    public RingQueue(int capacity) {
+        int size = 2;
+        while (size < capacity)
+            size <<= 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        elements = new AtomicReferenceArray<>(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    // False if the queue is full
+    public boolean offer(T element) {
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, pos + 1); // publishes the element
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false; // slot still holds an element from the previous lap
+            }
+            // otherwise another producer claimed this slot, retry
+        }
+    }
+
+    // Null if the queue is empty
+    public T poll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    T element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, pos + mask + 1); // frees the slot for the next lap
+                    return element;
+                }
+            } else if (diff < 0) {
+                return null; // nothing written here yet
+            }
+            // otherwise another consumer took this slot, retry
+        }
+    }
+
+    // Approximate, since other threads may be adding or removing elements
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -2,23 +2,26 @@
 
 package frangel.utils;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.function.Supplier;
 
-import frangel.JavaFunctionLoader;
+import frangel.ComponentIndex;
 import frangel.Settings;
 import frangel.SynthesisTask;
 import frangel.model.FunctionData;
 import frangel.model.expression.*;
 
 public class Utils {
-    private static final Random rand = new Random();
     public static final Expression[] EmptyExpressionArray = new Expression[0];
 
     public static String stringFromFile(String filename) {
@@ -133,72 +136,6 @@ public class Utils {
         return (copy.get(copy.size() / 2) + copy.get((copy.size() - 1) / 2)) / 2;
     }
 
-    public static <T> T randElement(T[] arr) {
-        return arr[rand.nextInt(arr.length)];
-    }
-
-    public static <T> T randElement(List<T> list) {
-        return list.get(rand.nextInt(list.size()));
-    }
-
-    public static <T> void shuffle(T[] arr) {
-        for (int i = arr.length - 1; i > 0; i--) {
-            int j = rand.nextInt(i + 1);
-            T temp = arr[j];
-            arr[j] = arr[i];
-            arr[i] = temp;
-        }
-    }
-
-    public static <T> void shuffle(List<T> list) {
-        Collections.shuffle(list, rand);
-    }
-
-    public static boolean randBoolean() {
-        return rand.nextBoolean();
-    }
-
-    public static boolean randBoolean(double prob) {
-        return randDouble() < prob;
-    }
-
-    public static int randInt(int max) {
-        return rand.nextInt(max);
-    }
-
-    // In the range [min, max)
-    public static int randInt(int min, int max) {
-        return min + rand.nextInt(max - min);
-    }
-
-    public static double randDouble() {
-        return rand.nextDouble();
-    }
-
-    // Partitions "total" elements into a given number of "parts", each part having at least "min" elements
-    // Null if impossible (e.g., parts * min > total)
-    // Ex: randPartition(10, 3, 2) might return [2, 5, 3]
-    public static int[] randPartition(int total, int parts, int min) {
-        total -= parts * min;
-        if (total < 0)
-            return null;
-
-        // Randomly place bars that separate the parts
-        int[] ans = new int[parts];
-        ans[0] = total;
-        for (int i = 1; i < parts; i++)
-            ans[i] = rand.nextInt(total + 1);
-        Arrays.sort(ans);
-
-        int start = 0;
-        for (int i = 0; i < parts; i++) {
-            int end = ans[i];
-            ans[i] = min + end - start;
-            start = end;
-        }
-        return ans;
-    }
-
     public static double timeSince(long start) {
         return (System.nanoTime() - start) / 1.0e9;
     }
@@ -215,8 +152,8 @@ public class Utils {
         return System.nanoTime() > timeout;
     }
 
-    public static int numComponents(SynthesisTask task) {
-        return JavaFunctionLoader.numData() + (Settings.SYPET_MODE ? 0 : OpExpression.numOp() + task.numLiterals());
+    public static int numComponents(SynthesisTask task, ComponentIndex components) {
+        return components.numData() + (task.isSyPetMode() ? 0 : OpExpression.numOp() + task.numLiterals());
     }
 
     private static String escape(String s) {
@@ -247,8 +184,26 @@ public class Utils {
         return Object.class;
     }
 
+    // Overrides Settings.USE_SIMPLE_NAME for the current thread only, so concurrent tasks can print differently
+    private static final ThreadLocal<Boolean> simpleNameOverride = new ThreadLocal<>();
+
+    public static boolean useSimpleName() {
+        Boolean override = simpleNameOverride.get();
+        return override != null ? override : Settings.USE_SIMPLE_NAME;
+    }
+
+    public static <T> T withSimpleName(boolean simple, Supplier<T> supplier) {
+        Boolean old = simpleNameOverride.get();
+        simpleNameOverride.set(simple);
+        try {
+            return supplier.get();
+        } finally {
+            simpleNameOverride.set(old);
+        }
+    }
+
     public static String getParameterizedName(Class<?> container, Class<?> parameterType) {
-        return getParameterizedName(container, parameterType, Settings.USE_SIMPLE_NAME);
+        return getParameterizedName(container, parameterType, useSimpleName());
     }
 
     public static String getParameterizedName(Class<?> container, Class<?> parameterType, boolean simple) {
@@ -268,7 +223,7 @@ public class Utils {
     }
 
     public static String getClassName(Class<?> cls) {
-        return getClassName(cls, Settings.USE_SIMPLE_NAME);
+        return getClassName(cls, useSimpleName());
     }
     public static String getClassName(Class<?> cls, boolean simple) {
         if (simple) {
@@ -287,6 +242,14 @@ public class Utils {
         }
     }
 
+    // Values that nothing can change in place, so they can be shared between runs
+    public static boolean isImmutable(Object o) {
+        return o == null || o instanceof String || o instanceof Integer || o instanceof Long || o instanceof Double
+                || o instanceof Boolean || o instanceof Character || o instanceof Float || o instanceof Short
+                || o instanceof Byte || o instanceof BigInteger || o instanceof BigDecimal || o instanceof Enum
+                || o instanceof File;
+    }
+
     public static String getTypeString(Object o) {
         if (o == null)
             return "null";